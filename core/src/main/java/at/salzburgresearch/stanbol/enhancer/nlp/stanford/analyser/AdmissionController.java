@@ -0,0 +1,169 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Admission control for the {@link StanfordNlpAnalyzer}.
+ * <p>
+ * Texts waiting for an analysis thread are kept in memory. Without a limit
+ * they pile up under overload until the JVM runs out of memory. This class
+ * bounds the queue of the analyser by
+ * <ul>
+ * <li> the number of queued texts
+ * <li> the total number of characters of the queued texts
+ * <li> the free heap: requests are rejected if the free heap is below the
+ * configured watermark. To avoid rejections caused by garbage not yet
+ * collected the heap usage after the last garbage collection is checked
+ * before a request is rejected.
+ * </ul>
+ * Rejected requests fail with an {@link AnalysisRejectedException} with a
+ * retry-after value estimated by the average time texts spent in the queue.
+ * <p>
+ * Instances are thread safe.
+ *
+ * @author Rupert Westenthaler
+ *
+ */
+public class AdmissionController {
+
+    private final Logger log = LoggerFactory.getLogger(AdmissionController.class);
+
+    /**
+     * The weight of the latest request for the average queue time
+     */
+    private static final double WAIT_WEIGHT = 0.1;
+
+    private final int maxQueued;
+    private final long maxQueuedChars;
+    private final long minFreeHeap;
+
+    private int queued;
+    private long queuedChars;
+    /**
+     * The exponentially weighted moving average of the queue time in ms
+     */
+    private double wait;
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param maxQueued the maximum number of queued texts or <code>0</code>
+     * for no limit
+     * @param maxQueuedChars the maximum number of characters of all queued
+     * texts or <code>0</code> for no limit
+     * @param minFreeHeap the free heap in bytes below that requests are
+     * rejected or <code>0</code> to deactivate
+     */
+    public AdmissionController(int maxQueued, long maxQueuedChars, long minFreeHeap) {
+        if(maxQueued < 0 || maxQueuedChars < 0 || minFreeHeap < 0){
+            throw new IllegalArgumentException("Limits MUST NOT be negative (maxQueued: "
+                + maxQueued + ", maxQueuedChars: " + maxQueuedChars + ", minFreeHeap: "
+                + minFreeHeap+")!");
+        }
+        this.maxQueued = maxQueued;
+        this.maxQueuedChars = maxQueuedChars;
+        this.minFreeHeap = minFreeHeap;
+    }
+
+    /**
+     * Admits a text to the queue of the analyser. Admitted texts MUST BE
+     * {@link #dequeued(int, long) dequeued} when the processing starts or the
+     * request is cancelled.
+     * @param chars the number of characters of the text
+     * @throws AnalysisRejectedException if the text is not admitted
+     */
+    public void admit(int chars){
+        if(minFreeHeap > 0 && getFreeHeap() < minFreeHeap){
+            reject("free heap below " + (minFreeHeap >> 20) + "MB");
+        }
+        synchronized (this) {
+            if(maxQueued > 0 && queued >= maxQueued){
+                reject(queued + " texts queued");
+            }
+            //NOTE: a single text longer as the limit is admitted to an empty queue
+            if(maxQueuedChars > 0 && queued > 0 && queuedChars + chars > maxQueuedChars){
+                reject(queuedChars + " chars queued");
+            }
+            queued++;
+            queuedChars += chars;
+        }
+    }
+
+    /**
+     * Called when the processing of an admitted text starts or the request
+     * is cancelled
+     * @param chars the number of characters parsed to {@link #admit(int)}
+     * @param waited the time in milliseconds the text was queued
+     */
+    public synchronized void dequeued(int chars, long waited){
+        queued--;
+        queuedChars -= chars;
+        wait = wait == 0 ? waited : wait + WAIT_WEIGHT * (waited - wait);
+    }
+
+    private void reject(String reason){
+        long count = rejected.incrementAndGet();
+        int retryAfter = getRetryAfter();
+        if(log.isDebugEnabled() || count % 100 == 1){
+            log.info("Reject request ({}, retry after {}sec, {} rejected)", new Object[]{
+                    reason, retryAfter, count});
+        }
+        throw new AnalysisRejectedException("Request rejected (" + reason
+            + "). Retry after " + retryAfter + " seconds.", retryAfter);
+    }
+
+    /**
+     * The retry-after value for rejected requests in seconds estimated by
+     * the average queue time
+     */
+    public synchronized int getRetryAfter(){
+        return (int)Math.max(1, Math.ceil(wait / 1000));
+    }
+
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    public synchronized long getQueuedChars() {
+        return queuedChars;
+    }
+
+    /**
+     * @return the number of rejected requests
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * The free heap in bytes. If the current free heap is below the watermark
+     * the usage of the heap memory pools after the last garbage collection is
+     * used instead.
+     */
+    long getFreeHeap(){
+        Runtime runtime = Runtime.getRuntime();
+        long max = runtime.maxMemory();
+        long free = max - (runtime.totalMemory() - runtime.freeMemory());
+        if(free >= minFreeHeap){
+            return free;
+        }
+        long used = 0;
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()){
+            if(pool.getType() == MemoryType.HEAP){
+                MemoryUsage usage = pool.getCollectionUsage();
+                if(usage == null){ //no usage after GC for this pool
+                    return free;
+                }
+                used += usage.getUsed();
+            }
+        }
+        return max - used;
+    }
+}
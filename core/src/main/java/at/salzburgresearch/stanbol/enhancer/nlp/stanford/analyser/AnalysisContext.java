@@ -0,0 +1,392 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+
+/**
+ * The options and the state of a single analysis request.
+ * <p>
+ * Created by the caller with the requested layers and parsed to
+ * {@link StanfordNlpAnalyzer#analyse(String, org.apache.stanbol.enhancer.servicesapi.Blob, AnalysisContext)}.
+ * After the analysis the context provides information about annotators that
+ * were {@link #getSkipped() skipped} (e.g. because of an overload of the
+ * analyser).
+ * <p>
+ * Requests can define a {@link #setDeadline(long) deadline} and a
+ * {@link ClientProbe} used to detect disconnected clients. The analysis is
+ * cancelled if the deadline passes, the client disconnects or the request is
+ * {@link #cancel() cancelled}. If {@link #setPartialResults(boolean) partial
+ * results} are enabled an expired deadline stops the analysis at the next
+ * checkpoint and the layers completed so far are returned.
+ * <p>
+ * Checkpoints are between annotators. Only requests with a deadline or
+ * {@link #setSentenceCheckpoints(boolean) sentence checkpoints} enabled run
+ * sentence level annotators sentence by sentence with checkpoints in between,
+ * as this disables the processing of all sentences in a single call (e.g.
+ * the parallel parsing of sentences).
+ *
+ * @author Rupert Westenthaler
+ *
+ */
+public class AnalysisContext {
+
+    private final Collection<String> layers;
+
+    /**
+     * Allows to check if the client of a request is still connected
+     */
+    public interface ClientProbe {
+        /**
+         * @return <code>false</code> if the client has disconnected
+         */
+        boolean isConnected();
+    }
+
+    /**
+     * The lane of a request used to schedule it
+     * @see PriorityExecutor
+     */
+    public enum Priority {
+        /**
+         * Requests of interactive clients (default)
+         */
+        INTERACTIVE,
+        /**
+         * Bulk requests are only processed if no interactive requests are
+         * waiting (for longer as the bulk delay)
+         */
+        BULK
+    }
+
+    private Priority priority = Priority.INTERACTIVE;
+    private long deadline;
+    private boolean partialResults;
+    private ClientProbe clientProbe;
+    private boolean sentenceCheckpoints;
+    private volatile boolean cancelled;
+    private volatile boolean partial;
+
+    private String language;
+    private Collection<String> annotators;
+    private OverloadPolicy policy;
+    /**
+     * Optional annotators disabled for this request
+     */
+    private boolean shedOptional;
+
+    private final Set<String> skipped = Collections.synchronizedSet(new LinkedHashSet<String>());
+    /**
+     * Annotators allowed by their circuit breaker without recorded outcome
+     */
+    private final Set<String> pending = Collections.synchronizedSet(new HashSet<String>());
+
+    /**
+     * Creates a context for a request using all annotators of the pipeline
+     */
+    public AnalysisContext() {
+        this(null);
+    }
+
+    /**
+     * @param layers the requested layers or <code>null</code> for all
+     * @see LangPipeline#resolveAnnotators(Collection)
+     */
+    public AnalysisContext(Collection<String> layers) {
+        this.layers = layers == null || layers.isEmpty() ? null :
+            Collections.unmodifiableCollection(layers);
+    }
+
+    /**
+     * @return the requested layers or <code>null</code> if all layers are requested
+     */
+    public Collection<String> getLayers() {
+        return layers;
+    }
+
+    /**
+     * @param priority the priority or <code>null</code> for
+     * {@link Priority#INTERACTIVE}
+     */
+    public void setPriority(Priority priority) {
+        this.priority = priority == null ? Priority.INTERACTIVE : priority;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Sets the deadline for the request
+     * @param deadline the deadline in milliseconds (as returned by
+     * {@link System#currentTimeMillis()}) or <code>0</code> for none
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Sets the deadline relative to the current time
+     * @param timeout the timeout in milliseconds or <code>0</code> for none
+     */
+    public void setTimeout(long timeout){
+        setDeadline(timeout > 0 ? System.currentTimeMillis() + timeout : 0);
+    }
+
+    /**
+     * @return the deadline or <code>0</code> if none
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @return if the deadline has passed
+     */
+    public boolean isExpired(){
+        return deadline > 0 && System.currentTimeMillis() >= deadline;
+    }
+
+    /**
+     * @param partialResults if the layers completed before the deadline
+     * should be returned instead of failing with an {@link AnalysisTimeoutException}
+     */
+    public void setPartialResults(boolean partialResults) {
+        this.partialResults = partialResults;
+    }
+
+    public boolean isPartialResults() {
+        return partialResults;
+    }
+
+    /**
+     * @return <code>true</code> if the analysis was stopped by the deadline and
+     * only a part of the requested layers are present
+     */
+    public boolean isPartial() {
+        return partial;
+    }
+
+    public void setClientProbe(ClientProbe clientProbe) {
+        this.clientProbe = clientProbe;
+    }
+
+    /**
+     * @return <code>false</code> if the client has disconnected
+     */
+    public boolean isClientConnected(){
+        return clientProbe == null || clientProbe.isConnected();
+    }
+
+    /**
+     * @param sentenceCheckpoints if sentence level annotators should be run
+     * sentence by sentence with checkpoints in between, regardless of a
+     * deadline
+     */
+    public void setSentenceCheckpoints(boolean sentenceCheckpoints) {
+        this.sentenceCheckpoints = sentenceCheckpoints;
+    }
+
+    public boolean isSentenceCheckpoints() {
+        return sentenceCheckpoints;
+    }
+
+    /**
+     * Cancels the analysis. The processing stops at the next checkpoint.
+     */
+    public void cancel(){
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * If the analysis can be interrupted by a deadline or a cancellation
+     */
+    boolean isInterruptible(){
+        return deadline > 0 || clientProbe != null;
+    }
+
+    /**
+     * If sentence level annotators need checkpoints between sentences. This
+     * is the case for requests with a deadline and requests that enabled
+     * {@link #setSentenceCheckpoints(boolean) sentence checkpoints}. Other
+     * requests are only checked between annotators.
+     */
+    boolean isSentenceInterruptible(){
+        return deadline > 0 || sentenceCheckpoints;
+    }
+
+    /**
+     * Checkpoint called between annotators and sentences
+     * @return <code>true</code> to continue or <code>false</code> if the
+     * processing needs to stop and return a partial result
+     * @throws CancellationException if the request was cancelled or the
+     * processing thread was interrupted
+     * @throws AnalysisTimeoutException if the deadline has passed and
+     * partial results are not enabled
+     */
+    boolean checkpoint(){
+        if(cancelled || Thread.currentThread().isInterrupted()){
+            throw new CancellationException("Analysis of '" + language + "' language text cancelled");
+        }
+        if(isExpired()){
+            if(!partialResults){
+                throw new AnalysisTimeoutException("Analysis of '" + language 
+                    + "' language text not completed before the deadline");
+            }
+            partial = true;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Creates the context used for a processing shared by coalesced requests.
+     * It uses the layers and the priority of this context but neither its
+     * deadline nor its client probe as the processing is only cancelled if
+     * no request waits for it any more.
+     */
+    AnalysisContext fork(){
+        AnalysisContext fork = new AnalysisContext(layers);
+        fork.priority = priority;
+        //allow waiting requests with a deadline to stop the processing quickly
+        fork.sentenceCheckpoints = isSentenceInterruptible();
+        return fork;
+    }
+
+    /**
+     * Takes the annotators and the skipped annotators of a completed shared
+     * processing
+     * @param processing the context used for the shared processing
+     */
+    void completed(AnalysisContext processing){
+        init(processing.getLanguage(), processing.getAnnotators(), null, false);
+        for(String name : processing.getSkipped()){
+            skipped(name);
+        }
+    }
+
+    /**
+     * @return the names of the annotators to run or <code>null</code> for all
+     */
+    public Collection<String> getAnnotators() {
+        return annotators;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    /**
+     * Called by the analyser before processing
+     */
+    void init(String language, Collection<String> annotators, OverloadPolicy policy, boolean shedOptional){
+        this.language = language;
+        this.annotators = annotators;
+        this.policy = policy;
+        this.shedOptional = shedOptional;
+    }
+
+    /**
+     * If the parsed annotator can be skipped
+     */
+    boolean isOptional(String annotator){
+        return policy != null && policy.isOptional(annotator);
+    }
+
+    /**
+     * If the parsed optional annotator is enabled for this request
+     */
+    boolean isEnabled(String annotator){
+        return !shedOptional && isAllowed(annotator);
+    }
+
+    /**
+     * If the parsed annotator is allowed by its circuit breaker. The outcome
+     * of allowed annotators needs to be recorded (see {@link #release()}).
+     */
+    boolean isAllowed(String annotator){
+        if(policy == null){
+            return true;
+        }
+        if(policy.allowAnnotator(language, annotator)){
+            pending.add(annotator);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the exception used to reject the request as the circuit breaker
+     * of the parsed required annotator is open
+     */
+    AnalysisRejectedException rejected(String annotator){
+        long remaining = policy == null ? 0 : policy.getBreaker(language, annotator).getRemainingOpenTime();
+        return new AnalysisRejectedException("The " + annotator + " annotator for language "
+            + language + " is not available (circuit breaker open)", 
+            (int)Math.max(1, (remaining + 999) / 1000));
+    }
+
+    void skipped(String annotator){
+        skipped.add(annotator);
+    }
+
+    void succeeded(String annotator, long duration){
+        if(policy != null && pending.remove(annotator)){
+            policy.annotatorSucceeded(language, annotator, duration);
+        }
+    }
+
+    void failed(String annotator, Exception e){
+        skipped.add(annotator);
+        recordFailure(annotator, e);
+    }
+
+    /**
+     * Records the failure of an annotator with the circuit breaker
+     */
+    void recordFailure(String annotator, Exception e){
+        if(policy != null && pending.remove(annotator)){
+            policy.annotatorFailed(language, annotator, e);
+        }
+    }
+
+    /**
+     * Releases the circuit breaker trials of allowed annotators without
+     * recorded outcome. Called after processing.
+     */
+    void release(){
+        if(policy == null){
+            return;
+        }
+        synchronized (pending) {
+            for(String annotator : pending){
+                policy.annotatorAborted(language, annotator);
+            }
+            pending.clear();
+        }
+    }
+
+    /**
+     * @return the annotators skipped for this request
+     */
+    public Set<String> getSkipped() {
+        synchronized (skipped) {
+            return Collections.unmodifiableSet(new LinkedHashSet<String>(skipped));
+        }
+    }
+
+    /**
+     * @return <code>true</code> if some of the requested annotators were
+     * skipped
+     */
+    public boolean isDegraded(){
+        return !skipped.isEmpty();
+    }
+}
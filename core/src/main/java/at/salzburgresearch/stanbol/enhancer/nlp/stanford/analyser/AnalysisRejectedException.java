@@ -0,0 +1,31 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown if a request is rejected by the {@link AdmissionController} of the
+ * {@link StanfordNlpAnalyzer} (e.g. because the queue is full or the free
+ * heap is low). Clients are expected to retry after
+ * {@link #getRetryAfter()} seconds.
+ *
+ * @author Rupert Westenthaler
+ *
+ */
+public class AnalysisRejectedException extends RejectedExecutionException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int retryAfter;
+
+    public AnalysisRejectedException(String message, int retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return the number of seconds after that the client should retry
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,18 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+/**
+ * Thrown if the analysis of a text does not complete before the
+ * {@link AnalysisContext#getDeadline() deadline} of the request.
+ *
+ * @author Rupert Westenthaler
+ *
+ */
+public class AnalysisTimeoutException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public AnalysisTimeoutException(String message) {
+        super(message);
+    }
+
+}
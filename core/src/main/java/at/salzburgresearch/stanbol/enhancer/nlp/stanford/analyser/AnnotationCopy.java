@@ -0,0 +1,196 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import edu.stanford.nlp.ling.CoreAnnotations.SentencesAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.TokensAnnotation;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.TreeCoreAnnotations.TreeAnnotation;
+import edu.stanford.nlp.util.ArrayCoreMap;
+import edu.stanford.nlp.util.CoreMap;
+
+/**
+ * A copy of an {@link Annotation} used to run an annotator concurrently with
+ * other annotators of the same document.
+ * <p>
+ * The document, the sentences and the tokens are copied so that concurrent
+ * annotators do not write to the same {@link CoreMap}s. Values are shared
+ * with the original except parse trees: those are deep copied because some
+ * annotators modify the labels of the trees they read. After the annotator
+ * completed the annotations it added or replaced are {@link #merge() merged}
+ * into the original.
+ * <p>
+ * The values of the original before the copy was created are kept. If an
+ * annotation written by the annotator was also changed in the original
+ * (by an other annotator of the same wave) merging would silently drop one
+ * of the two writes. Such conflicts are detected and reported by 
+ * {@link #merge()} without merging anything, so that the caller can run
+ * the annotator again on the original.
+ *
+ * @author Rupert Westenthaler
+ *
+ */
+final class AnnotationCopy {
+
+    private final Annotation original;
+    private final Annotation copy;
+    private final List<CoreMap> sentences;
+    private final List<CoreMap> sentenceCopies;
+    /**
+     * The copies of the tokens by original token
+     */
+    private final Map<CoreLabel,CoreLabel> tokens = new IdentityHashMap<CoreLabel,CoreLabel>();
+    /**
+     * The values of the copies and the originals before the annotator runs
+     */
+    private final Map<CoreMap,Map<Class<?>,Object>> initial = new IdentityHashMap<CoreMap,Map<Class<?>,Object>>();
+    private final Map<CoreMap,Map<Class<?>,Object>> before = new IdentityHashMap<CoreMap,Map<Class<?>,Object>>();
+
+    AnnotationCopy(Annotation original){
+        this.original = original;
+        this.copy = new Annotation(original);
+        List<CoreLabel> docTokens = original.get(TokensAnnotation.class);
+        if(docTokens != null){
+            copy.set(TokensAnnotation.class, copyTokens(docTokens));
+        }
+        sentences = original.get(SentencesAnnotation.class);
+        if(sentences != null){
+            sentenceCopies = new ArrayList<CoreMap>(sentences.size());
+            for(CoreMap sentence : sentences){
+                CoreMap sentenceCopy = new ArrayCoreMap(sentence.size());
+                copyKeys(sentence, sentenceCopy);
+                List<CoreLabel> sentTokens = sentence.get(TokensAnnotation.class);
+                if(sentTokens != null){
+                    sentenceCopy.set(TokensAnnotation.class, copyTokens(sentTokens));
+                }
+                Tree tree = sentence.get(TreeAnnotation.class);
+                if(tree != null){
+                    sentenceCopy.set(TreeAnnotation.class, tree.deepCopy());
+                }
+                sentenceCopies.add(sentenceCopy);
+            }
+            copy.set(SentencesAnnotation.class, sentenceCopies);
+        } else {
+            sentenceCopies = null;
+        }
+        snapshot(copy, original);
+        if(sentences != null){
+            for(int i = 0; i < sentences.size(); i++){
+                snapshot(sentenceCopies.get(i), sentences.get(i));
+            }
+        }
+        for(Entry<CoreLabel,CoreLabel> token : tokens.entrySet()){
+            snapshot(token.getValue(), token.getKey());
+        }
+    }
+
+    /**
+     * @return the copy to be processed by the annotator
+     */
+    Annotation get(){
+        return copy;
+    }
+
+    /**
+     * Merges the annotations added or replaced in the copy into the original.
+     * Nothing is merged if the original was changed for any of those
+     * annotations since the copy was created.
+     * @return the conflicting annotations. If not empty nothing was merged
+     */
+    Set<Class<?>> merge(){
+        List<CoreMap> targets = new ArrayList<CoreMap>();
+        List<Class<?>> keys = new ArrayList<Class<?>>();
+        List<Object> values = new ArrayList<Object>();
+        Set<Class<?>> conflicts = new HashSet<Class<?>>();
+        written(copy, original, targets, keys, values, conflicts);
+        if(sentences != null){
+            for(int i = 0; i < sentences.size(); i++){
+                written(sentenceCopies.get(i), sentences.get(i), targets, keys, values, conflicts);
+            }
+        }
+        for(Entry<CoreLabel,CoreLabel> token : tokens.entrySet()){
+            written(token.getValue(), token.getKey(), targets, keys, values, conflicts);
+        }
+        if(!conflicts.isEmpty()){
+            return conflicts;
+        }
+        for(int i = 0; i < targets.size(); i++){
+            set(targets.get(i), keys.get(i), values.get(i));
+        }
+        return Collections.emptySet();
+    }
+
+    private List<CoreLabel> copyTokens(List<CoreLabel> list){
+        List<CoreLabel> copies = new ArrayList<CoreLabel>(list.size());
+        for(CoreLabel token : list){
+            CoreLabel tokenCopy = tokens.get(token);
+            if(tokenCopy == null){ //sentences use the tokens of the document
+                tokenCopy = new CoreLabel(token);
+                tokens.put(token, tokenCopy);
+            }
+            copies.add(tokenCopy);
+        }
+        return copies;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static void copyKeys(CoreMap from, CoreMap to){
+        for(Class key : from.keySet()){
+            to.set(key, from.get(key));
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void snapshot(CoreMap copy, CoreMap target){
+        Map<Class<?>,Object> copyValues = new IdentityHashMap<Class<?>,Object>();
+        for(Class key : copy.keySet()){
+            copyValues.put(key, copy.get(key));
+        }
+        initial.put(copy, copyValues);
+        Map<Class<?>,Object> targetValues = new IdentityHashMap<Class<?>,Object>();
+        for(Class key : target.keySet()){
+            targetValues.put(key, target.get(key));
+        }
+        before.put(target, targetValues);
+    }
+
+    /**
+     * Collects the annotations the annotator wrote to the copy and the
+     * conflicting ones (also changed in the target). The copied token and
+     * sentence lists are not merged.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void written(CoreMap copy, CoreMap target, List<CoreMap> targets, 
+            List<Class<?>> keys, List<Object> values, Set<Class<?>> conflicts){
+        Map<Class<?>,Object> copyValues = initial.get(copy);
+        Map<Class<?>,Object> targetValues = before.get(target);
+        for(Class key : copy.keySet()){
+            Object value = copy.get(key);
+            if(key == TokensAnnotation.class || key == SentencesAnnotation.class ||
+                    (copyValues.containsKey(key) && copyValues.get(key) == value)){
+                continue; //not written by the annotator
+            }
+            if(target.get(key) != targetValues.get(key)){
+                conflicts.add(key);
+            } else {
+                targets.add(target);
+                keys.add(key);
+                values.add(value);
+            }
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static void set(CoreMap map, Class key, Object value){
+        map.set(key, value);
+    }
+}
@@ -0,0 +1,196 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.stanford.nlp.pipeline.Annotator;
+import edu.stanford.nlp.pipeline.AnnotatorFactory;
+import edu.stanford.nlp.pipeline.AnnotatorPool;
+
+/**
+ * Process wide registry for {@link Annotator}s. Annotators are keyed by the
+ * {@link AnnotatorFactory#signature() signature} of the factory used to create
+ * them. Multiple {@link LangPipeline}s with the same configuration for an
+ * annotator (e.g. '<code>en-us</code>' and '<code>en-gb</code>' both using the
+ * '<code>en</code>' defaults) will therefore share the same instance (and
+ * models).
+ * <p>
+ * Annotators are reference counted. If the last pipeline using an annotator
+ * {@link #release(String) releases} it, it is removed from the registry so
+ * that its models can be garbage collected. {@link Closeable} annotators are
+ * closed.
+ * <p>
+ * In contrast to the {@link AnnotatorPool} annotators with different signatures
+ * are created concurrently.
+ *
+ * @author Rupert Westenthaler
+ *
+ */
+public final class AnnotatorRegistry {
+
+    private final Logger log = LoggerFactory.getLogger(AnnotatorRegistry.class);
+
+    private static final AnnotatorRegistry INSTANCE = new AnnotatorRegistry();
+
+    private final Map<String,Entry> entries = new HashMap<String,Entry>();
+
+    private AnnotatorRegistry() {}
+
+    public static AnnotatorRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Acquires the annotator for the {@link AnnotatorFactory#signature()
+     * signature} of the parsed factory. If no annotator is registered for this
+     * signature it is created by using the parsed factory. Concurrent calls for
+     * the same signature will wait for the annotator created by the first call.
+     * <p>
+     * Callers MUST {@link #release(String) release} the annotator if no longer
+     * used.
+     * @param factory the factory
+     * @return the annotator
+     * @throws IllegalArgumentException if the factory does not provide a
+     * signature
+     * @throws IllegalStateException if interrupted while waiting for the
+     * creation of the annotator
+     */
+    public Annotator acquire(final AnnotatorFactory factory){
+        return acquire(factory.signature(), factory);
+    }
+
+    /**
+     * Acquires the annotator for the parsed signature. Same as
+     * {@link #acquire(AnnotatorFactory)} but uses the parsed signature (e.g.
+     * if the signature of the factory is expensive to calculate or may change
+     * over time).
+     * @param signature the signature of the factory
+     * @param factory the factory
+     * @return the annotator
+     * @see #acquire(AnnotatorFactory)
+     */
+    public Annotator acquire(final String signature, final AnnotatorFactory factory){
+        if(signature == null || signature.isEmpty()){
+            throw new IllegalArgumentException("The parsed AnnotatorFactory "
+                + factory.getClass().getName() + " does not provide a signature!");
+        }
+        Entry entry;
+        boolean create;
+        synchronized (entries) {
+            entry = entries.get(signature);
+            create = entry == null;
+            if(create){
+                entry = new Entry(new FutureTask<Annotator>(new Callable<Annotator>() {
+                    @Override
+                    public Annotator call() throws Exception {
+                        return factory.create();
+                    }
+                }));
+                entries.put(signature, entry);
+            }
+            entry.references++;
+        }
+        if(create){
+            entry.task.run(); //create the annotator in the current thread
+        } else {
+            log.debug(" ... share Annotator for signature {}", signature);
+        }
+        try {
+            return entry.task.get();
+        } catch (InterruptedException e) {
+            release(signature);
+            throw new IllegalStateException("Interrupted while waiting for the "
+                + "Annotator with signature " + signature,e);
+        } catch (ExecutionException e) {
+            synchronized (entries) {
+                if(entries.get(signature) == entry){
+                    entries.remove(signature);
+                }
+            }
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException){
+                throw (RuntimeException)cause;
+            } else if(cause instanceof Error){
+                throw (Error)cause;
+            } else {
+                throw new IllegalStateException("Unable to create Annotator with "
+                    + "signature " + signature, cause);
+            }
+        }
+    }
+
+    /**
+     * Releases the annotator with the parsed signature. If no longer referenced
+     * the annotator is removed from the registry and closed if it is
+     * {@link Closeable}.
+     * @param signature the signature
+     * @return <code>true</code> if the annotator was removed from the registry
+     */
+    public boolean release(String signature){
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(signature);
+            if(entry == null){
+                return false;
+            }
+            entry.references--;
+            if(entry.references > 0){
+                return false;
+            }
+            entries.remove(signature);
+            log.info(" ... unloaded Annotator with signature {}", signature);
+        }
+        if(entry.task.isDone()){
+            try {
+                close(entry.task.get());
+            } catch (ExecutionException e) {
+                //creation failed ... nothing to close
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Closes the parsed annotator if it is {@link Closeable}
+     * @param annotator the annotator
+     */
+    static void close(Annotator annotator){
+        if(annotator instanceof Closeable){
+            try {
+                ((Closeable)annotator).close();
+            } catch (IOException e) {
+                LoggerFactory.getLogger(AnnotatorRegistry.class).warn(
+                    "Unable to close Annotator " + annotator, e);
+            }
+        }
+    }
+    /**
+     * The number of annotators currently registered
+     * @return the number of registered annotators
+     */
+    public int size(){
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private static class Entry {
+
+        private final FutureTask<Annotator> task;
+        private int references;
+
+        Entry(FutureTask<Annotator> task){
+            this.task = task;
+        }
+    }
+}
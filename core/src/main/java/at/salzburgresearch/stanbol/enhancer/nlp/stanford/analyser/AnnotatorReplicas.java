@@ -0,0 +1,199 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.Annotator;
+
+/**
+ * The instances of an annotator used by a {@link LangPipeline}.
+ * <p>
+ * Some annotators synchronise internally (e.g. SUTime used by
+ * <code>ner</code>) or keep state while processing a text. Pipelines with
+ * '<code>replicas = {n}</code>' create <code>n</code> own instances of the
+ * annotators configured by '<code>replicas.annotators</code>' (see
+ * {@link LangPipeline#REPLICAS_PROPERTY}) and every call checks out an
+ * instance for its exclusive use. All other annotators are a single instance
+ * shared by concurrent calls.
+ * <p>
+ * For every annotator the time waiting for an instance as well as the wall
+ * clock and CPU time of the calls are recorded. A large difference between
+ * wall clock and CPU time indicates that threads are blocked (e.g. on a
+ * lock within the annotator) and that the annotator may profit from own
+ * instances.
+ *
+ * @author Rupert Westenthaler
+ *
+ */
+public class AnnotatorReplicas implements Annotator {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final String name;
+    private final Annotator primary;
+    private final List<Annotator> instances;
+    /**
+     * The instances not in use or <code>null</code> if the single instance is
+     * shared by concurrent calls
+     */
+    private final BlockingQueue<Annotator> available;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong wallNanos = new AtomicLong();
+    private final AtomicLong cpuNanos = new AtomicLong();
+
+    /**
+     * @param name the name of the annotator
+     * @param instances the instances of the annotator. If a single instance
+     * is parsed it is shared by concurrent calls.
+     */
+    public AnnotatorReplicas(String name, List<Annotator> instances) {
+        if(instances == null || instances.isEmpty()){
+            throw new IllegalArgumentException("The parsed instances MUST NOT be NULL nor empty!");
+        }
+        this.name = name;
+        this.primary = instances.get(0);
+        this.instances = Collections.unmodifiableList(new ArrayList<Annotator>(instances));
+        if(instances.size() > 1){
+            available = new ArrayBlockingQueue<Annotator>(instances.size(), false, instances);
+        } else {
+            available = null;
+        }
+    }
+
+    /**
+     * Processes the parsed annotation with an instance not in use. Waits if
+     * all instances are in use.
+     * @throws CancellationException if interrupted while waiting for an
+     * instance
+     */
+    @Override
+    public void annotate(Annotation annotation) {
+        Annotator annotator;
+        if(available == null){
+            annotator = primary;
+        } else {
+            annotator = available.poll();
+            if(annotator == null){
+                long start = System.nanoTime();
+                try {
+                    annotator = available.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException("Interrupted while waiting for a "
+                        + name + " annotator");
+                } finally {
+                    waitNanos.addAndGet(System.nanoTime() - start);
+                }
+            }
+        }
+        boolean cpuTime = THREADS.isCurrentThreadCpuTimeSupported();
+        long cpuStart = cpuTime ? THREADS.getCurrentThreadCpuTime() : 0;
+        long start = System.nanoTime();
+        try {
+            annotator.annotate(annotation);
+        } finally {
+            long wall = System.nanoTime() - start;
+            //without CPU time support report the wall clock time to avoid false contention
+            long cpu = cpuTime ? THREADS.getCurrentThreadCpuTime() - cpuStart : wall;
+            calls.incrementAndGet();
+            wallNanos.addAndGet(wall);
+            cpuNanos.addAndGet(Math.min(cpu, wall));
+            if(available != null){
+                available.offer(annotator);
+            }
+        }
+    }
+
+    @Override
+    public Set<Requirement> requirementsSatisfied() {
+        return primary.requirementsSatisfied();
+    }
+
+    @Override
+    public Set<Requirement> requires() {
+        return primary.requires();
+    }
+
+    /**
+     * @return the name of the annotator
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of instances
+     */
+    public int getSize() {
+        return instances.size();
+    }
+
+    /**
+     * @return the instances of the annotator. A single instance is shared by
+     * concurrent calls
+     */
+    public List<Annotator> getReplicas() {
+        return instances;
+    }
+
+    /**
+     * @return the number of instances currently not in use
+     */
+    public int getAvailable() {
+        return available == null ? instances.size() : available.size();
+    }
+
+    /**
+     * @return the number of calls
+     */
+    public long getCalls() {
+        return calls.get();
+    }
+
+    /**
+     * @return the accumulated time in milliseconds calls waited for an instance
+     */
+    public long getWaitTime() {
+        return waitNanos.get() / 1000000;
+    }
+
+    /**
+     * @return the accumulated wall clock time in milliseconds of the calls
+     */
+    public long getWallTime() {
+        return wallNanos.get() / 1000000;
+    }
+
+    /**
+     * @return the accumulated CPU time in milliseconds of the calls
+     */
+    public long getCpuTime() {
+        return cpuNanos.get() / 1000000;
+    }
+
+    /**
+     * The time calls were not running on a CPU (blocked on locks, waiting for
+     * IO or for a CPU core).
+     * @return the accumulated wall clock minus CPU time in milliseconds
+     */
+    public long getBlockedTime() {
+        return (wallNanos.get() - cpuNanos.get()) / 1000000;
+    }
+
+    @Override
+    public String toString() {
+        return name + " [instances: " + instances.size() + ", calls: " + calls.get()
+            + ", wait: " + getWaitTime() + "ms, blocked: " + getBlockedTime() + "ms]";
+    }
+}
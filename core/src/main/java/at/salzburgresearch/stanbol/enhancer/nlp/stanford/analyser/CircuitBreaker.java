@@ -0,0 +1,141 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+/**
+ * Circuit breaker for a single annotator. After the configured number of
+ * consecutive failures the breaker opens and the annotator is skipped. After
+ * the open duration a single trial call is allowed (half open state). If it
+ * succeeds the breaker closes, otherwise it opens again. Callers that do not
+ * record the outcome of an allowed call (e.g. because the request was
+ * cancelled) MUST {@link #releaseTrial() release} the trial. Trials not
+ * released are expired after the open duration.
+ * <p>
+ * Instances are thread safe.
+ *
+ * @author Rupert Westenthaler
+ *
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openDuration;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+    private boolean trial;
+    private long trialStartedAt;
+    private long trips;
+
+    /**
+     * @param name the name (used for logging)
+     * @param failureThreshold the number of consecutive failures that opens
+     * the breaker
+     * @param openDuration the time in milliseconds the breaker stays open
+     * before a trial call is allowed
+     */
+    public CircuitBreaker(String name, int failureThreshold, long openDuration) {
+        if(failureThreshold < 1){
+            throw new IllegalArgumentException("The failure threshold MUST BE > 0 (parsed: "
+                + failureThreshold+")!");
+        }
+        if(openDuration < 0){
+            throw new IllegalArgumentException("The open duration MUST NOT be negative (parsed: "
+                + openDuration+")!");
+        }
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * If a call is allowed. In the half open state only a single trial call
+     * is allowed until its outcome is recorded, the trial is
+     * {@link #releaseTrial() released} or the open duration has passed.
+     * @return <code>true</code> if the call is allowed
+     */
+    public synchronized boolean allowRequest(){
+        long now = System.currentTimeMillis();
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if(now - openedAt < openDuration){
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                trial = false;
+                //fall through
+            default: //HALF_OPEN
+                if(trial && now - trialStartedAt < openDuration){
+                    return false;
+                }
+                trial = true;
+                trialStartedAt = now;
+                return true;
+        }
+    }
+
+    /**
+     * Called for allowed calls without outcome (e.g. cancelled requests). In
+     * the half open state the next call is allowed as trial.
+     */
+    public synchronized void releaseTrial(){
+        trial = false;
+    }
+
+    /**
+     * @return the time in milliseconds until the next trial call is allowed
+     * or <code>0</code> if calls are allowed
+     */
+    public synchronized long getRemainingOpenTime(){
+        if(state != State.OPEN){
+            return 0;
+        }
+        return Math.max(0, openedAt + openDuration - System.currentTimeMillis());
+    }
+
+    public synchronized void recordSuccess(){
+        failures = 0;
+        trial = false;
+        state = State.CLOSED;
+    }
+
+    /**
+     * Records a failed call
+     * @return <code>true</code> if this failure opened the breaker
+     */
+    public synchronized boolean recordFailure(){
+        failures++;
+        trial = false;
+        if(state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold)){
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            trips++;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized State getState(){
+        return state;
+    }
+
+    /**
+     * @return how often this breaker was opened
+     */
+    public synchronized long getTrips() {
+        return trips;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CircuitBreaker [" + name + " | " + state + "]";
+    }
+}
@@ -0,0 +1,172 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adaptive limit for the number of texts processed concurrently by the
+ * {@link StanfordNlpAnalyzer}.
+ * <p>
+ * The limit is adjusted within the configured bounds by using additive
+ * increase / multiplicative decrease (AIMD) based on the observed latency.
+ * As the processing time depends on the length of the texts the latency is
+ * measured in nanoseconds per character. After every window of
+ * {@link #getLimit() limit} samples the average latency of the window is
+ * compared with the baseline (the lowest window average):
+ * <ul>
+ * <li> if it exceeds the baseline by the {@link #DEFAULT_TOLERANCE tolerance}
+ * (e.g. because of GC pressure or CPU contention) the limit is decreased by
+ * the {@link #DEFAULT_BACKOFF backoff ratio}
+ * <li> otherwise the limit is increased by one if it was reached during the
+ * window. An unused limit is not increased.
+ * </ul>
+ * The baseline drifts slowly upwards so that the limiter adapts to permanent
+ * changes (e.g. a reloaded pipeline with more annotators).
+ * <p>
+ * Instances are thread safe.
+ *
+ * @author Rupert Westenthaler
+ *
+ */
+public class ConcurrencyLimiter {
+
+    private final Logger log = LoggerFactory.getLogger(ConcurrencyLimiter.class);
+
+    public static final double DEFAULT_TOLERANCE = 1.5;
+    public static final double DEFAULT_BACKOFF = 0.9;
+    /**
+     * The ratio the baseline drifts towards the window average after every
+     * window
+     */
+    private static final double BASELINE_DRIFT = 0.01;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private double tolerance = DEFAULT_TOLERANCE;
+    private double backoff = DEFAULT_BACKOFF;
+
+    private int limit;
+    private int inflight;
+
+    private int samples;
+    private double windowLatency;
+    private boolean saturated;
+    /**
+     * The baseline latency in ns/char
+     */
+    private double baseline;
+
+    /**
+     * @param minLimit the minimum number of concurrently processed texts
+     * @param maxLimit the maximum number of concurrently processed texts.
+     * This is also the initial limit.
+     */
+    public ConcurrencyLimiter(int minLimit, int maxLimit) {
+        if(minLimit < 1 || maxLimit < minLimit){
+            throw new IllegalArgumentException("The limits MUST BE 1 <= min <= max (min: "
+                + minLimit + ", max: " + maxLimit + ")!");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = maxLimit;
+    }
+
+    /**
+     * @param tolerance the ratio of the window average to the baseline latency
+     * above that the limit is decreased (&gt; 1)
+     * @param backoff the ratio the limit is decreased with (0..1)
+     */
+    public synchronized void setTuning(double tolerance, double backoff){
+        if(tolerance <= 1 || backoff <= 0 || backoff >= 1){
+            throw new IllegalArgumentException("The tolerance MUST BE > 1 and the backoff in "
+                + "the range (0..1) (tolerance: " + tolerance + ", backoff: " + backoff + ")!");
+        }
+        this.tolerance = tolerance;
+        this.backoff = backoff;
+    }
+
+    /**
+     * Waits until the processing of a text is allowed by the current limit.
+     * Each call MUST BE followed by a call to {@link #release(long, int)}.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while(inflight >= limit){
+            wait();
+        }
+        inflight++;
+        if(inflight >= limit){
+            saturated = true;
+        }
+    }
+
+    /**
+     * Called after a text was processed
+     * @param duration the processing time in nanoseconds
+     * @param chars the length of the processed text
+     */
+    public synchronized void release(long duration, int chars){
+        inflight--;
+        if(chars > 0){
+            sample((double)duration / chars);
+        }
+        notifyAll();
+    }
+
+    private void sample(double latency){
+        windowLatency += latency;
+        if(++samples < limit){
+            return;
+        }
+        double avg = windowLatency / samples;
+        samples = 0;
+        windowLatency = 0;
+        boolean wasSaturated = saturated;
+        saturated = inflight >= limit;
+        if(baseline == 0 || avg < baseline){
+            baseline = avg;
+        } else {
+            baseline += BASELINE_DRIFT * (avg - baseline);
+        }
+        int old = limit;
+        if(avg > baseline * tolerance){
+            limit = Math.max(minLimit, (int)(limit * backoff));
+        } else if(wasSaturated && limit < maxLimit){
+            limit++;
+        }
+        if(old != limit){
+            log.debug("Concurrency limit {} -> {} (latency: {}ns/char, baseline: {}ns/char)",
+                new Object[]{old, limit, Math.round(avg), Math.round(baseline)});
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return the current limit
+     */
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the number of texts currently processed
+     */
+    public synchronized int getInflight() {
+        return inflight;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * @return the baseline latency in nanoseconds per character
+     */
+    public synchronized double getBaseline() {
+        return baseline;
+    }
+}
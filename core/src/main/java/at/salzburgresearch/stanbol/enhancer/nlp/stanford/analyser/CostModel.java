@@ -0,0 +1,108 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Estimates the processing time of texts based on their length, language
+ * and the used annotators. The model is calibrated by recent measurements:
+ * for every language and set of annotators the exponentially weighted moving
+ * average of the processing time per character is kept. Until the first
+ * measurement for a combination the average over all combinations is used.
+ * <p>
+ * Instances are thread safe.
+ *
+ * @author Rupert Westenthaler
+ *
+ */
+public class CostModel {
+
+    /**
+     * The processing time per character used before the first measurement
+     * (about 100 chars per millisecond)
+     */
+    public static final double DEFAULT_NANOS_PER_CHAR = 10000;
+    /**
+     * The weight of the latest measurement
+     */
+    private static final double WEIGHT = 0.2;
+
+    private final ConcurrentMap<String,Rate> rates = new ConcurrentHashMap<String,Rate>();
+    private final Rate overall = new Rate(DEFAULT_NANOS_PER_CHAR);
+
+    /**
+     * The estimated processing time
+     * @param language the language
+     * @param annotators the used annotators or <code>null</code> for all
+     * @param chars the length of the text
+     * @return the estimated processing time in milliseconds
+     */
+    public double estimate(String language, Collection<String> annotators, int chars){
+        Rate rate = rates.get(getKey(language, annotators));
+        return (rate == null ? overall : rate).get() * chars / 1000000;
+    }
+
+    /**
+     * Records the processing time of a text. Only texts processed with all
+     * requested annotators should be recorded.
+     * @param language the language
+     * @param annotators the used annotators or <code>null</code> for all
+     * @param chars the length of the text
+     * @param nanos the processing time in nanoseconds
+     */
+    public void record(String language, Collection<String> annotators, int chars, long nanos){
+        if(chars <= 0){
+            return;
+        }
+        double nanosPerChar = (double)nanos / chars;
+        String key = getKey(language, annotators);
+        Rate rate = rates.get(key);
+        if(rate == null){
+            Rate current = rates.putIfAbsent(key, rate = new Rate(nanosPerChar));
+            if(current != null){
+                current.update(nanosPerChar);
+            }
+        } else {
+            rate.update(nanosPerChar);
+        }
+        overall.update(nanosPerChar);
+    }
+
+    /**
+     * @return the current estimates in nanoseconds per character by
+     * '<code>{language}</code>' (all annotators) or
+     * '<code>{language}:{annotators}</code>'
+     */
+    public Map<String,Double> getRates(){
+        Map<String,Double> current = new TreeMap<String,Double>();
+        for(Map.Entry<String,Rate> entry : rates.entrySet()){
+            current.put(entry.getKey(), entry.getValue().get());
+        }
+        return Collections.unmodifiableMap(current);
+    }
+
+    private static String getKey(String language, Collection<String> annotators){
+        return annotators == null ? language : language + ':' + annotators;
+    }
+
+    private static final class Rate {
+
+        private double value;
+
+        Rate(double value){
+            this.value = value;
+        }
+
+        synchronized double get(){
+            return value;
+        }
+
+        synchronized void update(double sample){
+            value += WEIGHT * (sample - value);
+        }
+    }
+}
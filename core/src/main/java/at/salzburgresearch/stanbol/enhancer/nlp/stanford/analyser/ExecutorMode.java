@@ -0,0 +1,124 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The executor models supported for running the analyses of the
+ * {@link StanfordNlpAnalyzer}.
+ * <p>
+ * Executors not available on Java 6 (the minimum version supported by this
+ * module) are created via reflection.
+ * <p>
+ * Only {@link #FIXED} schedules texts by their estimated costs and priority
+ * (see {@link PriorityExecutor}). The other modes process texts in the order
+ * they are submitted.
+ *
+ * @author Rupert Westenthaler
+ *
+ */
+public enum ExecutorMode {
+
+    /**
+     * Fixed size thread pool serving cheap and interactive texts first
+     * @see PriorityExecutor
+     */
+    FIXED,
+    /**
+     * Work stealing <code>java.util.concurrent.ForkJoinPool</code> (Java 7+)
+     * with the configured parallelism. Texts are not scheduled by their costs
+     * and priority.
+     */
+    FORKJOIN,
+    /**
+     * One virtual thread per analysis (Java 21+). The number of concurrently
+     * running analyses is limited to the configured number of threads. Texts
+     * are not scheduled by their costs and priority.
+     * @see LimitedExecutor
+     */
+    VIRTUAL;
+
+    private static final Logger log = LoggerFactory.getLogger(ExecutorMode.class);
+
+    /**
+     * Parses the mode (case insensitive)
+     * @param value the name of the mode
+     * @return the mode
+     * @throws IllegalArgumentException if the parsed value is not a mode
+     */
+    public static ExecutorMode parse(String value){
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown executor mode '" + value
+                + "' (supported: fixed, forkjoin, virtual)!", e);
+        }
+    }
+
+    /**
+     * Creates the executor for this mode
+     * @param threads the number of threads (or the parallelism) used for
+     * analysing texts
+     * @return the executor
+     * @throws IllegalStateException if the mode is not supported by the
+     * running JVM
+     */
+    public ExecutorService create(int threads){
+        if(threads < 1){
+            throw new IllegalArgumentException("The number of threads MUST BE > 0 (parsed: "
+                + threads + ")!");
+        }
+        if(this != FIXED){
+            log.warn("Executor mode '{}' does not schedule texts by their costs and priority "
+                + "(use 'fixed' for scheduling)", name().toLowerCase(Locale.ROOT));
+        }
+        switch (this) {
+            case FORKJOIN:
+                return (ExecutorService)instantiate("java.util.concurrent.ForkJoinPool", threads);
+            case VIRTUAL:
+                return new LimitedExecutor((ExecutorService)invoke(Executors.class, 
+                    "newVirtualThreadPerTaskExecutor"), threads);
+            default:
+                return new PriorityExecutor(threads);
+        }
+    }
+
+    private Object instantiate(String className, int parallelism){
+        try {
+            return Class.forName(className).getConstructor(int.class).newInstance(parallelism);
+        } catch (ClassNotFoundException e) {
+            throw unsupported(e);
+        } catch (NoSuchMethodException e) {
+            throw unsupported(e);
+        } catch (InstantiationException e) {
+            throw unsupported(e);
+        } catch (IllegalAccessException e) {
+            throw unsupported(e);
+        } catch (InvocationTargetException e) {
+            throw unsupported(e.getCause());
+        }
+    }
+
+    private Object invoke(Class<?> clazz, String factoryMethod){
+        try {
+            return clazz.getMethod(factoryMethod).invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw unsupported(e);
+        } catch (IllegalAccessException e) {
+            throw unsupported(e);
+        } catch (InvocationTargetException e) {
+            throw unsupported(e.getCause());
+        }
+    }
+
+    private IllegalStateException unsupported(Throwable cause){
+        return new IllegalStateException("Executor mode '" + name().toLowerCase(Locale.ROOT)
+            + "' is not supported by this JVM (Java " + System.getProperty("java.version")
+            + ")!", cause);
+    }
+}
@@ -9,14 +9,36 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
@@ -24,12 +46,24 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import at.salzburgresearch.enhancer.nlp.stanford.segment.ArabicSegmentorAnnotator;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.impl.BudgetedParserAnnotator;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.impl.CachingLemmaAnnotator;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.impl.NumericCueGate;
 import at.salzburgresearch.stanbol.enhancer.nlp.stanford.impl.StanbolDeterministicCorefAnnotator;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.impl.StanbolNerAnnotator;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.model.LexiconStore;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.model.ModelCache;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.model.WeightCompactor;
+import edu.stanford.nlp.ie.AbstractSequenceClassifier;
 import edu.stanford.nlp.ie.NERClassifierCombiner;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.ling.CoreAnnotations.SentencesAnnotation;
 import edu.stanford.nlp.ie.regexp.NumberSequenceClassifier;
 import edu.stanford.nlp.ie.regexp.RegexNERSequenceClassifier;
+import edu.stanford.nlp.pipeline.Annotation;
 import edu.stanford.nlp.pipeline.AnnotationPipeline;
 import edu.stanford.nlp.pipeline.Annotator;
+import edu.stanford.nlp.pipeline.Annotator.Requirement;
 import edu.stanford.nlp.pipeline.AnnotatorFactory;
 import edu.stanford.nlp.pipeline.AnnotatorPool;
 import edu.stanford.nlp.pipeline.CharniakParserAnnotator;
@@ -47,6 +81,7 @@ import edu.stanford.nlp.pipeline.StanfordCoreNLP;
 import edu.stanford.nlp.pipeline.WhitespaceTokenizerAnnotator;
 import edu.stanford.nlp.pipeline.WordsToSentencesAnnotator;
 import edu.stanford.nlp.process.PTBTokenizer;
+import edu.stanford.nlp.util.CoreMap;
 import edu.stanford.nlp.util.Generics;
 import edu.stanford.nlp.util.PropertiesUtils;
 
@@ -57,6 +92,10 @@ import edu.stanford.nlp.util.PropertiesUtils;
  * {@link Annotator}s of the same type using different configurations (e.g.
  * modles for different languages).
  * <p>
+ * {@link Annotator}s are created directly by the registered factories (and not
+ * via an {@link AnnotatorPool}) so that the models of a pipeline can be loaded
+ * concurrently if an {@link ExecutorService} is parsed to the constructor.
+ * <p>
  * NOTE: That the different {@link AnnotatorFactory} implementations are taken from
  * anonymous classes within {@link StanfordCoreNLP}. Those might need to be
  * adapted after an version upgrade.
@@ -76,6 +115,84 @@ public class LangPipeline extends AnnotationPipeline {
      */
     protected static final Properties DUMMY_PROPERTIES = new Properties();
     
+    /**
+     * Creates the signature for an {@link AnnotatorFactory} based on the values
+     * of all properties (including defaults) that start with one of the parsed
+     * prefixes. Factories with the same signature create equivalent 
+     * {@link Annotator}s and can therefore share the same instance via the
+     * {@link AnnotatorRegistry}.
+     * <p>
+     * For properties referring to models the {@link #getModelStamp(String)
+     * stamp} of the model files is included so that a replaced model file
+     * results in a new signature (and therefore a new annotator).
+     * @param name the name of the annotator
+     * @param properties the properties
+     * @param prefixes the prefixes of the properties used by the annotator
+     * @return the signature
+     */
+    protected static String createSignature(String name, Properties properties, String...prefixes){
+        StringBuilder signature = new StringBuilder(name).append(':');
+        for(String key : new TreeSet<String>(properties.stringPropertyNames())){
+            for(String prefix : prefixes){
+                if(key.startsWith(prefix)){
+                    String value = properties.getProperty(key);
+                    signature.append(key).append('=').append(value);
+                    if(isModelProperty(key)){
+                        for(String model : value.split(",")){
+                            String stamp = getModelStamp(model.trim());
+                            if(stamp != null){
+                                signature.append('@').append(stamp);
+                            }
+                        }
+                    }
+                    signature.append(';');
+                    break;
+                }
+            }
+        }
+        return signature.toString();
+    }
+
+    private static boolean isModelProperty(String key){
+        return key.contains(".model") || Arrays.asList(ModelCache.MODEL_PROPERTIES).contains(key);
+    }
+
+    /**
+     * The stamp (last modified and size) of the file of the parsed model. For
+     * models loaded from a jar the stamp of the jar is used.
+     * @param model the model (file or classpath resource)
+     * @return the stamp or <code>null</code> if the model is not found
+     */
+    static String getModelStamp(String model){
+        if(model.isEmpty()){
+            return null;
+        }
+        File file = new File(model);
+        if(!file.isFile()){
+            URL url = LangPipeline.class.getClassLoader().getResource(model);
+            if(url == null){
+                return null;
+            }
+            String path = url.getPath();
+            if("jar".equals(url.getProtocol()) && path.indexOf("!/") > 0){
+                try {
+                    url = new URL(path.substring(0, path.indexOf("!/")));
+                } catch (MalformedURLException e) {
+                    return null;
+                }
+            }
+            if(!"file".equals(url.getProtocol())){
+                return null;
+            }
+            try {
+                file = new File(url.toURI());
+            } catch (URISyntaxException e) {
+                file = new File(url.getPath());
+            }
+        }
+        return file.isFile() ? file.lastModified() + ":" + file.length() : null;
+    }
+    
     private class SegmentorFactory extends AnnotatorFactory {
         
         private static final long serialVersionUID = 1L;
@@ -107,7 +224,7 @@ public class LangPipeline extends AnnotationPipeline {
 
         @Override
         public String signature() {
-            return ""; //not used
+            return createSignature(STANFORD_SEGMENT, properties, STANFORD_SEGMENT + '.') + "language=" + getRootLanguage() + ";";
         }
 
     }
@@ -150,7 +267,7 @@ public class LangPipeline extends AnnotationPipeline {
 
         @Override
         public String signature() {
-            return "";
+            return createSignature(STANFORD_TOKENIZE, properties, "tokenize.", NEWLINE_SPLITTER_PROPERTY);
         }
     };
     
@@ -230,7 +347,7 @@ public class LangPipeline extends AnnotationPipeline {
 
         @Override
         public String signature() {
-            return "";
+            return createSignature(STANFORD_SSPLIT, properties, "ssplit.", NEWLINE_SPLITTER_PROPERTY, "tokenize.whitespace");
         }
     }
     
@@ -253,12 +370,13 @@ public class LangPipeline extends AnnotationPipeline {
         
         @Override
         public Annotator create() {
-            return new POSTaggerAnnotator("pos",properties);
+            checkLowMemory(STANFORD_POS, properties);
+            return shareLexicons(new POSTaggerAnnotator("pos",properties));
         }
 
         @Override
         public String signature() {
-            return  "";
+            return createSignature(STANFORD_POS, properties, "pos.");
         }
     }
     
@@ -280,12 +398,18 @@ public class LangPipeline extends AnnotationPipeline {
         }
         @Override
         public Annotator create() {
+          int cacheSize = Integer.parseInt(properties.getProperty(
+              CachingLemmaAnnotator.CACHE_SIZE_PROPERTY, 
+              String.valueOf(CachingLemmaAnnotator.DEFAULT_CACHE_SIZE)).trim());
+          if(cacheSize > 0){
+              return new CachingLemmaAnnotator(new MorphaAnnotator(false), cacheSize);
+          }
           return new MorphaAnnotator(false);
         }
 
         @Override
         public String signature() {
-            return "";
+            return createSignature(STANFORD_LEMMA, properties, "lemma.");
         }
         
     }
@@ -317,34 +441,119 @@ public class LangPipeline extends AnnotationPipeline {
           if (modelNames.length() > 0) {
             models.addAll(Arrays.asList(modelNames.split(",")));
           }
+          String subset = properties.getProperty(NER_SUBSET_PROPERTY);
+          if (subset != null && subset.trim().length() > 0) {
+            models = selectModels(models, subset);
+          }
           if (models.isEmpty()) {
             // Allow for no real NER model - can just use numeric classifiers or SUTime
             // Will have to explicitly unset ner.model.3class, ner.model.7class, ner.model.MISCclass
             // So unlikely that people got here by accident
             System.err.println("WARNING: no NER models specified");
           }
-          NERClassifierCombiner nerCombiner;
+          boolean parallel = PropertiesUtils.getBool(properties,
+              StanbolNerAnnotator.PARALLEL_PROPERTY, false);
+          parallel = parallel && models.size() > 1;
+          boolean applyNumericClassifiers =
+            PropertiesUtils.getBool(properties,
+                NERClassifierCombiner.APPLY_NUMERIC_CLASSIFIERS_PROPERTY,
+                NERClassifierCombiner.APPLY_NUMERIC_CLASSIFIERS_DEFAULT);
+          boolean useSUTime =
+            PropertiesUtils.getBool(properties,
+                NumberSequenceClassifier.USE_SUTIME_PROPERTY,
+                NumberSequenceClassifier.USE_SUTIME_DEFAULT);
+          String cues = properties.getProperty(NumericCueGate.CUES_PROPERTY);
+          boolean gated = applyNumericClassifiers && cues != null && cues.trim().length() > 0;
+          //pipeline replicas share the models but need own numeric classifiers
+          boolean split = applyNumericClassifiers && (parallel || gated || 
+              isReplicated(STANFORD_NER, properties));
+          //the numeric classifiers and SUTime if not applied by the combiner
+          Annotator numeric = split ? createNumeric() : null;
+          NERClassifierCombiner nerCombiner = null;
           try {
-            boolean applyNumericClassifiers =
-              PropertiesUtils.getBool(properties,
-                  NERClassifierCombiner.APPLY_NUMERIC_CLASSIFIERS_PROPERTY,
-                  NERClassifierCombiner.APPLY_NUMERIC_CLASSIFIERS_DEFAULT);
-            boolean useSUTime =
-              PropertiesUtils.getBool(properties,
-                  NumberSequenceClassifier.USE_SUTIME_PROPERTY,
-                  NumberSequenceClassifier.USE_SUTIME_DEFAULT);
-            nerCombiner = new NERClassifierCombiner(applyNumericClassifiers,
+            if (!parallel && !(split && models.isEmpty())) {
+              nerCombiner = new NERClassifierCombiner(applyNumericClassifiers && numeric == null,
                   useSUTime, properties,
                   models.toArray(new String[models.size()]));
+            }
+          } catch (FileNotFoundException e) {
+            throw new RuntimeException(e);
+          }
+          if (parallel) {
+            WeightCompactor compactor = WeightCompactor.create(STANFORD_NER, properties);
+            List<AbstractSequenceClassifier<CoreLabel>> classifiers =
+                new ArrayList<AbstractSequenceClassifier<CoreLabel>>(models.size());
+            for (String model : models) {
+              //loaded like by the sequential combiner (same ner.* properties)
+              //numeric classifiers and SUTime are applied afterwards
+              AbstractSequenceClassifier<CoreLabel> classifier;
+              try {
+                classifier = new NERClassifierCombiner(false, false, properties, model.trim());
+              } catch (FileNotFoundException e) {
+                throw new RuntimeException(e);
+              }
+              LexiconStore.getInstance().resolve(classifier);
+              if (compactor != null) {
+                compactor.compact(classifier);
+              }
+              classifiers.add(classifier);
+            }
+            return new StanbolNerAnnotator(classifiers, gated ? new NumericCueGate(
+                null, numeric, NumericCueGate.loadCues(cues.trim())) : numeric);
+          }
+          Annotator ner = nerCombiner == null ? null : compact(STANFORD_NER,
+              shareLexicons(new NERCombinerAnnotator(nerCombiner, false)), properties);
+          return split ? new NumericCueGate(ner, numeric, gated ? 
+              NumericCueGate.loadCues(cues.trim()) : null) : ner;
+        }
+        
+        /**
+         * Creates a replica that shares the models of the parsed instance. 
+         * Only the numeric classifiers and SUTime (that synchronise 
+         * internally) are created for every replica.
+         * Instances that only apply models are shared.
+         * @param primary the instance created by {@link #create()}
+         * @return the replica
+         */
+        public Annotator replicate(Annotator primary) {
+          if (primary instanceof StanbolNerAnnotator) {
+            StanbolNerAnnotator ner = (StanbolNerAnnotator)primary;
+            Annotator numeric = ner.getNumeric();
+            if (numeric instanceof NumericCueGate) {
+              numeric = replicate(numeric);
+            } else if (numeric != null) {
+              numeric = createNumeric();
+            }
+            return new StanbolNerAnnotator(ner.getClassifiers(), numeric);
+          }
+          if (primary instanceof NumericCueGate) {
+            NumericCueGate gate = (NumericCueGate)primary;
+            return new NumericCueGate(gate.getNer(), createNumeric(), gate.getCues());
+          }
+          //only models (numeric classifiers are split off for replicas)
+          return primary;
+        }
+        
+        /**
+         * @return the numeric classifiers and SUTime without NER models
+         */
+        private Annotator createNumeric() {
+          boolean useSUTime =
+            PropertiesUtils.getBool(properties,
+                NumberSequenceClassifier.USE_SUTIME_PROPERTY,
+                NumberSequenceClassifier.USE_SUTIME_DEFAULT);
+          try {
+            return new NERCombinerAnnotator(new NERClassifierCombiner(
+                true, useSUTime, properties), false);
           } catch (FileNotFoundException e) {
             throw new RuntimeException(e);
           }
-          return new NERCombinerAnnotator(nerCombiner, false);
         }
 
         @Override
         public String signature() {
-            return "";
+            //replicated pipelines use a separate numeric step
+            return createSignature(STANFORD_NER, properties, "ner.", "sutime.", REPLICAS_PROPERTY);
         }
     }
     
@@ -375,7 +584,7 @@ public class LangPipeline extends AnnotationPipeline {
 
         @Override
         public String signature() {
-            return "";
+            return createSignature(STANFORD_REGEXNER, properties, "regexner.");
         }
     }
     
@@ -402,7 +611,15 @@ public class LangPipeline extends AnnotationPipeline {
           String maxLenStr = properties.getProperty("parse.maxlen");
 
           if (parserType.equalsIgnoreCase("stanford")) {
+            checkLowMemory(STANFORD_PARSE, properties);
             ParserAnnotator anno = new ParserAnnotator("parse", properties);
+            long timeBudget = Long.parseLong(properties.getProperty(
+                BudgetedParserAnnotator.TIME_BUDGET_PROPERTY, "0").trim());
+            int lengthBudget = Integer.parseInt(properties.getProperty(
+                BudgetedParserAnnotator.LENGTH_BUDGET_PROPERTY, "0").trim());
+            if(timeBudget > 0 || lengthBudget > 0){
+                return new BudgetedParserAnnotator(anno, timeBudget, lengthBudget);
+            }
             return anno;
           } else if (parserType.equalsIgnoreCase("charniak")) {
             String model = properties.getProperty("parse.model");
@@ -425,7 +642,7 @@ public class LangPipeline extends AnnotationPipeline {
 
         @Override
         public String signature() {
-            return "";
+            return createSignature(STANFORD_PARSE, properties, "parse.");
         }
     }
 
@@ -452,7 +669,8 @@ public class LangPipeline extends AnnotationPipeline {
 
         @Override
         public String signature() {
-            return "";
+            //the parser is wired into the coref annotator so also include its config
+            return createSignature(STANFORD_DETERMINISTIC_COREF, properties, "dcoref.", "parse.");
         }
     }
     
@@ -477,15 +695,244 @@ public class LangPipeline extends AnnotationPipeline {
 
         @Override
         public String signature() {
-            return "";
+            return createSignature(STANFORD_SENTIMENT, properties, "sentiment.");
+        }
+    }
+    
+    /**
+     * Compacts the weights of the models used by the parsed annotator if the
+     * low memory mode is activated for it.
+     * @see WeightCompactor
+     */
+    private static Annotator compact(String name, Annotator annotator, Properties properties){
+        WeightCompactor compactor = WeightCompactor.create(name, properties);
+        if(compactor != null){
+            compactor.compact(annotator);
+        }
+        return annotator;
+    }
+    
+    /**
+     * Warns if the low memory mode is activated for an annotator without
+     * weight matrices
+     * @see WeightCompactor
+     */
+    private void checkLowMemory(String name, Properties properties){
+        if(WeightCompactor.isActive(name, properties)){
+            log.warn("Low memory mode is not supported by the {} annotator "
+                + "(no weight matrices) and is ignored!", name);
+        }
+    }
+    
+    /**
+     * Replaces the distsim lexicons and feature strings of the parsed annotator
+     * with the instances held by the {@link LexiconStore}
+     */
+    private static Annotator shareLexicons(Annotator annotator){
+        LexiconStore.getInstance().resolve(annotator);
+        return annotator;
+    }
+    
+    /**
+     * The NER models used by the <code>ner</code> annotator (comma separated).
+     * Entries are matched against the paths and file names of the models
+     * configured by <code>ner.model</code>. The configured order of the models
+     * is kept. If not present all models are used.
+     */
+    public static final String NER_SUBSET_PROPERTY = "ner.model.subset";
+    
+    /**
+     * Selects the models matching the parsed subset
+     * @param models the configured models
+     * @param subset the comma separated paths or file names of the models
+     * @return the selected models in the configured order
+     * @throws IllegalArgumentException if an entry of the subset does not
+     * match any configured model
+     */
+    static List<String> selectModels(List<String> models, String subset){
+        Set<String> selected = new HashSet<String>();
+        for(String entry : subset.split(",")){
+            entry = entry.trim();
+            if(entry.isEmpty()){
+                continue;
+            }
+            boolean found = false;
+            for(String model : models){
+                model = model.trim();
+                if(model.equals(entry) || FilenameUtils.getName(model).equals(entry)){
+                    selected.add(model);
+                    found = true;
+                }
+            }
+            if(!found){
+                throw new IllegalArgumentException("The NER model '" + entry + "' of the "
+                    + NER_SUBSET_PROPERTY + " property is not configured by ner.model "
+                    + models + "!");
+            }
         }
+        List<String> result = new ArrayList<String>(selected.size());
+        for(String model : models){
+            if(selected.contains(model.trim())){
+                result.add(model.trim());
+            }
+        }
+        return result;
     }
     
-    private final AnnotatorPool pool = new AnnotatorPool();
+    /**
+     * Annotators that process sentences independently. For requests with a
+     * deadline those are called sentence by sentence.
+     */
+    private static final Set<String> SENTENCE_ANNOTATORS = new HashSet<String>(Arrays.asList(
+        STANFORD_POS, STANFORD_LEMMA, STANFORD_NER, STANFORD_REGEXNER, STANFORD_PARSE,
+        STANFORD_SENTIMENT));
+    
+    /**
+     * If enabled independent annotators of a text (e.g. <code>ner</code> and
+     * <code>lemma</code>) run concurrently. Default: <code>false</code>
+     * @see #computeWaves(Map)
+     */
+    public static final String PARALLEL_PROPERTY = "parallel.branches";
+    
+    /**
+     * The number of instances of the annotators configured by 
+     * {@link #REPLICATED_ANNOTATORS_PROPERTY}. Every call of such an annotator
+     * checks out an instance for its exclusive use. All other annotators are
+     * shared by concurrent requests. Default: <code>1</code> (a single 
+     * instance shared by concurrent requests)
+     * @see AnnotatorReplicas
+     */
+    public static final String REPLICAS_PROPERTY = "replicas";
+    /**
+     * The annotators with {@link #REPLICAS_PROPERTY} own instances (comma
+     * separated). Instances of <code>ner</code> share the NER models and
+     * only have own numeric classifiers and SUTime. Other annotators are
+     * created by their factory and therefore load their models again.
+     * Default: {@link #DEFAULT_REPLICATED_ANNOTATORS}
+     */
+    public static final String REPLICATED_ANNOTATORS_PROPERTY = "replicas.annotators";
+    public static final String DEFAULT_REPLICATED_ANNOTATORS = "ner,regexner";
+    
+    /**
+     * @return if the parsed annotator has {@link #REPLICAS_PROPERTY} own instances
+     */
+    static boolean isReplicated(String name, Properties properties){
+        return getReplicaCount(properties) > 1 && Arrays.asList(properties.getProperty(
+            REPLICATED_ANNOTATORS_PROPERTY, DEFAULT_REPLICATED_ANNOTATORS).trim().split(
+                "[, \t]+")).contains(name);
+    }
+    
+    private static int getReplicaCount(Properties properties){
+        return Math.max(1, Integer.parseInt(properties.getProperty(REPLICAS_PROPERTY, "1").trim()));
+    }
+    
+    /**
+     * Ordering constraints not expressed by the requirements of the annotators
+     * (annotator -> annotator it needs to run after). The 
+     * <code>regexner</code> annotator overrides NER tags set by the
+     * <code>ner</code> annotator.
+     */
+    private static final Map<String,String> RUN_AFTER = Collections.singletonMap(
+        STANFORD_REGEXNER, STANFORD_NER);
+    
+    private final Map<String,AnnotatorFactory> factories = new HashMap<String,AnnotatorFactory>();
+    /**
+     * The signatures of the annotators acquired from the {@link AnnotatorRegistry}
+     */
+    private final List<String> signatures = new ArrayList<String>();
+    
+    private boolean closed = false;
+    /**
+     * Set by {@link #close()}. Annotators are released as soon as no more
+     * requests are {@link #acquire() active}
+     */
+    private boolean closing = false;
+    /**
+     * The number of requests currently processed by this pipeline
+     */
+    private int active = 0;
+
+    /**
+     * The annotators of this pipeline by name (in the configured order)
+     */
+    private final Map<String,Annotator> namedAnnotators = new LinkedHashMap<String,Annotator>();
+    /**
+     * The accumulated processing time (in nanoseconds) of the annotators
+     */
+    private final Map<String,AtomicLong> annotatorTimes = new LinkedHashMap<String,AtomicLong>();
+    /**
+     * The {@link AnnotatorReplicas} used to run the annotators (in the 
+     * configured order)
+     */
+    private final Map<String,AnnotatorReplicas> replicas = new LinkedHashMap<String,AnnotatorReplicas>();
+    /**
+     * The annotators used to process texts by name (the {@link #replicas}
+     * or the {@link SentenceCache} wrapping them)
+     */
+    private final Map<String,Annotator> runners = new HashMap<String,Annotator>();
+    /**
+     * The annotator instances created for replicas (not registered with the
+     * {@link AnnotatorRegistry})
+     */
+    private final List<Annotator> replicated = new ArrayList<Annotator>();
+    private int replicaCount = 1;
+    /**
+     * Annotators that wrote annotations also changed by an other annotator
+     * of their wave. Those are no longer run in parallel branches.
+     * @see #execute(List, Annotation, AnalysisContext)
+     */
+    private final Set<String> serialised = Collections.newSetFromMap(
+        new ConcurrentHashMap<String,Boolean>());
+    /**
+     * The cache for sentence level annotations or <code>null</code> if disabled
+     */
+    private SentenceCache sentenceCache;
+    /**
+     * Cache for {@link #resolveAnnotators(Collection) resolved} annotator subsets
+     */
+    private final ConcurrentMap<Set<String>,List<String>> subsets = 
+            new ConcurrentHashMap<Set<String>,List<String>>();
 
     private String language;
+    /**
+     * The stages used for staged execution or <code>null</code> if disabled
+     */
+    private PipelineStages stages;
+    /**
+     * If independent annotators are run concurrently
+     */
+    private boolean parallel;
+    /**
+     * Cache for the {@link #getWaves(Collection) waves} of annotator subsets
+     */
+    private final ConcurrentMap<List<String>,List<List<String>>> waves = 
+            new ConcurrentHashMap<List<String>,List<List<String>>>();
     
     public LangPipeline(String config) {
+        this(config, null);
+    }
+    /**
+     * Creates the pipeline for the parsed '<code>{lang}.pipeline</code>' 
+     * configuration.
+     * @param config the path to the configuration (file or classpath resource)
+     * @param initExecutor used to load the models of the configured annotators
+     * concurrently or <code>null</code> to load them one after the other in the
+     * current thread
+     */
+    public LangPipeline(String config, ExecutorService initExecutor) {
+        this(config, initExecutor, null);
+    }
+    /**
+     * Creates the pipeline for the parsed '<code>{lang}.pipeline</code>' 
+     * configuration.
+     * @param config the path to the configuration (file or classpath resource)
+     * @param initExecutor used to load the models of the configured annotators
+     * concurrently or <code>null</code> to load them one after the other in the
+     * current thread
+     * @param modelCache the cache used for models or <code>null</code> to load
+     * models from the configured locations
+     */
+    public LangPipeline(String config, ExecutorService initExecutor, ModelCache modelCache) {
         super();
         if(config == null || !config.endsWith("pipeline")){
             throw new IllegalArgumentException("Annotation Pipeline configurations "
@@ -533,14 +980,26 @@ public class LangPipeline extends AnnotationPipeline {
             }
         }
         log.info("   ... successfully loaded config for language {}",language);
+        if(modelCache != null){
+            properties = modelCache.apply(properties);
+        }
         //we need to init all factories
         initFactories(properties);
         //but only instantiate annotators mentioned in the pipeline
-        initPipeline(properties);
+        initPipeline(properties, initExecutor);
         log.info("   ... successfully initialised annotation pipeline for language {}",language);
     }
 
     public LangPipeline(String language, Properties properties) {
+        this(language, properties, null);
+    }
+    
+    public LangPipeline(String language, Properties properties, ExecutorService initExecutor) {
+        this(language, properties, initExecutor, null);
+    }
+    
+    public LangPipeline(String language, Properties properties, ExecutorService initExecutor, 
+            ModelCache modelCache) {
         super();
         if(language == null || language.isEmpty()){
             throw new IllegalArgumentException("The parsed language MUST NOT be NULL nor empty!");
@@ -549,57 +1008,1082 @@ public class LangPipeline extends AnnotationPipeline {
             throw new IllegalArgumentException("The parsed configuration must not be NULL!");
         }
         this.language = language;
+        if(modelCache != null){
+            properties = modelCache.apply(properties);
+        }
         //we need to init all factories
         initFactories(properties);
         //but only instantiate annotators mentioned in the pipeline
-        initPipeline(properties);
+        initPipeline(properties, initExecutor);
     }
 
     /**
-     * @param properties
+     * Creates the {@link Annotator}s of the configured pipeline. If an
+     * executor is parsed all annotators (and therefore their models) are
+     * created concurrently. Wiring (e.g. the parser used by the coref
+     * annotator) is done afterwards in the configured order.
+     * @param properties the configuration
+     * @param initExecutor the executor used to create the annotators or
+     * <code>null</code> to create them in the current thread
      */
-    private void initPipeline(Properties properties) {
+    private void initPipeline(Properties properties, ExecutorService initExecutor) {
         log.info("reading annotation pipeline {}",properties.getProperty("annotators"));
-        Annotator parseAnnotator = null;
-        
+        List<String> names = new ArrayList<String>();
         for(String name : properties.getProperty("annotators","").split("[, \t]+")){
-            Annotator annotator = pool.get(name.trim());
-            if(annotator == null){
+            name = name.trim();
+            if(!factories.containsKey(name)){
                 throw new IllegalArgumentException("Annotator '"+name+"' is not "
                     + "not supported!");
             }
-            
+            names.add(name);
+        }
+        validate(names);
+        List<Annotator> annotators = createAnnotators(names, initExecutor);
+        try {
+            initAnnotators(names, annotators, properties);
+        } catch (RuntimeException e) {
+            close(); //release the acquired annotators
+            throw e;
+        } catch (Error e) {
+            close(); //release the acquired annotators
+            throw e;
+        }
+    }
+
+    /**
+     * Wires the parsed annotators and sets up replicas, stages and caches
+     * @param names the names of the annotators in the configured order
+     * @param annotators the annotators
+     * @param properties the configuration
+     */
+    private void initAnnotators(List<String> names, List<Annotator> annotators, Properties properties) {
+        Annotator parseAnnotator = null;
+        for(int i = 0; i < names.size(); i++){
+            String name = names.get(i);
+            Annotator annotator = annotators.get(i);
             if (name.equals(STANFORD_PARSE)) {
                 parseAnnotator = annotator;
             } else if (name.equals(STANFORD_DETERMINISTIC_COREF)) {
-                if (parseAnnotator == null) {
-                    throw new IllegalArgumentException(STANFORD_DETERMINISTIC_COREF + " annotator needs the " + STANFORD_PARSE 
-                        + " annotator to be defined beforehand.");
-                }
                 ((StanbolDeterministicCorefAnnotator)annotator).setParserAnnotator(parseAnnotator);
             }
             
             this.addAnnotator(annotator);
+            namedAnnotators.put(name, annotator);
+            annotatorTimes.put(name, new AtomicLong());
+        }
+        replicaCount = getReplicaCount(properties);
+        for(int i = 0; i < names.size(); i++){
+            replicas.put(names.get(i), createReplicas(names.get(i), annotators.get(i), properties));
+        }
+        int stageThreads = Integer.parseInt(properties.getProperty(
+            PipelineStages.THREADS_PROPERTY, "0").trim());
+        if(stageThreads > 0){
+            stages = new PipelineStages(language, names, stageThreads, Integer.parseInt(
+                properties.getProperty(PipelineStages.QUEUE_SIZE_PROPERTY, 
+                    String.valueOf(2 * stageThreads)).trim()));
+        }
+        parallel = Boolean.parseBoolean(properties.getProperty(PARALLEL_PROPERTY, "false").trim());
+        int cacheSize = Integer.parseInt(properties.getProperty(SentenceCache.SIZE_PROPERTY, "0").trim());
+        Set<String> cached = new HashSet<String>();
+        if(cacheSize > 0){
+            sentenceCache = new SentenceCache(cacheSize);
+            cached.addAll(Arrays.asList(properties.getProperty(SentenceCache.ANNOTATORS_PROPERTY, 
+                SentenceCache.DEFAULT_ANNOTATORS).trim().split("[, \t]+")));
+        }
+        for(Entry<String,AnnotatorReplicas> entry : replicas.entrySet()){
+            runners.put(entry.getKey(), cached.contains(entry.getKey()) ? 
+                    sentenceCache.wrap(entry.getKey(), entry.getValue()) : entry.getValue());
+        }
+    }
+
+    /**
+     * Validates the configured annotators before any model is loaded
+     * @param names the names of the annotators in the configured order
+     * @throws IllegalArgumentException if the configuration is invalid
+     */
+    static void validate(List<String> names){
+        int parse = names.indexOf(STANFORD_PARSE);
+        int coref = names.indexOf(STANFORD_DETERMINISTIC_COREF);
+        if(coref >= 0 && (parse < 0 || parse > coref)){
+            throw new IllegalArgumentException(STANFORD_DETERMINISTIC_COREF + " annotator needs the " + STANFORD_PARSE 
+                + " annotator to be defined beforehand.");
+        }
+    }
+
+    /**
+     * Creates the {@link AnnotatorReplicas} for an annotator. If the
+     * annotator is {@link #isReplicated(String, Properties) replicated}
+     * {@link #REPLICAS_PROPERTY} own instances are created. The parsed
+     * instance is not used by the replicas as it is shared with other
+     * pipelines by the {@link AnnotatorRegistry}.
+     * @param name the name of the annotator
+     * @param annotator the instance acquired from the registry
+     * @param properties the configuration
+     */
+    private AnnotatorReplicas createReplicas(String name, Annotator annotator, Properties properties){
+        if(!isReplicated(name, properties)){
+            return new AnnotatorReplicas(name, Collections.singletonList(annotator));
+        }
+        AnnotatorFactory factory = factories.get(name);
+        AnnotatorReplicas parsers = replicas.get(STANFORD_PARSE);
+        List<Annotator> instances = new ArrayList<Annotator>(replicaCount);
+        for(int i = 0; i < replicaCount; i++){
+            long start = System.currentTimeMillis();
+            Annotator replica = factory instanceof NerFactory ? 
+                    ((NerFactory)factory).replicate(annotator) : factory.create();
+            if(replica instanceof StanbolDeterministicCorefAnnotator && parsers != null){
+                ((StanbolDeterministicCorefAnnotator)replica).setParserAnnotator(parsers);
+            }
+            instances.add(replica);
+            if(replica != annotator){
+                replicated.add(replica);
+            }
+            log.info("   ... created replica {} of {} annotator for language {} in {}ms", 
+                new Object[]{i, name, language, System.currentTimeMillis() - start});
         }
+        return new AnnotatorReplicas(name, instances);
     }
 
+    /**
+     * Creates the annotators with the parsed names by using the registered
+     * {@link AnnotatorFactory factories}.
+     * @param names the names of the annotators
+     * @param initExecutor the executor or <code>null</code> to create them
+     * in the current thread
+     * @return the annotators in the same order as the parsed names
+     */
+    private List<Annotator> createAnnotators(List<String> names, ExecutorService initExecutor) {
+        List<Annotator> annotators = new ArrayList<Annotator>(names.size());
+        if(initExecutor == null){
+            try {
+                for(String name : names){
+                    annotators.add(createAnnotator(name));
+                }
+            } catch (RuntimeException e) {
+                close(); //release already acquired annotators
+                throw e;
+            }
+            return annotators;
+        }
+        List<Future<Annotator>> tasks = new ArrayList<Future<Annotator>>(names.size());
+        for(final String name : names){
+            tasks.add(initExecutor.submit(new Callable<Annotator>() {
+                @Override
+                public Annotator call() throws Exception {
+                    return createAnnotator(name);
+                }
+            }));
+        }
+        try {
+            for(Future<Annotator> task : tasks){
+                annotators.add(task.get());
+            }
+        } catch (InterruptedException e) {
+            for(Future<Annotator> task : tasks){
+                task.cancel(true);
+            }
+            close(); //release already acquired annotators
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while initialising "
+                + "the annotation pipeline for language "+language, e);
+        } catch (ExecutionException e) {
+            for(Future<Annotator> task : tasks){
+                task.cancel(true);
+            }
+            close(); //release already acquired annotators
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException){
+                throw (RuntimeException)cause;
+            } else {
+                throw new IllegalStateException("Unable to initialise the annotation "
+                    + "pipeline for language "+language, cause);
+            }
+        }
+        return annotators;
+    }
+    
+    private Annotator createAnnotator(String name){
+        long start = System.currentTimeMillis();
+        AnnotatorFactory factory = factories.get(name);
+        //the signature includes the stamps of the model files so only get it once
+        String signature = factory.signature();
+        Annotator annotator = AnnotatorRegistry.getInstance().acquire(signature, factory);
+        boolean released;
+        synchronized (signatures) {
+            released = closed;
+            if(!released){
+                signatures.add(signature);
+            }
+        }
+        if(released){ //init failed while the annotator was created
+            AnnotatorRegistry.getInstance().release(signature);
+            throw new IllegalStateException("Annotation pipeline for language "
+                + language + " was closed while creating the " + name + " annotator");
+        }
+        log.info("   ... created {} annotator for language {} in {}ms", new Object[]{
+                name, language, System.currentTimeMillis() - start});
+        return annotator;
+    }
+    
     /**
      * @param properties
      */
     private void initFactories(Properties properties) {
-        pool.register(STANFORD_TOKENIZE, new TokenizerFactory(properties));
-        pool.register(STANFORD_SSPLIT, new SentenceSplitterFactory(properties));
-        pool.register(STANFORD_POS, new PosTaggerFactory(properties));
-        pool.register(STANFORD_PARSE, new PhraseDetectorFactory(properties));
-        pool.register(STANFORD_NER, new NerFactory(properties));
-        pool.register(STANFORD_REGEXNER, new RegexNerFactory(properties));
-        pool.register(STANFORD_LEMMA, new LemmatizerFactory(properties));
-        pool.register(STANFORD_SEGMENT, new SegmentorFactory(properties));
-        pool.register(STANFORD_DETERMINISTIC_COREF, new DeterministicCorefFactory(properties));
-        pool.register(STANFORD_SENTIMENT, new SentimentFactory(properties));
+        factories.put(STANFORD_TOKENIZE, new TokenizerFactory(properties));
+        factories.put(STANFORD_SSPLIT, new SentenceSplitterFactory(properties));
+        factories.put(STANFORD_POS, new PosTaggerFactory(properties));
+        factories.put(STANFORD_PARSE, new PhraseDetectorFactory(properties));
+        factories.put(STANFORD_NER, new NerFactory(properties));
+        factories.put(STANFORD_REGEXNER, new RegexNerFactory(properties));
+        factories.put(STANFORD_LEMMA, new LemmatizerFactory(properties));
+        factories.put(STANFORD_SEGMENT, new SegmentorFactory(properties));
+        factories.put(STANFORD_DETERMINISTIC_COREF, new DeterministicCorefFactory(properties));
+        factories.put(STANFORD_SENTIMENT, new SentimentFactory(properties));
     }
 
     public String getLanguage() {
         return language;
-    }       
+    }
+    
+    /**
+     * The names of the annotators of this pipeline in the configured order
+     * @return the names of the annotators
+     */
+    public Set<String> getAnnotatorNames(){
+        return Collections.unmodifiableSet(namedAnnotators.keySet());
+    }
+    
+    /**
+     * Resolves the minimal subset of the annotators of this pipeline needed to
+     * provide the requested layers. Starting from the requested annotators the
+     * {@link Annotator#requires() requirements} are followed back to the
+     * annotators that {@link Annotator#requirementsSatisfied() satisfy} them.
+     * Annotators up to the sentence splitter are always included as the 
+     * results of the analysis are based on sentences and tokens.
+     * @param layers the names of the requested annotators (e.g. 
+     * '<code>pos</code>' or '<code>ner</code>') or <code>null</code>/empty for
+     * all annotators
+     * @return the names of the annotators in the configured order
+     * @throws IllegalArgumentException if a requested annotator is not part of
+     * this pipeline
+     */
+    public List<String> resolveAnnotators(Collection<String> layers){
+        if(layers == null || layers.isEmpty()){
+            return new ArrayList<String>(namedAnnotators.keySet());
+        }
+        Set<String> requested = new HashSet<String>();
+        for(String layer : layers){
+            String name = layer == null ? null : layer.trim().toLowerCase(Locale.ROOT);
+            if(name != null && !name.isEmpty()){
+                if(!namedAnnotators.containsKey(name)){
+                    throw new IllegalArgumentException("The requested layer '"+name
+                        + "' is not supported by the pipeline for language "
+                        + language + " (supported: "+namedAnnotators.keySet()+")!");
+                }
+                requested.add(name);
+            }
+        }
+        List<String> subset = subsets.get(requested);
+        if(subset == null){
+            subset = Collections.unmodifiableList(computeSubset(requested));
+            List<String> current = subsets.putIfAbsent(requested, subset);
+            if(current != null){
+                subset = current;
+            } else {
+                log.debug(" ... resolved annotators {} for layers {} (language: {})",
+                    new Object[]{subset, requested, language});
+            }
+        }
+        return subset;
+    }
+    
+    private List<String> computeSubset(Set<String> requested){
+        List<Entry<String,Annotator>> entries = new ArrayList<Entry<String,Annotator>>(
+                namedAnnotators.entrySet());
+        //always include the annotators up to the sentence splitter
+        int ssplit = -1;
+        for(int i = 0; i < entries.size(); i++){
+            if(STANFORD_SSPLIT.equals(entries.get(i).getKey())){
+                ssplit = i;
+            }
+        }
+        Set<Requirement> needed = new HashSet<Requirement>();
+        List<String> subset = new ArrayList<String>(entries.size());
+        for(ListIterator<Entry<String,Annotator>> it = entries.listIterator(entries.size()); it.hasPrevious();){
+            int index = it.previousIndex();
+            Entry<String,Annotator> entry = it.previous();
+            Annotator annotator = entry.getValue();
+            if(index <= ssplit || requested.contains(entry.getKey()) || 
+                    !Collections.disjoint(needed, annotator.requirementsSatisfied())){
+                needed.removeAll(annotator.requirementsSatisfied());
+                needed.addAll(annotator.requires());
+                subset.add(0, entry.getKey());
+            }
+        }
+        return subset;
+    }
+    
+    /**
+     * Runs all annotators of this pipeline
+     */
+    @Override
+    public void annotate(Annotation annotation) {
+        annotate(annotation, namedAnnotators.keySet());
+    }
+    
+    /**
+     * Runs the parsed subset of the annotators of this pipeline.
+     * @param annotation the annotation
+     * @param annotators the names of the annotators as returned by
+     * {@link #resolveAnnotators(Collection)}. Annotators are run in the
+     * configured order.
+     */
+    public void annotate(Annotation annotation, Collection<String> annotators){
+        AnalysisContext context = new AnalysisContext();
+        context.init(language, annotators, null, false);
+        annotate(annotation, context);
+    }
+    
+    /**
+     * Runs the annotators selected by the parsed context. 
+     * {@link AnalysisContext#isOptional(String) Optional} annotators are
+     * skipped if they are disabled for the request, if they fail or if an
+     * annotator providing one of their requirements was skipped. Skipped
+     * annotators are recorded in the context. If the circuit breaker of a
+     * required annotator is open the request is rejected with an
+     * {@link AnalysisRejectedException}.
+     * <p>
+     * The deadline and the cancellation of the request are checked between
+     * annotators and - for {@link #SENTENCE_ANNOTATORS sentence level 
+     * annotators} of requests with a deadline - between sentences. If the
+     * context allows partial results the processing stops at the first
+     * checkpoint after the deadline and the remaining annotators are skipped.
+     * <p>
+     * If {@link #PARALLEL_PROPERTY} is enabled independent annotators run
+     * concurrently (see {@link #computeWaves(Map)}). If 
+     * {@link PipelineStages staged execution} is enabled the document is
+     * {@link #submit(Annotation, AnalysisContext, Callback) submitted} to the
+     * stages and the calling thread waits for its completion.
+     * @param annotation the annotation
+     * @param context the context of the request
+     * @throws AnalysisTimeoutException if the deadline passed and partial 
+     * results are not enabled
+     * @throws CancellationException if the request was cancelled
+     * @throws AnalysisRejectedException if a required annotator is not 
+     * available
+     */
+    public void annotate(Annotation annotation, AnalysisContext context){
+        if(stages != null){ //let the document flow through the stages
+            try {
+                submit(annotation, context, null).get();
+            } catch (InterruptedException e) {
+                context.cancel();
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while waiting for the stages");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if(cause instanceof RuntimeException){
+                    throw (RuntimeException)cause;
+                } else if(cause instanceof Error){
+                    throw (Error)cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+            return;
+        }
+        Run run = new Run(annotation, context);
+        try {
+            for(List<String> names = run.nextWave(); names != null; names = run.nextWave()){
+                run.completed(execute(names, annotation, context));
+            }
+        } finally { //release circuit breaker trials of annotators not completed
+            context.release();
+        }
+    }
+    
+    /**
+     * Submits the parsed annotation for {@link PipelineStages staged execution}.
+     * The document is queued in the stage of the first annotator and handed
+     * over from stage to stage by their workers. The calling thread only
+     * waits if the first stage is full. Annotators are selected, skipped and
+     * recorded as described for {@link #annotate(Annotation, AnalysisContext)}.
+     * @param annotation the annotation
+     * @param context the context of the request
+     * @param callback notified after the document has left the pipeline or
+     * <code>null</code> if none
+     * @return the future completed with the annotation after it has left the
+     * last stage. Cancelling the future stops the processing before the next
+     * annotator (as does {@link AnalysisContext#cancel()}).
+     * @throws IllegalStateException if staged execution is not enabled
+     */
+    public Future<Annotation> submit(Annotation annotation, AnalysisContext context, 
+            Callback callback){
+        if(stages == null){
+            throw new IllegalStateException("Staged execution is not enabled for the '"
+                + language + "' pipeline!");
+        }
+        StagedRun run = new StagedRun(annotation, context, callback);
+        run.next(); //dispatches the document to the stage of the first annotator
+        return run.result;
+    }
+    
+    /**
+     * Notified if a document {@link LangPipeline#submit(Annotation, AnalysisContext, Callback)
+     * submitted} for staged execution has left the pipeline
+     */
+    public interface Callback {
+        /**
+         * @param annotation the annotation
+         * @param error the error (a {@link CancellationException} if the
+         * processing was cancelled) or <code>null</code> if the document was
+         * processed
+         */
+        void completed(Annotation annotation, Throwable error);
+    }
+    
+    /**
+     * The processing of a document by the waves of annotators (see
+     * {@link #getWaves(Collection)}). Selects the annotators of the next wave
+     * and records the outcomes of the executed ones in the context.
+     */
+    private class Run {
+        
+        final Annotation annotation;
+        final AnalysisContext context;
+        private final Iterator<List<String>> waves;
+        private Set<Requirement> missing;
+        private boolean stopped;
+        
+        Run(Annotation annotation, AnalysisContext context){
+            this.annotation = annotation;
+            this.context = context;
+            this.waves = getWaves(context.getAnnotators()).iterator();
+        }
+        
+        /**
+         * @return the annotators of the next wave that need to be executed
+         * or <code>null</code> if all waves were processed
+         * @throws AnalysisRejectedException if a required annotator is not 
+         * allowed by its circuit breaker
+         */
+        List<String> nextWave(){
+            while(waves.hasNext()){
+                List<String> wave = waves.next();
+                List<String> names = new ArrayList<String>(wave.size());
+                for(String name : wave){
+                    if(stopped || !context.checkpoint()){
+                        stopped = true;
+                        context.skipped(name);
+                        continue;
+                    }
+                    Annotator annotator = namedAnnotators.get(name);
+                    if(context.isOptional(name)){
+                        if((missing != null && !Collections.disjoint(missing, annotator.requires())) ||
+                                !context.isEnabled(name)){
+                            context.skipped(name);
+                            missing = addMissing(missing, annotator);
+                            continue;
+                        }
+                    } else if(!context.isAllowed(name)){
+                        throw context.rejected(name);
+                    }
+                    names.add(name);
+                }
+                if(!names.isEmpty()){
+                    return names;
+                }
+            }
+            return null;
+        }
+        
+        /**
+         * Records the outcomes of the executed annotators
+         * @throws RuntimeException the error of a required annotator, a
+         * timeout or a cancellation
+         */
+        void completed(List<Outcome> outcomes){
+            for(Outcome outcome : outcomes){
+                String name = outcome.name;
+                boolean optional = context.isOptional(name);
+                RuntimeException e = outcome.error;
+                if(e instanceof AnalysisTimeoutException){
+                    if(optional){ //timeouts count as failure for the circuit breaker
+                        context.failed(name, e);
+                    }
+                    throw e;
+                } else if(e instanceof CancellationException){
+                    throw e;
+                } else if(e != null){
+                    if(!optional){
+                        context.recordFailure(name, e);
+                        throw e;
+                    }
+                    log.warn("Skip failed optional annotator {} for language {} ({}: {})",
+                        new Object[]{name, language, e.getClass().getSimpleName(), e.getMessage()});
+                    context.failed(name, e);
+                    missing = addMissing(missing, namedAnnotators.get(name));
+                    continue;
+                }
+                annotatorTimes.get(name).addAndGet(outcome.duration);
+                if(!outcome.completed){ //stopped by the deadline while processing sentences
+                    stopped = true;
+                    if(optional){
+                        context.failed(name, new AnalysisTimeoutException("Annotator "
+                            + name + " not completed before the deadline"));
+                    } else {
+                        context.skipped(name);
+                    }
+                } else {
+                    context.succeeded(name, outcome.duration/1000000);
+                }
+            }
+        }
+    }
+    
+    /**
+     * A {@link Run} where the waves are processed by the {@link PipelineStages}.
+     * Independent annotators of a wave are executed in the stage of the first
+     * one.
+     */
+    private final class StagedRun extends Run implements PipelineStages.Job {
+        
+        final StagedResult result = new StagedResult();
+        private final Callback callback;
+        /**
+         * The annotators processed by the current stage. Safely published by
+         * the executor of the stage.
+         */
+        private List<String> current;
+        /**
+         * Set after the callback was notified. Only accessed by the worker
+         * processing the document.
+         */
+        private boolean finished;
+        
+        StagedRun(Annotation annotation, AnalysisContext context, Callback callback){
+            super(annotation, context);
+            this.callback = callback;
+        }
+        
+        @Override
+        public void process() {
+            try {
+                if(result.isCancelled()){
+                    throw new CancellationException("Analysis of '" + language
+                        + "' language text cancelled");
+                }
+                completed(execute(current, annotation, context));
+            } catch (RuntimeException e) {
+                failed(e);
+            } catch (Error e) {
+                failed(e);
+                throw e;
+            }
+        }
+        
+        @Override
+        public void next() {
+            if(result.isDone()){ //failed or cancelled after the last annotator
+                failed(new CancellationException("Analysis of '" + language
+                    + "' language text cancelled"));
+                return;
+            }
+            try {
+                current = nextWave();
+                if(current != null){
+                    stages.dispatch(current.get(0), this);
+                    return;
+                }
+                context.release();
+            } catch (RuntimeException e) {
+                failed(e);
+                return;
+            } catch (Error e) {
+                failed(e);
+                throw e;
+            }
+            finished = true;
+            result.complete(annotation);
+            if(callback != null){
+                callback.completed(annotation, null);
+            }
+        }
+        
+        private void failed(Throwable e){
+            if(finished){
+                return;
+            }
+            finished = true;
+            context.release();
+            result.fail(e);
+            if(callback != null){
+                callback.completed(annotation, e);
+            }
+        }
+    }
+    
+    /**
+     * The result of a {@link StagedRun}. Completed by the worker of the last
+     * stage. Cancelling stops the processing before the next annotator.
+     */
+    private static final class StagedResult implements Future<Annotation> {
+        
+        private final CountDownLatch done = new CountDownLatch(1);
+        private Annotation annotation;
+        private Throwable error;
+        private boolean cancelled;
+        
+        private synchronized boolean set(Annotation annotation, Throwable error, boolean cancelled){
+            if(done.getCount() == 0){
+                return false;
+            }
+            this.annotation = annotation;
+            this.error = error;
+            this.cancelled = cancelled;
+            done.countDown();
+            return true;
+        }
+        
+        void complete(Annotation annotation){
+            set(annotation, null, false);
+        }
+        
+        void fail(Throwable e){
+            set(null, e, false);
+        }
+        
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return set(null, null, true);
+        }
+        
+        @Override
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+        
+        @Override
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+        
+        @Override
+        public Annotation get() throws InterruptedException, ExecutionException {
+            done.await();
+            return report();
+        }
+        
+        @Override
+        public Annotation get(long timeout, TimeUnit unit) throws InterruptedException,
+                ExecutionException, TimeoutException {
+            if(!done.await(timeout, unit)){
+                throw new TimeoutException();
+            }
+            return report();
+        }
+        
+        private synchronized Annotation report() throws ExecutionException {
+            if(cancelled){
+                throw new CancellationException();
+            }
+            if(error != null){
+                throw new ExecutionException(error);
+            }
+            return annotation;
+        }
+    }
+    
+    /**
+     * Runs a single annotator on the parsed annotation
+     */
+    private Outcome execute(String name, Annotation annotation, AnalysisContext context){
+        long start = System.nanoTime();
+        try {
+            boolean completed = annotate(name, runners.get(name), annotation, context);
+            return new Outcome(name, completed, System.nanoTime() - start, null);
+        } catch (RuntimeException e) {
+            return new Outcome(name, false, System.nanoTime() - start, e);
+        }
+    }
+    
+    /**
+     * Runs the annotators of a wave. Independent annotators of a wave run
+     * concurrently. The first annotator is run on
+     * the parsed annotation in the current thread, the others on
+     * {@link AnnotationCopy copies} by the {@link WorkerPool}. After all
+     * completed the annotations added to the copies are merged in the
+     * configured order.
+     * <p>
+     * If an annotator wrote annotations also changed by an annotator before
+     * it in the wave its copy is not merged. Instead the annotator is run 
+     * again on the merged annotation, as it would be without parallel
+     * branches. From then on it is {@link #serialised} and runs after the
+     * annotators before it in the wave.
+     * @return the outcomes in the configured order
+     */
+    private List<Outcome> execute(List<String> names, Annotation annotation, 
+            final AnalysisContext context){
+        if(names.size() == 1){
+            return Collections.singletonList(execute(names.get(0), annotation, context));
+        }
+        //copies need to be created before the first annotator starts
+        List<AnnotationCopy> copies = new ArrayList<AnnotationCopy>(names.size() - 1);
+        List<WorkerPool.Task<Outcome>> tasks = new ArrayList<WorkerPool.Task<Outcome>>(names.size() - 1);
+        for(final String name : names.subList(1, names.size())){
+            if(serialised.contains(name)){
+                copies.add(null);
+                tasks.add(null);
+                continue;
+            }
+            final AnnotationCopy copy = new AnnotationCopy(annotation);
+            copies.add(copy);
+            tasks.add(WorkerPool.getInstance().submit(new Callable<Outcome>() {
+                @Override
+                public Outcome call() {
+                    return execute(name, copy.get(), context);
+                }
+            }));
+        }
+        List<Outcome> outcomes = new ArrayList<Outcome>(names.size());
+        outcomes.add(execute(names.get(0), annotation, context));
+        for(int i = 0; i < tasks.size(); i++){
+            String name = names.get(i + 1);
+            Outcome outcome;
+            if(tasks.get(i) == null){
+                outcomes.add(execute(name, annotation, context));
+                continue;
+            }
+            try {
+                outcome = tasks.get(i).join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                outcome = new Outcome(name, false, 0, new CancellationException(
+                    "Interrupted while waiting for annotator " + name));
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if(cause instanceof Error){
+                    throw (Error)cause;
+                }
+                outcome = new Outcome(name, false, 0, cause instanceof RuntimeException ?
+                        (RuntimeException)cause : new IllegalStateException(cause));
+            }
+            if(outcome.error == null){
+                Set<Class<?>> conflicts = copies.get(i).merge();
+                if(!conflicts.isEmpty()){
+                    if(serialised.add(name)){
+                        log.warn("The '{}' annotator of the {} pipeline changes annotations also "
+                            + "changed by other annotators of its wave ({}). It will no longer "
+                            + "run in parallel with them.", new Object[]{name, language, conflicts});
+                    }
+                    outcome = execute(name, annotation, context);
+                }
+            }
+            outcomes.add(outcome);
+        }
+        return outcomes;
+    }
+    
+    /**
+     * The groups of annotators run one after the other for the parsed
+     * selection. Annotators of the same group are independent of each other
+     * and run concurrently if {@link #PARALLEL_PROPERTY} is enabled.
+     * @param selected the selected annotators or <code>null</code> for all
+     * @return the groups
+     */
+    List<List<String>> getWaves(Collection<String> selected){
+        List<String> key = selected == null ? new ArrayList<String>(namedAnnotators.keySet()) :
+            new ArrayList<String>(selected);
+        List<List<String>> computed = waves.get(key);
+        if(computed == null){
+            Map<String,Annotator> annotators = new LinkedHashMap<String,Annotator>();
+            for(String name : key){
+                if(namedAnnotators.containsKey(name)){
+                    annotators.put(name, namedAnnotators.get(name));
+                }
+            }
+            if(parallel){
+                computed = computeWaves(annotators);
+            } else {
+                computed = new ArrayList<List<String>>(annotators.size());
+                for(String name : annotators.keySet()){
+                    computed.add(Collections.singletonList(name));
+                }
+            }
+            computed = Collections.unmodifiableList(computed);
+            List<List<String>> current = waves.putIfAbsent(key, computed);
+            if(current != null){
+                computed = current;
+            } else if(parallel){
+                log.debug(" ... execution plan {} for annotators {} (language: {})",
+                    new Object[]{computed, key, language});
+            }
+        }
+        return computed;
+    }
+    
+    /**
+     * Groups the parsed annotators into waves based on their
+     * {@link Annotator#requires() requirements} and 
+     * {@link Annotator#requirementsSatisfied() satisfied requirements}. An
+     * annotator is placed in the wave after the last wave containing an
+     * annotator configured before that provides one of its requirements, 
+     * provides the same requirement or requires one it provides.
+     * Annotators without requirements or without satisfied requirements 
+     * (e.g. the tokenizer) are barriers: they run alone and after all 
+     * annotators configured before.
+     * @param annotators the annotators in the configured order
+     * @return the waves
+     */
+    static List<List<String>> computeWaves(Map<String,Annotator> annotators){
+        List<List<String>> waves = new ArrayList<List<String>>();
+        Map<String,Integer> levels = new HashMap<String,Integer>();
+        int floor = 0; //the first wave annotators can be added to
+        for(Entry<String,Annotator> entry : annotators.entrySet()){
+            String name = entry.getKey();
+            Annotator annotator = entry.getValue();
+            int level;
+            if(annotator.requires().isEmpty() || annotator.requirementsSatisfied().isEmpty()){
+                level = waves.size();
+                floor = level + 1;
+            } else {
+                level = floor;
+                for(Entry<String,Integer> before : levels.entrySet()){
+                    Annotator other = annotators.get(before.getKey());
+                    if(before.getValue() >= level && (
+                            !Collections.disjoint(other.requirementsSatisfied(), annotator.requires()) ||
+                            !Collections.disjoint(other.requirementsSatisfied(), annotator.requirementsSatisfied()) ||
+                            !Collections.disjoint(other.requires(), annotator.requirementsSatisfied()) ||
+                            before.getKey().equals(RUN_AFTER.get(name)))){
+                        level = before.getValue() + 1;
+                    }
+                }
+            }
+            levels.put(name, level);
+            if(level == waves.size()){
+                waves.add(new ArrayList<String>());
+            }
+            waves.get(level).add(name);
+        }
+        return waves;
+    }
+    
+    /**
+     * Runs a single annotator. For requests with a deadline or enabled
+     * {@link AnalysisContext#setSentenceCheckpoints(boolean) sentence checkpoints}
+     * {@link #SENTENCE_ANNOTATORS sentence level annotators} are run sentence
+     * by sentence with checkpoints in between. All other requests are only
+     * checked between annotators.
+     * @return <code>false</code> if the processing was stopped before all
+     * sentences were processed
+     */
+    private boolean annotate(String name, Annotator annotator, Annotation annotation, 
+            AnalysisContext context){
+        List<CoreMap> sentences = annotation.get(SentencesAnnotation.class);
+        if(!context.isSentenceInterruptible() || !SENTENCE_ANNOTATORS.contains(name) ||
+                sentences == null || sentences.size() < 2){
+            annotator.annotate(annotation);
+            return true;
+        }
+        //a view on the annotation that only includes a single sentence
+        Annotation view = new Annotation(annotation);
+        for(CoreMap sentence : sentences){
+            if(!context.checkpoint()){
+                return false;
+            }
+            view.set(SentencesAnnotation.class, Collections.singletonList(sentence));
+            annotator.annotate(view);
+        }
+        return true;
+    }
+    
+    /**
+     * @return the replicas of the annotators in the configured order. Also
+     * provides the contention of the annotators.
+     */
+    public Collection<AnnotatorReplicas> getReplicas() {
+        synchronized (signatures) {
+            return Collections.unmodifiableCollection(new ArrayList<AnnotatorReplicas>(replicas.values()));
+        }
+    }
+    
+    /**
+     * @return the number of instances of replicated annotators
+     * @see #REPLICAS_PROPERTY
+     */
+    public int getReplicaCount() {
+        return replicaCount;
+    }
+    
+    /**
+     * @return the cache for sentence level annotations or <code>null</code>
+     * if disabled
+     */
+    public SentenceCache getSentenceCache() {
+        return sentenceCache;
+    }
+    
+    /**
+     * The {@link NumericCueGate}s of the <code>ner</code> annotator (one per
+     * replica). NOTE that annotators are shared with other pipelines using the
+     * same configuration (see {@link AnnotatorRegistry}) and so are the
+     * counters of the returned gates.
+     * @return the gates. Empty if numeric classifiers are not gated.
+     */
+    public Collection<NumericCueGate> getNumericCueGates() {
+        AnnotatorReplicas ner = replicas.get(STANFORD_NER);
+        if(ner == null){
+            return Collections.emptySet();
+        }
+        Collection<NumericCueGate> gates = new ArrayList<NumericCueGate>(ner.getSize());
+        for(Annotator annotator : ner.getReplicas()){
+            if(annotator instanceof StanbolNerAnnotator){
+                annotator = ((StanbolNerAnnotator)annotator).getNumeric();
+            }
+            if(annotator instanceof NumericCueGate && ((NumericCueGate)annotator).isGated()){
+                gates.add((NumericCueGate)annotator);
+            }
+        }
+        return gates;
+    }
+    
+    /**
+     * @return the stages used for staged execution or <code>null</code> if
+     * annotators are run in the thread of the request
+     */
+    public PipelineStages getStages() {
+        return stages;
+    }
+    
+    /**
+     * The result of running an annotator
+     */
+    private static final class Outcome {
+        final String name;
+        final boolean completed;
+        final long duration;
+        final RuntimeException error;
+
+        Outcome(String name, boolean completed, long duration, RuntimeException error){
+            this.name = name;
+            this.completed = completed;
+            this.duration = duration;
+            this.error = error;
+        }
+    }
+    
+    private static Set<Requirement> addMissing(Set<Requirement> missing, Annotator skipped){
+        if(missing == null){
+            missing = new HashSet<Requirement>();
+        }
+        missing.addAll(skipped.requirementsSatisfied());
+        return missing;
+    }
+    
+    /**
+     * The accumulated processing time of the annotators of this pipeline
+     */
+    @Override
+    public String timingInformation() {
+        StringBuilder sb = new StringBuilder("Annotation pipeline timing information (language: ")
+                .append(language).append("):");
+        long total = 0;
+        for(Entry<String,AtomicLong> entry : annotatorTimes.entrySet()){
+            long millis = entry.getValue().get()/1000000;
+            total += millis;
+            sb.append('\n').append(entry.getKey()).append(": ").append(millis).append(" ms");
+        }
+        sb.append("\nTOTAL: ").append(total).append(" ms");
+        return sb.toString();
+    }
+    
+    /**
+     * The language without the country (e.g. '<code>en</code>' for 
+     * '<code>en-us</code>'
+     * @return the root language
+     */
+    private String getRootLanguage(){
+        int sepIdx = language.indexOf('-');
+        return sepIdx > 0 ? language.substring(0, sepIdx) : language;
+    }
+    
+    /**
+     * Marks the start of a request processed by this pipeline. Requests need
+     * to {@link #release()} the pipeline after processing so that a
+     * {@link #close() closed} pipeline can release its annotators after all
+     * in-flight requests are completed.
+     * @return <code>true</code> if the pipeline can be used or <code>false</code>
+     * if it is already closed
+     */
+    public boolean acquire(){
+        synchronized (signatures) {
+            if(closing){
+                return false;
+            }
+            active++;
+            return true;
+        }
+    }
+    
+    /**
+     * Marks the end of a request started by {@link #acquire()}
+     */
+    public void release(){
+        boolean release;
+        synchronized (signatures) {
+            if(active <= 0){
+                throw new IllegalStateException("release() called without acquire()");
+            }
+            active--;
+            release = closing && active == 0;
+        }
+        if(release){
+            releaseAnnotators();
+        }
+    }
+    
+    /**
+     * Releases the {@link Annotator}s used by this pipeline. Annotators (and
+     * their models) no longer used by any other pipeline are unloaded. If
+     * requests are still processed by this pipeline the annotators are released
+     * after the last of them completes. This pipeline MUST NOT be used for new
+     * requests after calling this method.
+     */
+    public void close(){
+        synchronized (signatures) {
+            if(closing){
+                return;
+            }
+            closing = true;
+            if(active > 0){
+                log.info(" ... close annotation pipeline for language {} after {} "
+                    + "in-flight request(s) completed", language, active);
+                return;
+            }
+        }
+        releaseAnnotators();
+    }
+    
+    private void releaseAnnotators(){
+        synchronized (signatures) {
+            if(closed){
+                return;
+            }
+            closed = true;
+            if(stages != null){
+                stages.close();
+            }
+            //drop the replicas (the replicated instances are not registered)
+            runners.clear();
+            replicas.clear();
+            for(Annotator annotator : replicated){
+                AnnotatorRegistry.close(annotator);
+            }
+            replicated.clear();
+            for(String signature : signatures){
+                AnnotatorRegistry.getInstance().release(signature);
+            }
+            signatures.clear();
+        }
+        log.info(" ... closed annotation pipeline for language {}", language);
+    }
 }
@@ -18,7 +18,13 @@ public final class LanguageDefaults {
     
     private final Map<String,Properties> languageDefautls = new HashMap<String,Properties>();
     
-    public Properties getDefaults(String language){
+    /**
+     * Getter for the defaults of the parsed language. Synchronized as
+     * pipelines for different languages might be initialised concurrently.
+     * @param language the language
+     * @return the defaults (an empty properties if none are present)
+     */
+    public synchronized Properties getDefaults(String language){
         Properties properties = languageDefautls.get(language);
         if(properties == null){
             String defaultsResource = new StringBuilder("defaults/").append(language)
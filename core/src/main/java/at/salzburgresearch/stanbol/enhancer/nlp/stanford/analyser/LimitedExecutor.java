@@ -0,0 +1,147 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of concurrently running tasks of an executor that
+ * creates a thread per task (e.g. virtual threads). Tasks are started
+ * immediately but wait for a permit before they run, so the threads waiting
+ * for I/O are not limited while CPU bound work stays matched to the number
+ * of cores.
+ * <p>
+ * {@link #shutdownNow()} returns the parsed tasks that have not yet started
+ * to run (including those waiting for a permit).
+ *
+ * @author Rupert Westenthaler
+ *
+ */
+public class LimitedExecutor extends AbstractExecutorService {
+
+    private final ExecutorService delegate;
+    private final Semaphore permits;
+    private final int limit;
+    /**
+     * Tasks submitted to the delegate that did not yet start to run
+     */
+    private final Set<Task> pending = Collections.newSetFromMap(new ConcurrentHashMap<Task,Boolean>());
+
+    /**
+     * @param delegate the executor running the tasks
+     * @param limit the maximum number of concurrently running tasks
+     */
+    public LimitedExecutor(ExecutorService delegate, int limit) {
+        if(delegate == null){
+            throw new IllegalArgumentException("The parsed executor MUST NOT be NULL!");
+        }
+        if(limit < 1){
+            throw new IllegalArgumentException("The limit MUST BE > 0 (parsed: "+limit+")!");
+        }
+        this.delegate = delegate;
+        this.limit = limit;
+        this.permits = new Semaphore(limit, true);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if(command == null){
+            throw new NullPointerException();
+        }
+        Task task = new Task(command);
+        pending.add(task);
+        try {
+            delegate.execute(task);
+        } catch (RejectedExecutionException e) {
+            pending.remove(task);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the maximum number of concurrently running tasks
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the number of currently running tasks
+     */
+    public int getRunning() {
+        return limit - permits.availablePermits();
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> notStarted = new ArrayList<Runnable>();
+        for(Runnable runnable : delegate.shutdownNow()){
+            if(!(runnable instanceof Task)){
+                notStarted.add(runnable);
+            } //else returned with the pending tasks
+        }
+        //also tasks already started by the delegate but waiting for a permit
+        for(Task task : pending){
+            if(pending.remove(task)){
+                notStarted.add(task.command);
+            }
+        }
+        return notStarted;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Runs the parsed task after it got a permit
+     */
+    private final class Task implements Runnable {
+
+        final Runnable command;
+
+        Task(Runnable command) {
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return; //shutdownNow() ... returned as not started
+            }
+            try {
+                if(pending.remove(this)){ //else returned by shutdownNow()
+                    command.run();
+                }
+            } finally {
+                permits.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+import static edu.stanford.nlp.pipeline.Annotator.STANFORD_SENTIMENT;
+import static edu.stanford.nlp.pipeline.StanfordCoreNLP.STANFORD_DETERMINISTIC_COREF;
+import static edu.stanford.nlp.pipeline.StanfordCoreNLP.STANFORD_PARSE;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Overload policy of the {@link StanfordNlpAnalyzer}.
+ * <p>
+ * <b>Load shedding:</b> If the number of requests in the analyser (queued
+ * and processed) exceeds the configured maximum or the average latency
+ * exceeds the configured maximum the analyser is considered overloaded. While
+ * overloaded the {@link #getOptionalAnnotators() optional annotators} are not
+ * run for new requests and responses are marked as degraded. The analyser
+ * returns to full quality as soon as the number of requests and the latency
+ * are below {@link #DEFAULT_RECOVERY_RATIO half} of the thresholds.
+ * <p>
+ * <b>Circuit breakers:</b> Every annotator of a language has a
+ * {@link CircuitBreaker}. Failed annotators and optional annotators exceeding
+ * the {@link #setSlowAnnotatorThreshold(long) slow annotator threshold} are
+ * recorded as failures. While a breaker is open optional annotators are
+ * skipped and requests that need a required annotator are rejected.
+ *
+ * @author Rupert Westenthaler
+ *
+ */
+public class OverloadPolicy {
+
+    private final Logger log = LoggerFactory.getLogger(OverloadPolicy.class);
+
+    /**
+     * The default optional annotators
+     */
+    public static final Collection<String> DEFAULT_OPTIONAL_ANNOTATORS = Collections.unmodifiableList(
+        Arrays.asList(STANFORD_DETERMINISTIC_COREF, STANFORD_SENTIMENT, STANFORD_PARSE));
+    public static final double DEFAULT_RECOVERY_RATIO = 0.5;
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_DURATION = 30000;
+    /**
+     * The weight of the latest request for the average latency
+     */
+    private static final double LATENCY_WEIGHT = 0.1;
+
+    private final Set<String> optionalAnnotators;
+    private final int maxRequests;
+    private final long maxLatency;
+    private double recoveryRatio = DEFAULT_RECOVERY_RATIO;
+    private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private long openDuration = DEFAULT_OPEN_DURATION;
+    private long slowAnnotatorThreshold = 0;
+
+    private final AtomicInteger requests = new AtomicInteger();
+    /**
+     * The exponentially weighted moving average of the latency in ms
+     */
+    private volatile double latency;
+    private volatile boolean overloaded;
+
+    private final ConcurrentMap<String,CircuitBreaker> breakers =
+            new ConcurrentHashMap<String,CircuitBreaker>();
+
+    /**
+     * @param maxRequests the maximum number of requests (queued and processed)
+     * or <code>0</code> to deactivate
+     * @param maxLatency the maximum average latency in milliseconds or
+     * <code>0</code> to deactivate
+     * @param optionalAnnotators the annotators that can be skipped or
+     * <code>null</code> to use the {@link #DEFAULT_OPTIONAL_ANNOTATORS}
+     */
+    public OverloadPolicy(int maxRequests, long maxLatency, Collection<String> optionalAnnotators) {
+        if(maxRequests < 0 || maxLatency < 0){
+            throw new IllegalArgumentException("Thresholds MUST NOT be negative (maxRequests: "
+                + maxRequests+", maxLatency: "+maxLatency+")!");
+        }
+        this.maxRequests = maxRequests;
+        this.maxLatency = maxLatency;
+        this.optionalAnnotators = Collections.unmodifiableSet(new LinkedHashSet<String>(
+            optionalAnnotators == null ? DEFAULT_OPTIONAL_ANNOTATORS : optionalAnnotators));
+    }
+
+    public void setRecoveryRatio(double recoveryRatio) {
+        if(recoveryRatio <= 0 || recoveryRatio > 1){
+            throw new IllegalArgumentException("The recovery ratio MUST BE in the range (0..1]!");
+        }
+        this.recoveryRatio = recoveryRatio;
+    }
+
+    /**
+     * @param failureThreshold the consecutive failures that open the circuit
+     * breaker of an annotator
+     * @param openDuration the time in milliseconds a breaker stays open
+     */
+    public void setCircuitBreaker(int failureThreshold, long openDuration){
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * @param slowAnnotatorThreshold the time in milliseconds after that the
+     * processing of an optional annotator is recorded as failure or
+     * <code>0</code> to deactivate
+     */
+    public void setSlowAnnotatorThreshold(long slowAnnotatorThreshold) {
+        this.slowAnnotatorThreshold = slowAnnotatorThreshold;
+    }
+
+    public Set<String> getOptionalAnnotators() {
+        return optionalAnnotators;
+    }
+
+    public boolean isOptional(String annotator){
+        return optionalAnnotators.contains(annotator);
+    }
+
+    /**
+     * Called when a request enters the analyser
+     * @return if the analyser is overloaded and optional annotators should be
+     * skipped for this request
+     */
+    public boolean requestStarted(){
+        requests.incrementAndGet();
+        return updateState();
+    }
+
+    /**
+     * Called for a {@link #requestStarted() started} request that is not
+     * processed (e.g. because its initialisation failed)
+     */
+    public void requestAborted(){
+        requests.decrementAndGet();
+        updateState();
+    }
+
+    /**
+     * Called when a request leaves the analyser
+     * @param duration the duration of the request in milliseconds
+     */
+    public void requestCompleted(long duration){
+        requests.decrementAndGet();
+        synchronized (this) {
+            latency = latency == 0 ? duration : latency + LATENCY_WEIGHT * (duration - latency);
+        }
+        updateState();
+    }
+
+    private boolean updateState(){
+        int current = requests.get();
+        double avgLatency = latency;
+        boolean state = overloaded;
+        if(!state){
+            state = (maxRequests > 0 && current > maxRequests) ||
+                    (maxLatency > 0 && avgLatency > maxLatency);
+            if(state){
+                log.warn("Analyser overloaded ({} requests, avg. latency {}ms) -> skip "
+                    + "optional annotators {}", new Object[]{
+                        current, Math.round(avgLatency), optionalAnnotators});
+            }
+        } else {
+            state = !((maxRequests <= 0 || current <= maxRequests * recoveryRatio) &&
+                    (maxLatency <= 0 || avgLatency <= maxLatency * recoveryRatio));
+            if(!state){
+                log.info("Analyser recovered ({} requests, avg. latency {}ms)",
+                    current, Math.round(avgLatency));
+            }
+        }
+        overloaded = state;
+        return state;
+    }
+
+    public boolean isOverloaded() {
+        return overloaded;
+    }
+
+    /**
+     * The number of requests currently in the analyser
+     */
+    public int getRequests(){
+        return requests.get();
+    }
+
+    /**
+     * The average latency in milliseconds
+     */
+    public double getLatency() {
+        return latency;
+    }
+
+    /**
+     * If the annotator is allowed by its circuit breaker. The outcome of
+     * allowed calls MUST BE recorded by {@link #annotatorSucceeded(String, String, long)},
+     * {@link #annotatorFailed(String, String, Exception)} or
+     * {@link #annotatorAborted(String, String)}.
+     */
+    public boolean allowAnnotator(String language, String annotator){
+        return getBreaker(language, annotator).allowRequest();
+    }
+
+    public void annotatorSucceeded(String language, String annotator, long duration){
+        CircuitBreaker breaker = getBreaker(language, annotator);
+        //slow required annotators are not rejected as there is no alternative
+        if(slowAnnotatorThreshold > 0 && duration > slowAnnotatorThreshold && isOptional(annotator)){
+            if(breaker.recordFailure()){
+                log.warn("Open {} (processing took {}ms)", breaker, duration);
+            }
+        } else {
+            breaker.recordSuccess();
+        }
+    }
+
+    public void annotatorFailed(String language, String annotator, Exception e){
+        CircuitBreaker breaker = getBreaker(language, annotator);
+        if(breaker.recordFailure()){
+            log.warn("Open " + breaker + " (" + e.getClass().getSimpleName()
+                + ": " + e.getMessage() + ")", e);
+        }
+    }
+
+    /**
+     * Called for allowed annotators that were not run or not completed (e.g.
+     * because the request was cancelled)
+     */
+    public void annotatorAborted(String language, String annotator){
+        getBreaker(language, annotator).releaseTrial();
+    }
+
+    /**
+     * The circuit breaker for an annotator of a language
+     */
+    public CircuitBreaker getBreaker(String language, String annotator){
+        String key = language + ':' + annotator;
+        CircuitBreaker breaker = breakers.get(key);
+        if(breaker == null){
+            breaker = new CircuitBreaker(key, failureThreshold, openDuration);
+            CircuitBreaker current = breakers.putIfAbsent(key, breaker);
+            if(current != null){
+                breaker = current;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * @return the circuit breakers by '<code>{language}:{annotator}</code>'
+     */
+    public Collection<CircuitBreaker> getBreakers(){
+        return Collections.unmodifiableCollection(breakers.values());
+    }
+}
@@ -0,0 +1,241 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.model.ModelCache;
+
+/**
+ * Reloads the '<code>{lang}.pipeline</code>' configurations of a
+ * {@link StanfordNlpAnalyzer} at runtime.
+ * <p>
+ * When {@link #start(long) started} the configuration directory is checked
+ * for changes in the parsed interval (polling is used as the
+ * <code>WatchService</code> is not available on Java 6). For changed and new
+ * configurations a new {@link LangPipeline} is created and
+ * {@link WarmUp warmed up} in the background before it replaces the current
+ * pipeline of the analyser. In-flight requests complete with the replaced
+ * pipeline. Pipelines of deleted configurations are removed. If a new pipeline
+ * can not be created the current pipeline stays in use.
+ * <p>
+ * Reloads are executed one after the other by a single background thread.
+ *
+ * @author Rupert Westenthaler
+ *
+ */
+public class PipelineReloader {
+
+    private final Logger log = LoggerFactory.getLogger(PipelineReloader.class);
+
+    public static final String CONFIG_EXTENSION = "pipeline";
+
+    private final StanfordNlpAnalyzer analyzer;
+    private final File configDir;
+    private final ExecutorService initExecutor;
+    private final ModelCache modelCache;
+    private final WarmUp warmUp;
+    /**
+     * Last modified and size of the known configuration files
+     */
+    private final Map<File,String> stamps = new HashMap<File,String>();
+
+    private final ScheduledExecutorService executor;
+
+    /**
+     * @param analyzer the analyser
+     * @param configDir the directory with the '<code>{lang}.pipeline</code>'
+     * configurations
+     * @param initExecutor the executor used to load annotators or
+     * <code>null</code> to load them in the reload thread
+     * @param modelCache the model cache or <code>null</code> if none
+     * @param warmUp used to warm up new pipelines or <code>null</code> to
+     * deactivate warm up
+     */
+    public PipelineReloader(StanfordNlpAnalyzer analyzer, File configDir,
+            ExecutorService initExecutor, ModelCache modelCache, WarmUp warmUp) {
+        if(analyzer == null){
+            throw new IllegalArgumentException("The parsed StanfordNlpAnalyzer MUST NOT be NULL!");
+        }
+        if(configDir == null || !configDir.isDirectory()){
+            throw new IllegalArgumentException("The parsed config directory "
+                + configDir +" MUST BE an existing directory!");
+        }
+        this.analyzer = analyzer;
+        this.configDir = configDir;
+        this.initExecutor = initExecutor;
+        this.modelCache = modelCache;
+        this.warmUp = warmUp;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "pipeline-reloader");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        //the current configurations are already loaded
+        for(File config : listConfigs()){
+            stamps.put(config, getStamp(config));
+        }
+    }
+
+    /**
+     * Starts to check the configuration directory for changes
+     * @param interval the interval in milliseconds
+     */
+    public void start(long interval){
+        if(interval <= 0){
+            throw new IllegalArgumentException("The interval MUST BE > 0 (parsed: "+interval+")!");
+        }
+        log.info(" ... check {} for configuration changes every {}ms", configDir, interval);
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    checkConfigs();
+                } catch (RuntimeException e) {
+                    log.warn("Unable to check configurations in "+configDir,e);
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops checking for changes. A running reload is completed.
+     */
+    public void stop(){
+        executor.shutdown();
+    }
+
+    /**
+     * Reloads the pipeline of the parsed language in the background.
+     * @param language the language or <code>null</code> to reload all
+     * configured languages
+     * @return the future for the reloaded languages
+     * @throws IllegalArgumentException if there is no configuration for the
+     * parsed language
+     */
+    public Future<Set<String>> reload(final String language){
+        final File config;
+        if(language != null){
+            config = new File(configDir, language.toLowerCase(Locale.ROOT) + '.' + CONFIG_EXTENSION);
+            if(!config.isFile()){
+                throw new IllegalArgumentException("No configuration for language '"
+                    + language+"' present in "+configDir+"!");
+            }
+        } else {
+            config = null;
+        }
+        return executor.submit(new Callable<Set<String>>() {
+            @Override
+            public Set<String> call() {
+                Set<String> reloaded = new HashSet<String>();
+                for(File file : config == null ? listConfigs() : Collections.singleton(config)){
+                    String stamp = getStamp(file);
+                    if(reload(file)){
+                        reloaded.add(getLanguage(file));
+                    }
+                    stamps.put(file, stamp);
+                }
+                return reloaded;
+            }
+        });
+    }
+
+    /**
+     * Compares the current configurations with the known ones. Called by the
+     * reload thread.
+     */
+    private void checkConfigs(){
+        Set<File> configs = listConfigs();
+        for(Iterator<Entry<File,String>> it = stamps.entrySet().iterator(); it.hasNext();){
+            File config = it.next().getKey();
+            if(!configs.contains(config)){
+                it.remove();
+                String language = getLanguage(config);
+                log.info(" > configuration for language {} deleted", language);
+                analyzer.removePipeline(language);
+            }
+        }
+        for(File config : configs){
+            String stamp = getStamp(config);
+            if(!stamp.equals(stamps.get(config))){
+                log.info(" > configuration {} changed", config.getName());
+                reload(config);
+                //NOTE: also store the stamp on failures to avoid reloading a
+                //      broken configuration over and over again
+                stamps.put(config, stamp);
+            }
+        }
+    }
+
+    /**
+     * Creates, warms up and installs the pipeline for the parsed configuration
+     * @return if the pipeline was successfully replaced
+     */
+    private boolean reload(File config){
+        String language = getLanguage(config);
+        long start = System.currentTimeMillis();
+        LangPipeline pipeline;
+        try {
+            pipeline = new LangPipeline(config.getAbsolutePath(), initExecutor, modelCache);
+        } catch (RuntimeException e) {
+            log.error("Unable to reload the annotation pipeline for language "
+                + language + " (current pipeline stays in use)", e);
+            return false;
+        }
+        if(warmUp != null){
+            try {
+                warmUp.warmUp(pipeline);
+            } catch (RuntimeException e) {
+                log.error("Unable to warm up the reloaded annotation pipeline for language "
+                    + language + " (current pipeline stays in use)", e);
+                pipeline.close();
+                return false;
+            }
+        }
+        analyzer.setPipeline(language, pipeline);
+        log.info(" ... reloaded annotation pipeline for language {} in {}ms",
+            language, System.currentTimeMillis() - start);
+        return true;
+    }
+
+    private Set<File> listConfigs(){
+        Set<File> configs = new HashSet<File>();
+        File[] files = configDir.listFiles();
+        if(files != null){
+            for(File file : files){
+                if(file.isFile() && CONFIG_EXTENSION.equals(FilenameUtils.getExtension(file.getName()))){
+                    configs.add(file);
+                }
+            }
+        }
+        return configs;
+    }
+
+    private static String getLanguage(File config){
+        return FilenameUtils.getBaseName(config.getName()).toLowerCase(Locale.ROOT);
+    }
+
+    private static String getStamp(File file){
+        return file.lastModified() + ":" + file.length();
+    }
+}
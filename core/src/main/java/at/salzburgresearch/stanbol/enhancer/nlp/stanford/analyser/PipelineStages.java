@@ -0,0 +1,296 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Staged (SEDA style) execution of the annotators of a {@link LangPipeline}.
+ * <p>
+ * Every annotator is a stage with its own workers and a bounded number of
+ * documents (queued and processed). Documents flow through the stages as
+ * {@link Job}s: after a worker has processed a document it leaves the stage
+ * and the worker {@link #dispatch(String, Job) dispatches} it to the queue of
+ * the stage of the next annotator. No thread waits for a document while it
+ * is processed by an other stage. So while document N is parsed the tokenizer
+ * can already process document N+1. If a stage is full the thread dispatching
+ * the document waits until a document leaves that stage (back pressure).
+ * <p>
+ * The available workers are distributed over the stages based on the measured
+ * processing time: every {@link #REBALANCE_INTERVAL} ms each stage gets a
+ * share of the workers proportional to the time spent in the stage since the
+ * last rebalance. Every stage keeps at least one worker, so the total number
+ * of workers is the configured number of threads but at least the number of
+ * stages.
+ * <p>
+ * Enabled by the '<code>staged.threads</code>' property of the pipeline
+ * configuration.
+ *
+ * @author Rupert Westenthaler
+ *
+ */
+public class PipelineStages {
+
+    private static final Logger log = LoggerFactory.getLogger(PipelineStages.class);
+
+    /**
+     * The number of workers shared by all stages of a pipeline. '<code>0</code>'
+     * (default) deactivates staged execution
+     */
+    public static final String THREADS_PROPERTY = "staged.threads";
+    /**
+     * The maximum number of documents (queued and processed) in a stage. The
+     * default is two times the number of workers.
+     */
+    public static final String QUEUE_SIZE_PROPERTY = "staged.queueSize";
+
+    /**
+     * The interval in milliseconds used to rebalance the workers of the stages
+     */
+    public static final long REBALANCE_INTERVAL = 5000;
+
+    /**
+     * A document processed by the stages
+     */
+    public interface Job {
+        /**
+         * Processes the document. Called by a worker of the stage the job
+         * was dispatched to.
+         */
+        void process();
+        /**
+         * Called by the same worker after the document has left the stage.
+         * Typically {@link PipelineStages#dispatch(String, Job) dispatches}
+         * the job to the next stage.
+         */
+        void next();
+    }
+
+    private final String language;
+    private final int threads;
+    private final Map<String,Stage> stages = new LinkedHashMap<String,Stage>();
+    private volatile long lastRebalance = System.currentTimeMillis();
+    private final AtomicBoolean rebalancing = new AtomicBoolean();
+
+    /**
+     * @param language the language of the pipeline (used for thread names and
+     * logging)
+     * @param names the names of the annotators of the pipeline
+     * @param threads the number of workers distributed over the stages (at
+     * least one per stage)
+     * @param queueSize the maximum number of documents in a stage (at least
+     * the number of workers is used)
+     */
+    public PipelineStages(String language, Collection<String> names, int threads, int queueSize) {
+        if(names == null || names.isEmpty()){
+            throw new IllegalArgumentException("The parsed annotator names MUST NOT be NULL nor empty!");
+        }
+        if(threads < 1){
+            throw new IllegalArgumentException("The number of threads MUST BE > 0 (parsed: "
+                + threads + ")!");
+        }
+        this.language = language;
+        if(threads < names.size()){
+            log.warn("{} threads configured for {} stages of language {}. Every stage "
+                + "needs a worker (use {} threads)", new Object[]{threads, names.size(),
+                        language, names.size()});
+            threads = names.size();
+        }
+        this.threads = threads;
+        int workers = threads / names.size();
+        int capacity = Math.max(queueSize, threads);
+        for(String name : names){
+            stages.put(name, new Stage(language + '-' + name, workers, capacity));
+        }
+        log.info(" ... staged execution for language {} ({} threads, stages: {})",
+            new Object[]{language, threads, names});
+    }
+
+    /**
+     * Queues the parsed job in the stage of the parsed annotator. Waits if
+     * the stage is full. If there is no stage for the parsed name the job is
+     * processed by the current thread.
+     * @param name the name of the annotator
+     * @param job the job
+     * @throws CancellationException if interrupted while waiting for the stage
+     * @throws IllegalStateException if the stages are already closed
+     */
+    public void dispatch(String name, Job job){
+        Stage stage = stages.get(name);
+        if(stage == null){
+            job.process();
+            job.next();
+        } else {
+            stage.dispatch(job);
+            if(System.currentTimeMillis() - lastRebalance > REBALANCE_INTERVAL &&
+                    rebalancing.compareAndSet(false, true)){
+                try {
+                    rebalance();
+                } finally {
+                    rebalancing.set(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Distributes the workers over the stages based on the processing time
+     * since the last call. Every stage gets one worker, the others are
+     * distributed proportional to the processing time. The total never
+     * exceeds the number of threads.
+     */
+    void rebalance(){
+        lastRebalance = System.currentTimeMillis();
+        Map<Stage,Long> demand = new LinkedHashMap<Stage,Long>();
+        long total = 0;
+        for(Stage stage : stages.values()){
+            long busy = stage.busy.getAndSet(0);
+            demand.put(stage, busy);
+            total += busy;
+        }
+        if(total <= 0){
+            return; //idle
+        }
+        int shared = threads - stages.size();
+        Map<Stage,Integer> workers = new LinkedHashMap<Stage,Integer>();
+        int assigned = 0;
+        for(Entry<Stage,Long> entry : demand.entrySet()){
+            int share = (int)(shared * (double)entry.getValue() / total);
+            workers.put(entry.getKey(), 1 + share);
+            assigned += share;
+        }
+        //workers lost by rounding down go to the stages with the most demand
+        List<Entry<Stage,Long>> byDemand = new ArrayList<Entry<Stage,Long>>(demand.entrySet());
+        Collections.sort(byDemand, new Comparator<Entry<Stage,Long>>() {
+            @Override
+            public int compare(Entry<Stage,Long> e1, Entry<Stage,Long> e2) {
+                return e2.getValue().compareTo(e1.getValue());
+            }
+        });
+        for(int i = 0; assigned < shared; i = (i + 1) % byDemand.size(), assigned++){
+            Stage stage = byDemand.get(i).getKey();
+            workers.put(stage, workers.get(stage) + 1);
+        }
+        for(Entry<Stage,Integer> entry : workers.entrySet()){
+            entry.getKey().setWorkers(entry.getValue());
+        }
+        if(log.isDebugEnabled()){
+            log.debug("Rebalanced stages of language {}: {}", language, getWorkers());
+        }
+    }
+
+    /**
+     * @return the current number of workers by stage
+     */
+    public Map<String,Integer> getWorkers(){
+        Map<String,Integer> workers = new LinkedHashMap<String,Integer>();
+        for(Entry<String,Stage> entry : stages.entrySet()){
+            workers.put(entry.getKey(), entry.getValue().executor.getCorePoolSize());
+        }
+        return Collections.unmodifiableMap(workers);
+    }
+
+    /**
+     * @return the number of documents currently in the stages (queued and
+     * processed)
+     */
+    public Map<String,Integer> getDocuments(){
+        Map<String,Integer> documents = new LinkedHashMap<String,Integer>();
+        for(Entry<String,Stage> entry : stages.entrySet()){
+            documents.put(entry.getKey(), entry.getValue().documents.get());
+        }
+        return Collections.unmodifiableMap(documents);
+    }
+
+    /**
+     * Stops the workers of all stages. Queued documents are still processed.
+     */
+    public void close(){
+        for(Stage stage : stages.values()){
+            stage.executor.shutdown();
+        }
+    }
+
+    private static final class Stage {
+
+        final ThreadPoolExecutor executor;
+        final Semaphore permits;
+        final AtomicInteger documents = new AtomicInteger();
+        /**
+         * The processing time in nanoseconds since the last rebalance
+         */
+        final AtomicLong busy = new AtomicLong();
+
+        Stage(final String name, int workers, int capacity){
+            executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, name + "-stage-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            permits = new Semaphore(capacity);
+        }
+
+        void dispatch(final Job job){
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while waiting for a stage");
+            }
+            documents.incrementAndGet();
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        long start = System.nanoTime();
+                        try {
+                            job.process();
+                        } finally {
+                            busy.addAndGet(System.nanoTime() - start);
+                            documents.decrementAndGet();
+                            permits.release();
+                        }
+                        job.next();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                documents.decrementAndGet();
+                permits.release();
+                throw new IllegalStateException("Stage already closed", e);
+            }
+        }
+
+        synchronized void setWorkers(int workers){
+            if(workers > executor.getMaximumPoolSize()){
+                executor.setMaximumPoolSize(workers);
+                executor.setCorePoolSize(workers);
+            } else if(workers < executor.getCorePoolSize()){
+                executor.setCorePoolSize(workers);
+                executor.setMaximumPoolSize(workers);
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed size thread pool that serves cheaper texts first instead of using a
+ * FIFO queue.
+ * <p>
+ * Tasks {@link #submit(Callable, double, boolean) submitted} with an estimated
+ * cost are ordered by
+ * <code>enqueue time + cost * {@link #setCostWeight(double) cost weight}
+ * [+ {@link #setBulkDelay(long) bulk delay}]</code> (all in milliseconds).
+ * Short texts therefore overtake long ones (shortest job first) while the
+ * enqueue time ages waiting tasks: a task is served at the latest after
+ * tasks enqueued later with a lower key, which prevents starvation. Tasks of
+ * the bulk lane are delayed by the bulk delay so that interactive requests
+ * are preferred. Other tasks are served in FIFO order with a cost of zero.
+ *
+ * @author Rupert Westenthaler
+ *
+ */
+public class PriorityExecutor extends ThreadPoolExecutor {
+
+    public static final double DEFAULT_COST_WEIGHT = 1;
+    public static final long DEFAULT_BULK_DELAY = 30000;
+
+    private volatile double costWeight = DEFAULT_COST_WEIGHT;
+    private volatile long bulkDelay = DEFAULT_BULK_DELAY;
+    /**
+     * Used to keep the FIFO order of tasks with the same key
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * @param threads the number of threads
+     */
+    public PriorityExecutor(int threads) {
+        super(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<Runnable>(), Executors.defaultThreadFactory());
+    }
+
+    /**
+     * @param costWeight the weight of the estimated cost relative to the time
+     * a task is queued. Higher values prefer cheap tasks, lower values prefer
+     * FIFO order.
+     */
+    public void setCostWeight(double costWeight) {
+        if(costWeight < 0){
+            throw new IllegalArgumentException("The cost weight MUST NOT be negative!");
+        }
+        this.costWeight = costWeight;
+    }
+
+    /**
+     * @param bulkDelay the time in milliseconds bulk tasks are delayed
+     * relative to interactive ones
+     */
+    public void setBulkDelay(long bulkDelay) {
+        if(bulkDelay < 0){
+            throw new IllegalArgumentException("The bulk delay MUST NOT be negative!");
+        }
+        this.bulkDelay = bulkDelay;
+    }
+
+    /**
+     * Submits a task with the parsed estimated cost
+     * @param task the task
+     * @param cost the estimated processing time in milliseconds
+     * @param bulk if the task belongs to the bulk lane
+     * @return the future
+     */
+    public <T> Future<T> submit(Callable<T> task, double cost, boolean bulk){
+        if(task == null){
+            throw new NullPointerException();
+        }
+        long key = System.currentTimeMillis() + Math.round(cost * costWeight) +
+                (bulk ? bulkDelay : 0);
+        PriorityTask<T> ftask = new PriorityTask<T>(task, key, sequence.incrementAndGet());
+        execute(ftask);
+        return ftask;
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new PriorityTask<T>(callable, System.currentTimeMillis(), sequence.incrementAndGet());
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new PriorityTask<T>(Executors.callable(runnable, value),
+            System.currentTimeMillis(), sequence.incrementAndGet());
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if(command instanceof PriorityTask<?>){
+            super.execute(command);
+        } else { //the queue only accepts prioritised tasks
+            super.execute(newTaskFor(command, null));
+        }
+    }
+
+    private static final class PriorityTask<T> extends FutureTask<T>
+            implements Comparable<PriorityTask<?>> {
+
+        private final long key;
+        private final long seq;
+
+        PriorityTask(Callable<T> callable, long key, long seq) {
+            super(callable);
+            this.key = key;
+            this.seq = seq;
+        }
+
+        @Override
+        public int compareTo(PriorityTask<?> o) {
+            if(key != o.key){
+                return key < o.key ? -1 : 1;
+            }
+            return seq < o.seq ? -1 : seq == o.seq ? 0 : 1;
+        }
+    }
+}
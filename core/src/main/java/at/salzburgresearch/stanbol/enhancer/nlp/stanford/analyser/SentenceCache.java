@@ -0,0 +1,478 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.impl.BudgetedParserAnnotator.FallbackAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.CharacterOffsetBeginAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.CharacterOffsetEndAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.CopyAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.PartOfSpeechAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.SentencesAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.TokensAnnotation;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.ling.IndexedWord;
+import edu.stanford.nlp.ling.Label;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.Annotator;
+import edu.stanford.nlp.semgraph.SemanticGraph;
+import edu.stanford.nlp.semgraph.SemanticGraphEdge;
+import edu.stanford.nlp.trees.GrammaticalRelation;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.util.CoreMap;
+
+/**
+ * Bounded cache for the sentence level annotations of expensive annotators
+ * (<code>parse</code> and <code>sentiment</code>). Texts often contain
+ * sentences already processed before (boilerplate, signatures, retweets,
+ * syndicated paragraphs ...).
+ * <p>
+ * Entries are keyed by the name of the annotator and the words and POS tags
+ * of the sentence and hold the annotations the annotator added to the
+ * sentence. Parse trees are copied when added and when retrieved so that later
+ * annotators can not modify cached values. The character offsets of the
+ * leaves of cached trees are set to the offsets of the tokens of the current
+ * sentence. Dependency graphs are stored by the indexes of their words and
+ * rebuilt on the tokens of the current sentence. Sentences parsed by the fallback of
+ * the {@link at.salzburgresearch.stanbol.enhancer.nlp.stanford.impl.BudgetedParserAnnotator}
+ * are not cached.
+ * <p>
+ * The least recently used entries are evicted if the configured number of
+ * entries is exceeded. The {@link #getEstimatedBytes() memory} used by the
+ * cache is estimated based on the number of tokens, tree nodes and
+ * dependencies of the cached sentences.
+ * <p>
+ * Enabled by the '<code>sentenceCache.size</code>' property of the pipeline
+ * configuration.
+ *
+ * @author Rupert Westenthaler
+ *
+ */
+public class SentenceCache {
+
+    /**
+     * The maximum number of cached sentences. '<code>0</code>' (default)
+     * deactivates the cache
+     */
+    public static final String SIZE_PROPERTY = "sentenceCache.size";
+    /**
+     * The annotators using the cache (comma separated). Default:
+     * <code>parse,sentiment</code>
+     */
+    public static final String ANNOTATORS_PROPERTY = "sentenceCache.annotators";
+    public static final String DEFAULT_ANNOTATORS = "parse,sentiment";
+    /**
+     * The estimated memory used by the annotations of a token
+     */
+    private static final int BYTES_PER_TOKEN = 512;
+    /**
+     * The estimated overhead of an entry
+     */
+    private static final int BYTES_PER_ENTRY = 128;
+    /**
+     * The estimated memory used by a node of a cached parse tree (including
+     * its label)
+     */
+    private static final int BYTES_PER_TREE_NODE = 256;
+    /**
+     * The estimated memory used by a word or dependency of a cached graph
+     */
+    private static final int BYTES_PER_GRAPH_ELEMENT = 32;
+
+    private final int maxSize;
+    private final Map<String,Entry> entries;
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxSize the maximum number of cached sentences
+     */
+    public SentenceCache(int maxSize) {
+        if(maxSize < 1){
+            throw new IllegalArgumentException("The maximum size MUST BE > 0 (parsed: "
+                + maxSize + ")!");
+        }
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<String,Entry>(16, 0.75f, true);
+    }
+
+    /**
+     * Wraps the parsed annotator so that it uses this cache
+     * @param name the name of the annotator
+     * @param annotator the annotator
+     * @return the wrapped annotator
+     */
+    public Annotator wrap(String name, Annotator annotator){
+        return new CachingAnnotator(name, annotator);
+    }
+
+    /**
+     * Applies cached annotations to the parsed sentence
+     * @return <code>true</code> on a cache hit
+     */
+    boolean apply(String key, CoreMap sentence){
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if(entry == null){
+            misses.incrementAndGet();
+            return false;
+        }
+        hits.incrementAndGet();
+        List<CoreLabel> tokens = sentence.get(TokensAnnotation.class);
+        for(Map.Entry<Class<?>,Object> annotation : entry.annotations.entrySet()){
+            set(sentence, annotation.getKey(), copy(annotation.getValue(), tokens));
+        }
+        return true;
+    }
+
+    /**
+     * Adds the parsed annotations of a sentence to the cache
+     */
+    void put(String key, Map<Class<?>,Object> annotations, int tokens){
+        Map<Class<?>,Object> copies = new IdentityHashMap<Class<?>,Object>(annotations.size());
+        long size = BYTES_PER_ENTRY + 2L * key.length() + (long)tokens * BYTES_PER_TOKEN;
+        for(Map.Entry<Class<?>,Object> annotation : annotations.entrySet()){
+            Object value = annotation.getValue();
+            if(value instanceof SemanticGraph){
+                CachedGraph graph;
+                try {
+                    graph = new CachedGraph((SemanticGraph)value);
+                } catch (IllegalStateException e) {
+                    return; //inconsistent graph ... do not cache
+                }
+                size += (long)graph.size() * BYTES_PER_GRAPH_ELEMENT;
+                copies.put(annotation.getKey(), graph);
+            } else {
+                if(value instanceof Tree){
+                    size += (long)((Tree)value).size() * BYTES_PER_TREE_NODE;
+                }
+                copies.put(annotation.getKey(), copy(value, null));
+            }
+        }
+        Entry entry = new Entry(copies, size);
+        synchronized (entries) {
+            Entry old = entries.put(key, entry);
+            bytes += entry.bytes - (old == null ? 0 : old.bytes);
+            while(entries.size() > maxSize){
+                Iterator<Entry> it = entries.values().iterator();
+                bytes -= it.next().bytes;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the number of sentences for that cached annotations were used
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of sentences processed by the annotators
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the share of sentences for that cached annotations were used
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double)h / total;
+    }
+
+    /**
+     * @return the number of cached sentences
+     */
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the maximum number of cached sentences
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the estimated memory used by the cache in bytes
+     */
+    public long getEstimatedBytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    /**
+     * The key for a sentence: the name of the annotator followed by the words
+     * and POS tags of the tokens
+     */
+    static String key(String name, CoreMap sentence){
+        List<CoreLabel> tokens = sentence.get(TokensAnnotation.class);
+        if(tokens == null){
+            return null;
+        }
+        StringBuilder key = new StringBuilder(name).append(':');
+        for(CoreLabel token : tokens){
+            key.append(token.word()).append('/').append(token.get(PartOfSpeechAnnotation.class))
+                .append(' ');
+        }
+        return key.toString();
+    }
+
+    /**
+     * Copies mutable values. For trees the offsets of the leaves are set to
+     * the parsed tokens (if not <code>null</code>). Dependency graphs are
+     * rebuilt on the parsed tokens.
+     */
+    private static Object copy(Object value, List<CoreLabel> tokens){
+        if(value instanceof Tree){
+            Tree tree = ((Tree)value).deepCopy();
+            if(tokens != null){
+                List<Tree> leaves = tree.getLeaves();
+                if(leaves.size() == tokens.size()){
+                    for(int i = 0; i < leaves.size(); i++){
+                        Label label = leaves.get(i).label();
+                        if(label instanceof CoreLabel){
+                            CoreLabel token = tokens.get(i);
+                            ((CoreLabel)label).set(CharacterOffsetBeginAnnotation.class,
+                                token.get(CharacterOffsetBeginAnnotation.class));
+                            ((CoreLabel)label).set(CharacterOffsetEndAnnotation.class,
+                                token.get(CharacterOffsetEndAnnotation.class));
+                        }
+                    }
+                }
+            }
+            return tree;
+        } else if(value instanceof CachedGraph){
+            return ((CachedGraph)value).create(tokens);
+        } else {
+            return value;
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static void set(CoreMap map, Class key, Object value){
+        map.set(key, value);
+    }
+
+    /**
+     * A dependency graph stored by the indexes of its words so that it can be
+     * rebuilt on the tokens of an other sentence with the same words. Copies
+     * of words (added for collapsed dependencies) keep their copy count.
+     */
+    private static final class CachedGraph {
+
+        /**
+         * The index (1-based) and copy count of the words
+         */
+        private final int[] indexes;
+        private final int[] copies;
+        /**
+         * The dependencies: the positions of governor and dependent in
+         * {@link #indexes}
+         */
+        private final int[] governors;
+        private final int[] dependents;
+        private final GrammaticalRelation[] relations;
+        private final double[] weights;
+        private final boolean[] extras;
+        private final int[] roots;
+
+        CachedGraph(SemanticGraph graph){
+            //copies may be equal to the word they copy so use the identity
+            Map<IndexedWord,Integer> positions = new IdentityHashMap<IndexedWord,Integer>();
+            List<IndexedWord> words = new ArrayList<IndexedWord>(graph.vertexSet());
+            indexes = new int[words.size()];
+            copies = new int[words.size()];
+            for(int i = 0; i < words.size(); i++){
+                IndexedWord word = words.get(i);
+                positions.put(word, i);
+                indexes[i] = word.index();
+                Integer copy = word.get(CopyAnnotation.class);
+                copies[i] = copy == null ? 0 : copy;
+            }
+            List<SemanticGraphEdge> edges = new ArrayList<SemanticGraphEdge>();
+            for(SemanticGraphEdge edge : graph.edgeIterable()){
+                edges.add(edge);
+            }
+            governors = new int[edges.size()];
+            dependents = new int[edges.size()];
+            relations = new GrammaticalRelation[edges.size()];
+            weights = new double[edges.size()];
+            extras = new boolean[edges.size()];
+            for(int i = 0; i < edges.size(); i++){
+                SemanticGraphEdge edge = edges.get(i);
+                governors[i] = position(positions, edge.getGovernor());
+                dependents[i] = position(positions, edge.getDependent());
+                relations[i] = edge.getRelation();
+                weights[i] = edge.getWeight();
+                extras[i] = edge.isExtra();
+            }
+            Collection<IndexedWord> graphRoots = graph.getRoots();
+            roots = new int[graphRoots.size()];
+            int i = 0;
+            for(IndexedWord root : graphRoots){
+                roots[i++] = position(positions, root);
+            }
+        }
+
+        /**
+         * @return the position of the parsed word. Falls back to an equal
+         * word if the parsed instance is not a vertex of the graph
+         */
+        private static int position(Map<IndexedWord,Integer> positions, IndexedWord word){
+            Integer position = positions.get(word);
+            if(position == null){
+                for(Map.Entry<IndexedWord,Integer> entry : positions.entrySet()){
+                    if(entry.getKey().equals(word)){
+                        return entry.getValue();
+                    }
+                }
+                throw new IllegalStateException("Word " + word + " is not part of the graph");
+            }
+            return position;
+        }
+
+        /**
+         * @return the number of words and dependencies
+         */
+        int size(){
+            return indexes.length + governors.length;
+        }
+
+        /**
+         * Creates the graph on the parsed tokens
+         * @param tokens the tokens of the sentence
+         * @return the graph
+         */
+        SemanticGraph create(List<CoreLabel> tokens){
+            SemanticGraph graph = new SemanticGraph();
+            IndexedWord[] words = new IndexedWord[indexes.length];
+            for(int i = 0; i < indexes.length; i++){
+                CoreLabel token = tokens.get(indexes[i] - 1);
+                if(copies[i] > 0){ //copies are own labels
+                    token = new CoreLabel(token);
+                    token.set(CopyAnnotation.class, copies[i]);
+                }
+                words[i] = new IndexedWord(token);
+                graph.addVertex(words[i]);
+            }
+            for(int i = 0; i < governors.length; i++){
+                graph.addEdge(words[governors[i]], words[dependents[i]], relations[i],
+                    weights[i], extras[i]);
+            }
+            List<IndexedWord> graphRoots = new ArrayList<IndexedWord>(roots.length);
+            for(int root : roots){
+                graphRoots.add(words[root]);
+            }
+            graph.setRoots(graphRoots);
+            return graph;
+        }
+    }
+
+    private static final class Entry {
+
+        final Map<Class<?>,Object> annotations;
+        final long bytes;
+
+        Entry(Map<Class<?>,Object> annotations, long bytes){
+            this.annotations = annotations;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Uses cached annotations for known sentences and runs the annotator for
+     * the others.
+     */
+    private final class CachingAnnotator implements Annotator {
+
+        private final String name;
+        private final Annotator annotator;
+
+        CachingAnnotator(String name, Annotator annotator){
+            this.name = name;
+            this.annotator = annotator;
+        }
+
+        @Override
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        public void annotate(Annotation annotation) {
+            List<CoreMap> sentences = annotation.get(SentencesAnnotation.class);
+            if(sentences == null){
+                annotator.annotate(annotation);
+                return;
+            }
+            List<CoreMap> missed = new ArrayList<CoreMap>();
+            List<String> keys = new ArrayList<String>();
+            for(CoreMap sentence : sentences){
+                String key = key(name, sentence);
+                if(key == null || !apply(key, sentence)){
+                    missed.add(sentence);
+                    keys.add(key);
+                }
+            }
+            if(missed.isEmpty()){
+                return;
+            }
+            //the annotations of the sentences before processing
+            List<Map<Class<?>,Object>> before = new ArrayList<Map<Class<?>,Object>>(missed.size());
+            for(CoreMap sentence : missed){
+                Map<Class<?>,Object> values = new IdentityHashMap<Class<?>,Object>();
+                for(Class key : sentence.keySet()){
+                    values.put(key, sentence.get(key));
+                }
+                before.add(values);
+            }
+            if(missed.size() == sentences.size()){
+                annotator.annotate(annotation);
+            } else {
+                Annotation view = new Annotation(annotation);
+                view.set(SentencesAnnotation.class, missed);
+                annotator.annotate(view);
+            }
+            for(int i = 0; i < missed.size(); i++){
+                CoreMap sentence = missed.get(i);
+                if(keys.get(i) == null || Boolean.TRUE.equals(sentence.get(FallbackAnnotation.class))){
+                    continue; //do not cache
+                }
+                Map<Class<?>,Object> added = new IdentityHashMap<Class<?>,Object>();
+                for(Class key : sentence.keySet()){
+                    Object value = sentence.get(key);
+                    if(before.get(i).get(key) != value){
+                        added.put(key, value);
+                    }
+                }
+                put(keys.get(i), added, sentence.get(TokensAnnotation.class).size());
+            }
+        }
+
+        @Override
+        public Set<Requirement> requirementsSatisfied() {
+            return annotator.requirementsSatisfied();
+        }
+
+        @Override
+        public Set<Requirement> requires() {
+            return annotator.requires();
+        }
+    }
+}
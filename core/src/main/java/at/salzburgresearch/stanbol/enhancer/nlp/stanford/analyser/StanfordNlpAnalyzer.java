@@ -9,19 +9,31 @@ import static org.apache.stanbol.enhancer.nlp.NlpAnnotations.SENTIMENT_ANNOTATIO
 
 import java.io.IOException;
 import java.lang.reflect.Array;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.stanbol.enhancer.nlp.NlpAnnotations;
 import org.apache.stanbol.enhancer.nlp.coref.CorefFeature;
@@ -77,8 +89,46 @@ public class StanfordNlpAnalyzer {
 
     private TagSetRegistry tagSetRegistry;
 
-    private final Map<String,AnnotationPipeline> pipelines = new HashMap<String,AnnotationPipeline>();
-    private Collection<String> supported = Collections.emptyList();
+    /**
+     * Pipelines are replaced at runtime (e.g. on configuration changes) while
+     * requests are processed. Updates are synchronized on this map.
+     */
+    private final Map<String,AnnotationPipeline> pipelines = new ConcurrentHashMap<String,AnnotationPipeline>();
+    private volatile Collection<String> supported = Collections.emptyList();
+    
+    private volatile boolean ready = false;
+    
+    private volatile OverloadPolicy overloadPolicy;
+    
+    private volatile AdmissionController admissionController;
+    
+    private volatile ConcurrencyLimiter concurrencyLimiter;
+    
+    /**
+     * Estimates the processing time of texts. Used to schedule texts if the
+     * executor is a {@link PriorityExecutor}.
+     */
+    private final CostModel costModel = new CostModel();
+    
+    private volatile boolean coalescing = false;
+    /**
+     * Texts currently processed by '<code>{lang}|{layers}|{sha1}</code>'
+     */
+    private final ConcurrentMap<String,Flight> flights = new ConcurrentHashMap<String,Flight>();
+    private final AtomicLong coalesced = new AtomicLong();
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    /**
+     * Interval in milliseconds used to check the deadline and the connection
+     * of the client while waiting for the results of an analysis
+     */
+    private static final long POLL_INTERVAL = 50;
+    /**
+     * Time in milliseconds after the deadline the analyser waits for a
+     * partial result
+     */
+    private static final long PARTIAL_RESULT_GRACE = 1000;
     
     public StanfordNlpAnalyzer(ExecutorService executor, AnalysedTextFactory atf) {
         this.executor = executor;
@@ -86,7 +136,10 @@ public class StanfordNlpAnalyzer {
         this.tagSetRegistry = TagSetRegistry.getInstance();
     }
     /**
-     * Sets the {@link AnnotationPipeline} for a language
+     * Sets the {@link AnnotationPipeline} for a language. If the replaced
+     * pipeline is a {@link LangPipeline} it is {@link LangPipeline#close() closed}.
+     * The replacement is atomic: new requests use the parsed pipeline while
+     * in-flight requests complete with the replaced one.
      * @param language the language
      * @param pipeline the pipeline
      * @return the old pipeline for this language or <code>null</code> if none
@@ -98,14 +151,144 @@ public class StanfordNlpAnalyzer {
         if(pipeline == null){
             throw new IllegalArgumentException("The parsed annotation pipeline MUST NOT be NULL!");
         }
-        AnnotationPipeline old = pipelines.put(language.toLowerCase(Locale.ROOT), pipeline);
-        if(old == null){
-            List<String> supported = new ArrayList<String>(pipelines.keySet());
-            Collections.sort(supported);
-            this.supported = Collections.unmodifiableCollection(supported);
-        } //language was already present ... no need to update supported
+        AnnotationPipeline old;
+        synchronized (pipelines) {
+            old = pipelines.put(language.toLowerCase(Locale.ROOT), pipeline);
+            if(old == null){
+                List<String> supported = new ArrayList<String>(pipelines.keySet());
+                Collections.sort(supported);
+                this.supported = Collections.unmodifiableCollection(supported);
+            } //else language was already present ... no need to update supported
+        }
+        if(old != null && old != pipeline && old instanceof LangPipeline){
+            ((LangPipeline)old).close();
+        }
+        return old;
+    }
+    /**
+     * Removes the {@link AnnotationPipeline} for a language. If the removed
+     * pipeline is a {@link LangPipeline} it is {@link LangPipeline#close() closed}
+     * so that annotators no longer used by other pipelines are unloaded.
+     * @param language the language
+     * @return the removed pipeline or <code>null</code> if none
+     */
+    public AnnotationPipeline removePipeline(String language){
+        if(language == null || language.isEmpty()){
+            throw new IllegalArgumentException("The parsed language MUST NOT be NULL nor empty!");
+        }
+        AnnotationPipeline old;
+        synchronized (pipelines) {
+            old = pipelines.remove(language.toLowerCase(Locale.ROOT));
+            if(old != null){
+                List<String> supported = new ArrayList<String>(pipelines.keySet());
+                Collections.sort(supported);
+                this.supported = Collections.unmodifiableCollection(supported);
+            }
+        }
+        if(old instanceof LangPipeline){
+            ((LangPipeline)old).close();
+        }
         return old;
     }
+    /**
+     * If this analyser is ready to process requests. This is intended to be
+     * set after all pipelines are initialised and warmed up.
+     * @return the ready state
+     */
+    public boolean isReady() {
+        return ready;
+    }
+    /**
+     * Setter for the ready state
+     * @param ready the state
+     * @see #isReady()
+     */
+    public void setReady(boolean ready) {
+        this.ready = ready;
+    }
+    /**
+     * Setter for the policy used to skip optional annotators on overload
+     * @param overloadPolicy the policy or <code>null</code> to always use all
+     * annotators
+     */
+    public void setOverloadPolicy(OverloadPolicy overloadPolicy) {
+        this.overloadPolicy = overloadPolicy;
+    }
+    
+    public OverloadPolicy getOverloadPolicy() {
+        return overloadPolicy;
+    }
+    /**
+     * Setter for the admission control used to bound the queue of texts
+     * waiting for an analysis thread
+     * @param admissionController the admission controller or <code>null</code>
+     * for an unbounded queue
+     */
+    public void setAdmissionController(AdmissionController admissionController) {
+        this.admissionController = admissionController;
+    }
+    
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+    /**
+     * Setter for the adaptive limit of concurrently processed texts. The 
+     * maximum of the limiter SHOULD NOT exceed the number of threads of the
+     * executor.
+     * @param concurrencyLimiter the limiter or <code>null</code> to process
+     * texts with all threads of the executor
+     */
+    public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+    
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+    /**
+     * If enabled identical requests (same language, text and layers) processed
+     * concurrently share a single analysis. Requests with 
+     * {@link AnalysisContext#setPartialResults(boolean) partial results} are
+     * always processed on their own. The shared analysis is only cancelled
+     * if all requests waiting for it have given up (e.g. because of their
+     * deadline or a disconnected client). Disabled by default.
+     * @param coalescing the state
+     */
+    public void setCoalescing(boolean coalescing) {
+        this.coalescing = coalescing;
+    }
+    
+    public boolean isCoalescing() {
+        return coalescing;
+    }
+    /**
+     * @return the number of requests that used the result of an identical
+     * request
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+    /**
+     * @return the number of requests currently waiting for the analysis of
+     * a text shared by identical requests (including the requests that
+     * started the analyses)
+     */
+    public int getWaitingRequests() {
+        int waiting = 0;
+        for(Flight flight : flights.values()){
+            waiting += flight.getWaiters();
+        }
+        return waiting;
+    }
+    /**
+     * The model used to estimate the processing time of texts. If the executor
+     * is a {@link PriorityExecutor} texts with lower estimates are processed
+     * first.
+     * @return the cost model
+     */
+    public CostModel getCostModel() {
+        return costModel;
+    }
     /**
      * Getter for the Pipeline of a specific language
      * @param lang the language
@@ -136,6 +319,44 @@ public class StanfordNlpAnalyzer {
     }
 
     public AnalysedText analyse(String lang, Blob blob) throws IOException {
+        return analyse(lang, blob, new AnalysisContext());
+    }
+    
+    /**
+     * Analyses the parsed text by using only the annotators needed for the
+     * requested layers.
+     * @param lang the language
+     * @param blob the text
+     * @param layers the names of the requested annotators (e.g. '<code>pos</code>',
+     * '<code>ner</code>') or <code>null</code> to use all annotators of the
+     * pipeline. Annotators required by the requested ones are added.
+     * @return the analysed text
+     * @throws IOException on any error while reading the text
+     * @throws IllegalArgumentException if the language or a layer is not supported
+     * @see LangPipeline#resolveAnnotators(Collection)
+     */
+    public AnalysedText analyse(String lang, Blob blob, Collection<String> layers) throws IOException {
+        return analyse(lang, blob, new AnalysisContext(layers));
+    }
+    
+    /**
+     * Analyses the parsed text by using the options of the parsed context. 
+     * After the call the context provides information about 
+     * {@link AnalysisContext#getSkipped() skipped} annotators.
+     * @param lang the language
+     * @param blob the text
+     * @param context the context of the request
+     * @return the analysed text
+     * @throws IOException on any error while reading the text
+     * @throws IllegalArgumentException if the language or a requested layer 
+     * is not supported
+     * @throws AnalysisRejectedException if the request is rejected by the
+     * {@link #setAdmissionController(AdmissionController) admission control}
+     */
+    public AnalysedText analyse(String lang, Blob blob, final AnalysisContext context) throws IOException {
+        if(context == null){
+            throw new IllegalArgumentException("The parsed AnalysisContext MUST NOT be NULL!");
+        }
         if(lang == null || lang.isEmpty()){
             throw new IllegalStateException("The parsed Language MUST NOT be NULL nor empty!");
         }
@@ -143,44 +364,38 @@ public class StanfordNlpAnalyzer {
         if(blob == null){
             throw new IllegalStateException("The parsed Blob MUST NOT be NULL!");
         }
-        final AnnotationPipeline pipeline = pipelines.get(lang);
-        if(pipeline == null){
-            throw new IllegalArgumentException("The parsed language '" + lang
-                + "'is not supported (supported: " + supported+ ")!");
-        }
         // create an empty Annotation just with the given text
         final AnalysedText at = analysedTextFactory.createAnalysedText(blob);
+        // run all Annotators on this text
+        Annotation document = null;
+        String key = coalescing && !context.isPartialResults() ? 
+                getFlightKey(lang, context, at.getSpan()) : null;
+        if(key != null){
+            Flight flight = flights.get(key);
+            if(flight != null){ //an identical text is already processed
+                document = follow(flight, context, lang);
+            }
+        }
+        if(document == null){
+            document = process(lang, at, context, key);
+        }
         TagSet<PosTag> posTagSet = tagSetRegistry.getPosTagSet(lang);
         Map<String,PosTag> adhocPosTags = tagSetRegistry.getAdhocPosTagMap(lang);
         TagSet<NerTag> nerTagSet = tagSetRegistry.getNerTagSet(lang);
         Map<String,NerTag> adhocNerTags = tagSetRegistry.getAdhocNerTagMap(lang);
         TagSet<GrammaticalRelationTag> gramRelationTagSet = 
             tagSetRegistry.getGrammaticalRelationTagSet(lang);
-        // run all Annotators on this text
-        Annotation document;
-        try { //process the text using the executor service
-            document = executor.submit(new Callable<Annotation>() {
-
-                @Override
-                public Annotation call() throws Exception {
-                    Annotation document = new Annotation(at.getSpan());
-                    pipeline.annotate(document);
-                    return document;
-                }
-                
-            }).get(); //and wait for the results
-        } catch (InterruptedException e) {
-            throw new IllegalStateException("Interupped while processing text",e);
-        } catch (ExecutionException e) {
-            Throwable cause = e.getCause();
-            throw new IllegalStateException(cause.getClass().getSimpleName() +
-                "Exception while procesing an '"+lang+"' language text (message: "
-                + cause.getMessage() + ")!",cause);
+        if(context.isDegraded()){
+            log.debug(" - degraded analysis of '{}' language text (skipped: {})",
+                lang, context.getSkipped());
         }
 
         // these are all the sentences in this document
         // a CoreMap is essentially a Map that uses class objects as keys and has values with custom types
         List<CoreMap> sentences = document.get(SentencesAnnotation.class);
+        if(sentences == null){ //partial result stopped before sentence detection
+            sentences = Collections.emptyList();
+        }
         
         //lazily initialized when we need to process sentiment annotations
         SentimentClassMapping sentClassMapping = null;
@@ -347,6 +562,441 @@ public class StanfordNlpAnalyzer {
         return at;
     }
 
+    /**
+     * Processes the text by using the executor. If a key is parsed the
+     * processing is registered so that identical requests can 
+     * {@link #follow(Flight, AnalysisContext, String) follow} it.
+     * @param lang the language
+     * @param at the text
+     * @param context the context of the request
+     * @param key the key used to register the processing or <code>null</code>
+     * @return the annotated document
+     */
+    private Annotation process(String lang, final AnalysedText at, final AnalysisContext context, 
+            String key){
+        final Admission admission = admit(at.getSpan().length());
+        final AnnotationPipeline pipeline;
+        try {
+            pipeline = acquirePipeline(lang);
+        } catch (RuntimeException e) {
+            admission.dequeued();
+            throw e;
+        }
+        final OverloadPolicy policy = overloadPolicy;
+        //a processing that can be shared with identical requests does not use
+        //the context of this request. Otherwise its deadline, client probe or
+        //cancellation would also stop the processing for the other requests.
+        final AnalysisContext processing = key == null ? context : context.fork();
+        boolean counted = false;
+        try {
+            Collection<String> annotators;
+            if(context.getLayers() != null){
+                if(!(pipeline instanceof LangPipeline)){
+                    throw new IllegalArgumentException("The pipeline for language '"
+                        + lang + "' does not support the selection of layers!");
+                }
+                annotators = ((LangPipeline)pipeline).resolveAnnotators(context.getLayers());
+            } else {
+                annotators = null;
+            }
+            boolean shedOptional = false;
+            if(policy != null){
+                shedOptional = policy.requestStarted();
+                counted = true;
+            }
+            processing.init(lang, annotators, policy, shedOptional);
+        } catch (RuntimeException e) {
+            if(counted){
+                policy.requestAborted();
+            }
+            admission.dequeued();
+            releasePipeline(pipeline);
+            throw e;
+        }
+        final long start = System.currentTimeMillis();
+        final Flight flight = new Flight(admission, pipeline, processing);
+        final AtomicBoolean started = flight.started;
+        final ConcurrencyLimiter limiter = concurrencyLimiter;
+        try { //process the text using the executor service
+            Callable<Annotation> analysis = new Callable<Annotation>() {
+
+                @Override
+                public Annotation call() throws Exception {
+                    if(!started.compareAndSet(false, true)){
+                        return null; //cancelled
+                    }
+                    try {
+                        try { //wait for the concurrency limit
+                            if(limiter != null){
+                                limiter.acquire();
+                            }
+                        } finally {
+                            admission.dequeued();
+                        }
+                        long begin = System.nanoTime();
+                        //only full analyses are used to adapt the limit
+                        int sampleChars = 0;
+                        try {
+                            Annotation document = new Annotation(at.getSpan());
+                            if(pipeline instanceof LangPipeline){
+                                ((LangPipeline)pipeline).annotate(document, processing);
+                            } else {
+                                pipeline.annotate(document);
+                            }
+                            if(!processing.isDegraded()){
+                                costModel.record(processing.getLanguage(), processing.getAnnotators(),
+                                    at.getSpan().length(), System.nanoTime() - begin);
+                                if(processing.getLayers() == null){
+                                    sampleChars = at.getSpan().length();
+                                }
+                            }
+                            return document;
+                        } finally {
+                            if(limiter != null){
+                                limiter.release(System.nanoTime() - begin, sampleChars);
+                            }
+                        }
+                    } finally {
+                        releasePipeline(pipeline);
+                    }
+                }
+                
+            };
+            if(pipeline instanceof LangPipeline && ((LangPipeline)pipeline).getStages() != null){
+                flight.task = submitStaged((LangPipeline)pipeline, at, processing, admission, started);
+            } else if(executor instanceof PriorityExecutor){ //cheap and interactive texts first
+                flight.task = ((PriorityExecutor)executor).submit(analysis, 
+                    costModel.estimate(lang, processing.getAnnotators(), at.getSpan().length()),
+                    context.getPriority() == AnalysisContext.Priority.BULK);
+            } else {
+                flight.task = executor.submit(analysis);
+            }
+            if(key != null && flights.putIfAbsent(key, flight) != null){
+                key = null; //registered concurrently for an other request
+            }
+            Annotation document = await(flight.task, context, lang); //and wait for the results
+            if(processing != context && document != null){
+                context.completed(processing);
+            }
+            return document;
+        } catch (RejectedExecutionException e) {
+            started.set(true);
+            admission.dequeued();
+            releasePipeline(pipeline);
+            throw e;
+        } catch (InterruptedException e) {
+            leave(flight);
+            throw new IllegalStateException("Interupped while processing text",e);
+        } catch (RuntimeException e) { //timeout or cancellation
+            leave(flight);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof AnalysisTimeoutException){
+                throw (AnalysisTimeoutException)cause;
+            } else if(cause instanceof CancellationException){
+                throw (CancellationException)cause;
+            } else if(cause instanceof AnalysisRejectedException){ //circuit breaker open
+                throw (AnalysisRejectedException)cause;
+            }
+            throw new IllegalStateException(cause.getClass().getSimpleName() +
+                "Exception while procesing an '"+lang+"' language text (message: "
+                + cause.getMessage() + ")!",cause);
+        } finally {
+            if(key != null){
+                flights.remove(key, flight);
+            }
+            if(policy != null){
+                policy.requestCompleted(System.currentTimeMillis() - start);
+            }
+        }
+    }
+
+    /**
+     * Submits the text to the {@link PipelineStages stages} of the pipeline.
+     * The analyser threads are not used as the document is handed over
+     * between the workers of the stages. The concurrency limit is acquired by
+     * the calling thread and released when the document leaves the pipeline.
+     * @return the future completed with the annotated document
+     * @throws InterruptedException if interrupted while waiting for the
+     * concurrency limit
+     */
+    private Future<Annotation> submitStaged(final LangPipeline pipeline, final AnalysedText at,
+            final AnalysisContext processing, Admission admission, AtomicBoolean started) 
+                    throws InterruptedException {
+        final ConcurrencyLimiter limiter = concurrencyLimiter;
+        started.set(true); //from now on the pipeline is released by the callback
+        boolean acquired = false;
+        try {
+            if(limiter != null){
+                limiter.acquire();
+            }
+            acquired = true;
+        } finally {
+            admission.dequeued();
+            if(!acquired){
+                releasePipeline(pipeline);
+            }
+        }
+        final long begin = System.nanoTime();
+        return pipeline.submit(new Annotation(at.getSpan()), processing, new LangPipeline.Callback() {
+            
+            @Override
+            public void completed(Annotation document, Throwable error) {
+                //only full analyses are used to adapt the limit
+                int sampleChars = 0;
+                try {
+                    if(error == null && !processing.isDegraded()){
+                        costModel.record(processing.getLanguage(), processing.getAnnotators(),
+                            at.getSpan().length(), System.nanoTime() - begin);
+                        if(processing.getLayers() == null){
+                            sampleChars = at.getSpan().length();
+                        }
+                    }
+                } finally {
+                    if(limiter != null){
+                        limiter.release(System.nanoTime() - begin, sampleChars);
+                    }
+                    releasePipeline(pipeline);
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for the completion of the parsed task. For requests with a
+     * deadline or a {@link AnalysisContext.ClientProbe} the state of the
+     * request is checked every {@link #POLL_INTERVAL} milliseconds.
+     * @throws AnalysisTimeoutException if the deadline has passed
+     * @throws CancellationException if the request was cancelled or the
+     * client has disconnected
+     */
+    private Annotation await(Future<Annotation> task, AnalysisContext context, String lang) 
+            throws InterruptedException, ExecutionException {
+        if(!context.isInterruptible()){
+            return task.get();
+        }
+        while(true){
+            try {
+                return task.get(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if(context.isCancelled()){
+                    throw new CancellationException("Analysis of '" + lang 
+                        + "' language text cancelled");
+                }
+                if(!context.isClientConnected()){
+                    log.info("Cancel analysis of '{}' language text (client disconnected)", lang);
+                    context.cancel();
+                    throw new CancellationException("Client disconnected while analysing '"
+                        + lang + "' language text");
+                }
+                long deadline = context.getDeadline();
+                //for partial results the pipeline stops at the next checkpoint
+                //so give it some time to do so
+                if(deadline > 0 && System.currentTimeMillis() >= 
+                        (context.isPartialResults() ? deadline + PARTIAL_RESULT_GRACE : deadline)){
+                    context.cancel();
+                    throw new AnalysisTimeoutException("Analysis of '" + lang 
+                        + "' language text not completed before the deadline");
+                }
+            }
+        }
+    }
+    
+    /**
+     * Waits for the processing of an identical request.
+     * @param flight the processing of the identical request
+     * @param context the context of this request
+     * @param lang the language
+     * @return the shared result or <code>null</code> if this request needs to
+     * be processed on its own (e.g. because the processing of the other
+     * request was stopped by its deadline)
+     * @throws AnalysisTimeoutException if the deadline of this request has passed
+     * @throws CancellationException if this request was cancelled
+     */
+    private Annotation follow(Flight flight, AnalysisContext context, String lang){
+        if(!flight.join()){
+            return null; //cancelled by all waiting requests
+        }
+        boolean done = false;
+        try {
+            Annotation document = await(flight.task, context, lang);
+            done = true;
+            if(document == null || flight.context.isPartial()){
+                return null;
+            }
+            context.completed(flight.context);
+            coalesced.incrementAndGet();
+            return document;
+        } catch (ExecutionException e) {
+            done = true;
+            return null; //failed for the other request ... process on our own
+        } catch (InterruptedException e) {
+            throw new IllegalStateException("Interupped while processing text",e);
+        } finally {
+            if(!done){
+                leave(flight);
+            }
+        }
+    }
+    
+    /**
+     * Called if a request stops waiting for a processing. If no other request
+     * waits for it the processing is cancelled.
+     */
+    private void leave(Flight flight){
+        if(flight.leave()){
+            cancel(flight);
+        }
+    }
+    
+    /**
+     * Cancels the parsed processing. If the task has not yet started the text
+     * is removed from the queue and the pipeline is released.
+     */
+    private void cancel(Flight flight){
+        flight.context.cancel(); //stops the processing at the next checkpoint
+        Future<Annotation> task = flight.task;
+        if(task != null){
+            task.cancel(true);
+        }
+        if(flight.started.compareAndSet(false, true)){
+            flight.admission.dequeued();
+            releasePipeline(flight.pipeline);
+        }
+    }
+    
+    /**
+     * The key used to detect identical requests
+     */
+    private static String getFlightKey(String lang, AnalysisContext context, String text){
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not supported by this JVM",e);
+        }
+        StringBuilder key = new StringBuilder(lang).append('|');
+        key.append(context.getLayers() == null ? "*" : new TreeSet<String>(context.getLayers()));
+        key.append('|');
+        for(byte b : digest.digest(text.getBytes(UTF8))){
+            key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return key.toString();
+    }
+    
+    /**
+     * The processing of a text shared by identical requests
+     */
+    private static final class Flight {
+        
+        /**
+         * used to ensure that the pipeline is released if the task is 
+         * cancelled before it was started
+         */
+        final AtomicBoolean started = new AtomicBoolean();
+        final Admission admission;
+        final AnnotationPipeline pipeline;
+        final AnalysisContext context;
+        volatile Future<Annotation> task;
+        /**
+         * The number of requests waiting for the result
+         */
+        private int waiters = 1;
+        
+        Flight(Admission admission, AnnotationPipeline pipeline, AnalysisContext context){
+            this.admission = admission;
+            this.pipeline = pipeline;
+            this.context = context;
+        }
+        /**
+         * @return <code>false</code> if the processing was already cancelled
+         */
+        synchronized boolean join(){
+            if(waiters <= 0){
+                return false;
+            }
+            waiters++;
+            return true;
+        }
+        /**
+         * @return <code>true</code> if no more requests are waiting
+         */
+        synchronized boolean leave(){
+            return --waiters == 0;
+        }
+        synchronized int getWaiters(){
+            return Math.max(0, waiters);
+        }
+    }
+    
+    /**
+     * Admits a text with the parsed length to the queue of the analyser
+     * @throws AnalysisRejectedException if the text is rejected
+     */
+    private Admission admit(int chars){
+        AdmissionController controller = admissionController;
+        if(controller != null){
+            controller.admit(chars);
+        }
+        return new Admission(controller, chars);
+    }
+    
+    /**
+     * A text admitted to the queue of the analyser
+     */
+    private static final class Admission {
+        
+        private final AdmissionController controller;
+        private final int chars;
+        private final long queued = System.currentTimeMillis();
+        
+        Admission(AdmissionController controller, int chars){
+            this.controller = controller;
+            this.chars = chars;
+        }
+        /**
+         * Called when the processing starts or the request is cancelled
+         */
+        void dequeued(){
+            if(controller != null){
+                controller.dequeued(chars, System.currentTimeMillis() - queued);
+            }
+        }
+    }
+    
+    /**
+     * Getter for the pipeline used to process a request. For {@link LangPipeline}s
+     * the returned pipeline is {@link LangPipeline#acquire() acquired} and
+     * MUST BE {@link #releasePipeline(AnnotationPipeline) released} after
+     * processing.
+     * @param lang the language
+     * @return the pipeline
+     * @throws IllegalArgumentException if the language is not supported
+     */
+    private AnnotationPipeline acquirePipeline(String lang){
+        while(true){
+            AnnotationPipeline pipeline = pipelines.get(lang);
+            if(pipeline == null){
+                throw new IllegalArgumentException("The parsed language '" + lang
+                    + "'is not supported (supported: " + supported+ ")!");
+            }
+            if(!(pipeline instanceof LangPipeline) || ((LangPipeline)pipeline).acquire()){
+                return pipeline;
+            }
+            if(pipelines.get(lang) == pipeline){ //closed but not replaced
+                throw new IllegalStateException("The annotation pipeline for language '"
+                    + lang + "' is closed!");
+            } //else closed concurrently by a replacement ... try again
+        }
+    }
+    
+    private void releasePipeline(AnnotationPipeline pipeline){
+        if(pipeline instanceof LangPipeline){
+            ((LangPipeline)pipeline).release();
+        }
+    }
+
     /**
      * Add dependency tree annotations to the current token.
      * 
@@ -0,0 +1,215 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.stanbol.enhancer.servicesapi.ContentItemFactory;
+import org.apache.stanbol.enhancer.servicesapi.impl.StringSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.stanford.nlp.pipeline.Annotation;
+
+/**
+ * Warms up the annotation pipelines of a {@link StanfordNlpAnalyzer} by
+ * analysing a corpus of example texts. This ensures that classes are loaded,
+ * the JIT compiler has optimised the hot code paths and lazily initialised
+ * structures are created before the analyser receives the first request.
+ * <p>
+ * The corpus for a language is loaded from '<code>{lang}.txt</code>' in the
+ * configured corpus directory or (if not present) from the bundled
+ * '<code>warmup/{lang}.txt</code>' resource. Texts are separated by empty
+ * lines. The corpus is analysed until the time needed for an iteration
+ * stabilises or the maximum number of iterations is reached.
+ *
+ * @author Rupert Westenthaler
+ *
+ */
+public class WarmUp {
+
+    private final Logger log = LoggerFactory.getLogger(WarmUp.class);
+
+    public static final int DEFAULT_MAX_ITERATIONS = 10;
+    /**
+     * The default for the maximum relative difference of the duration of two
+     * consecutive iterations so that the latency is considered as stable.
+     */
+    public static final double DEFAULT_STABLE_DEVIATION = 0.05;
+
+    private static final String BUNDLED_CORPUS_PATH = "warmup/";
+    private static final String CORPUS_EXTENSION = ".txt";
+
+    private final ContentItemFactory cif;
+    private final File corpusDir;
+    private int maxIterations = DEFAULT_MAX_ITERATIONS;
+    private double stableDeviation = DEFAULT_STABLE_DEVIATION;
+
+    /**
+     * @param cif the content item factory used to create blobs for the texts
+     * @param corpusDir the directory with the '<code>{lang}.txt</code>' corpus
+     * files or <code>null</code> to only use the bundled corpora
+     */
+    public WarmUp(ContentItemFactory cif, File corpusDir) {
+        if(cif == null){
+            throw new IllegalArgumentException("The parsed ContentItemFactory MUST NOT be NULL!");
+        }
+        this.cif = cif;
+        this.corpusDir = corpusDir;
+    }
+
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    public void setStableDeviation(double stableDeviation) {
+        this.stableDeviation = stableDeviation;
+    }
+
+    public double getStableDeviation() {
+        return stableDeviation;
+    }
+
+    /**
+     * Warms up all languages supported by the parsed analyser
+     * @param analyzer the analyser
+     * @return the languages that could not be warmed up because no corpus
+     * is available
+     */
+    public List<String> warmUp(StanfordNlpAnalyzer analyzer){
+        List<String> missing = new ArrayList<String>();
+        for(String language : analyzer.getSupported()){
+            if(warmUp(analyzer, language) == 0){
+                missing.add(language);
+            }
+        }
+        if(!missing.isEmpty()){
+            log.error("Pipelines for languages {} are NOT warmed up because no warm up "
+                + "corpus is available! Add '{lang}.txt' files to the warm up corpus "
+                + "directory.", missing);
+        }
+        return missing;
+    }
+
+    /**
+     * Warms up the parsed language of the analyser
+     * @param analyzer the analyser
+     * @param language the language
+     * @return the number of iterations or <code>0</code> if no corpus is
+     * available for the language
+     */
+    public int warmUp(final StanfordNlpAnalyzer analyzer, final String language){
+        return warmUp(language, new Analysis() {
+            @Override
+            public void analyse(String text) throws IOException {
+                analyzer.analyse(language, cif.createBlob(new StringSource(text)));
+            }
+        });
+    }
+
+    /**
+     * Warms up the parsed pipeline. Intended to be used for pipelines that are
+     * not yet used by an analyser (e.g. on a reload of the configuration).
+     * @param pipeline the pipeline
+     * @return the number of iterations
+     */
+    public int warmUp(final LangPipeline pipeline){
+        return warmUp(pipeline.getLanguage(), new Analysis() {
+            @Override
+            public void analyse(String text) {
+                pipeline.annotate(new Annotation(text));
+            }
+        });
+    }
+
+    private int warmUp(String language, Analysis analysis){
+        List<String> texts = getCorpus(language);
+        if(texts.isEmpty()){
+            log.warn("No warm up corpus for language {} available. The pipeline is "
+                + "not warmed up and first requests will be slow!", language);
+            return 0;
+        }
+        log.info(" ... warm up language {} ({} texts, max {} iterations)",
+            new Object[]{language, texts.size(), maxIterations});
+        long last = -1;
+        int iteration = 0;
+        while(iteration < maxIterations){
+            iteration++;
+            long start = System.nanoTime();
+            for(String text : texts){
+                try {
+                    analysis.analyse(text);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Unable to warm up language "
+                        + language, e);
+                }
+            }
+            long duration = System.nanoTime() - start;
+            log.info("   {}. iteration: {}ms", iteration, duration/1000000);
+            if(last > 0 && Math.abs(duration - last) <= last * stableDeviation){
+                log.info("   ... latency for language {} stable after {} iterations",
+                    language, iteration);
+                break;
+            }
+            last = duration;
+        }
+        return iteration;
+    }
+
+    /**
+     * Analyses a single text of the corpus
+     */
+    private interface Analysis {
+        void analyse(String text) throws IOException;
+    }
+
+    /**
+     * Getter for the warm up corpus of a language
+     * @param language the language
+     * @return the texts of the corpus or an empty list if none
+     */
+    public List<String> getCorpus(String language){
+        InputStream in = null;
+        try {
+            in = openCorpus(language);
+            if(in == null && language.indexOf('-') > 0){ //try the root language
+                in = openCorpus(language.substring(0, language.indexOf('-')));
+            }
+            if(in == null){
+                return Collections.emptyList();
+            }
+            List<String> texts = new ArrayList<String>();
+            for(String text : IOUtils.toString(in, "UTF-8").split("(\\r?\\n){2,}")){
+                if(!text.trim().isEmpty()){
+                    texts.add(text.trim());
+                }
+            }
+            return texts;
+        } catch (IOException e) {
+            log.warn("Unable to read warm up corpus for language "+language,e);
+            return Collections.emptyList();
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private InputStream openCorpus(String language) throws IOException {
+        String name = language + CORPUS_EXTENSION;
+        if(corpusDir != null){
+            File file = new File(corpusDir, name);
+            if(file.isFile()){
+                return new FileInputStream(file);
+            }
+        }
+        return WarmUp.class.getClassLoader().getResourceAsStream(BUNDLED_CORPUS_PATH + name);
+    }
+}
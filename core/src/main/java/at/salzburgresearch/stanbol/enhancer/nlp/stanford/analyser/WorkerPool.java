@@ -0,0 +1,90 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread pool used to run independent annotators of a document in parallel.
+ * <p>
+ * The pool is shared by all pipelines and uses one thread per CPU core. To
+ * avoid dead locks and idle request threads if all workers are busy the
+ * thread {@link Task#join() joining} a task runs it itself if no worker has
+ * started it yet.
+ *
+ * @author Rupert Westenthaler
+ *
+ */
+public final class WorkerPool {
+
+    private static WorkerPool instance;
+
+    private final ExecutorService executor;
+
+    private WorkerPool(){
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+            new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "annotator-worker-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+    }
+
+    public static synchronized WorkerPool getInstance(){
+        if(instance == null){
+            instance = new WorkerPool();
+        }
+        return instance;
+    }
+
+    /**
+     * Submits a task
+     * @param callable the task
+     * @return the task. Callers MUST {@link Task#join() join} it.
+     */
+    public <T> Task<T> submit(Callable<T> callable){
+        Task<T> task = new Task<T>(callable);
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * A task that is run by the joining thread if no worker has started it.
+     */
+    public static final class Task<T> extends FutureTask<T> {
+
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private Task(Callable<T> callable) {
+            super(callable);
+        }
+
+        @Override
+        public void run() {
+            if(claimed.compareAndSet(false, true)){
+                super.run();
+            }
+        }
+
+        /**
+         * Waits for the completion of the task. If no worker has started the
+         * task it is run in the current thread.
+         * @return the result
+         * @throws ExecutionException if the task failed
+         * @throws InterruptedException if interrupted while waiting
+         */
+        public T join() throws InterruptedException, ExecutionException {
+            run();
+            return get();
+        }
+    }
+}
@@ -0,0 +1,415 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.impl;
+
+import java.io.Closeable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.stanford.nlp.ling.CoreAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.SentencesAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.TokensAnnotation;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.Annotator;
+import edu.stanford.nlp.pipeline.ParserAnnotator;
+import edu.stanford.nlp.util.ArrayCoreMap;
+import edu.stanford.nlp.util.CoreMap;
+
+/**
+ * Wraps a {@link ParserAnnotator} to parse the sentences of a text in
+ * parallel with a time and length budget per sentence.
+ * <p>
+ * Sentences are parsed on a pool shared by all parsers (one thread per CPU
+ * core). Sentences with more tokens than the length budget and sentences
+ * not parsed within the time budget get a flat parse tree (and the
+ * dependencies derived from it) by a fallback parser created with a maximum
+ * sentence length of <code>1</code>. So long sentences still get the
+ * annotations of the parser without blowing up the latency. Such sentences
+ * are marked with the {@link FallbackAnnotation}.
+ * <p>
+ * The Stanford parser can not be interrupted. A sentence exceeding its time
+ * budget is therefore parsed on a copy of the sentence and the result is
+ * ignored. Such runaway parses keep their thread of the pool busy until they
+ * complete. While all threads are busy with runaway parses no sentences are
+ * submitted to the pool and all sentences get the fallback parse, so
+ * sentences do not consume their budget waiting in the queue.
+ * <p>
+ * The pool is shut down after all parsers using it are {@link #close() closed}.
+ * <p>
+ * Configured by the '<code>parse.budget.time</code>' (milliseconds) and
+ * '<code>parse.budget.maxlen</code>' (tokens) properties.
+ *
+ * @author Rupert Westenthaler
+ *
+ */
+public class BudgetedParserAnnotator implements Annotator, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(BudgetedParserAnnotator.class);
+
+    /**
+     * The time budget in milliseconds for parsing a sentence. '<code>0</code>'
+     * for no time budget.
+     */
+    public static final String TIME_BUDGET_PROPERTY = "parse.budget.time";
+    /**
+     * The maximum number of tokens of sentences parsed by the full parser.
+     * '<code>0</code>' for no length budget.
+     */
+    public static final String LENGTH_BUDGET_PROPERTY = "parse.budget.maxlen";
+
+    /**
+     * Set to <code>true</code> for sentences parsed by the fallback parser
+     */
+    public static class FallbackAnnotation implements CoreAnnotation<Boolean> {
+        @Override
+        public Class<Boolean> getType() {
+            return Boolean.class;
+        }
+    }
+
+    /**
+     * The pool shared by all open parsers or <code>null</code> if none is open
+     */
+    private static ParsePool sharedPool;
+    private static int users;
+
+    private final ParsePool pool;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final Annotator parser;
+    private final Annotator fallback;
+    private final long timeBudget;
+    private final int lengthBudget;
+
+    private final AtomicLong parsed = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    /**
+     * @param parser the parser
+     * @param timeBudget the time budget in milliseconds per sentence or
+     * <code>0</code> for none
+     * @param lengthBudget the maximum number of tokens of sentences parsed by
+     * the parser or <code>0</code> for none
+     */
+    public BudgetedParserAnnotator(ParserAnnotator parser, long timeBudget, int lengthBudget) {
+        this(parser, createFallback(parser), timeBudget, lengthBudget);
+    }
+
+    BudgetedParserAnnotator(Annotator parser, Annotator fallback, long timeBudget, int lengthBudget) {
+        if(parser == null){
+            throw new IllegalArgumentException("The parsed parser MUST NOT be NULL!");
+        }
+        if(timeBudget < 0 || lengthBudget < 0){
+            throw new IllegalArgumentException("The budgets MUST NOT be negative (time: "
+                + timeBudget + ", length: " + lengthBudget + ")!");
+        }
+        this.parser = parser;
+        this.fallback = fallback;
+        this.timeBudget = timeBudget;
+        this.lengthBudget = lengthBudget;
+        this.pool = acquirePool();
+    }
+
+    /**
+     * Creates a parser that returns a flat tree for all sentences by using
+     * the model of the parsed parser
+     * @return the fallback parser or <code>null</code> if it can not be
+     * created for the used Stanford NLP version
+     */
+    private static Annotator createFallback(ParserAnnotator parser){
+        try {
+            Field field = ParserAnnotator.class.getDeclaredField("parser");
+            field.setAccessible(true);
+            Object model = field.get(parser);
+            for(Constructor<?> constructor : ParserAnnotator.class.getConstructors()){
+                Class<?>[] types = constructor.getParameterTypes();
+                if(types.length == 3 && types[0].isInstance(model) &&
+                        types[1] == boolean.class && types[2] == int.class){
+                    return (Annotator)constructor.newInstance(model, false, 1);
+                }
+            }
+            log.warn("No ParserAnnotator(parser, verbose, maxlen) constructor found. "
+                + "Sentences exceeding the budget will not be parsed!");
+        } catch (Exception e) {
+            log.warn("Unable to create fallback parser. Sentences exceeding the "
+                + "budget will not be parsed!", e);
+        }
+        return null;
+    }
+
+    private static synchronized ParsePool acquirePool(){
+        if(sharedPool == null){
+            sharedPool = new ParsePool(Runtime.getRuntime().availableProcessors());
+        }
+        users++;
+        return sharedPool;
+    }
+
+    private static synchronized void releasePool(){
+        users--;
+        if(users <= 0 && sharedPool != null){
+            //running (runaway) parses complete on the daemon threads
+            sharedPool.executor.shutdown();
+            sharedPool = null;
+            users = 0;
+        }
+    }
+
+    @Override
+    public void annotate(Annotation annotation) {
+        List<CoreMap> sentences = annotation.get(SentencesAnnotation.class);
+        if(sentences == null || sentences.isEmpty()){
+            parser.annotate(annotation);
+            return;
+        }
+        List<Parse> parses = new ArrayList<Parse>(sentences.size());
+        for(CoreMap sentence : sentences){
+            List<?> tokens = sentence.get(TokensAnnotation.class);
+            Parse parse = new Parse(annotation, sentence);
+            if((lengthBudget <= 0 || tokens == null || tokens.size() <= lengthBudget) && 
+                    !pool.isSaturated()){
+                try {
+                    parse.task = pool.executor.submit(parse);
+                } catch (RejectedExecutionException e) { //closed
+                    log.warn("Parser already closed. Use fallback parse for sentence");
+                }
+            }
+            parses.add(parse);
+        }
+        for(Parse parse : parses){
+            if(parse.task != null && parse.await()){
+                parse.merge();
+                parsed.incrementAndGet();
+            } else if(fallback != null){
+                fallback.annotate(view(annotation, parse.sentence));
+                parse.sentence.set(FallbackAnnotation.class, Boolean.TRUE);
+                fallbacks.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return the number of sentences parsed by the parser
+     */
+    public long getParsed() {
+        return parsed.get();
+    }
+
+    /**
+     * @return the number of sentences that exceeded the budget
+     */
+    public long getFallbacks() {
+        return fallbacks.get();
+    }
+
+    /**
+     * @return the number of parses that exceeded their time budget and still
+     * occupy a thread of the pool
+     */
+    public int getRunaways() {
+        return pool.runaways.get();
+    }
+
+    /**
+     * Releases the pool used to parse sentences. The pool is shut down if no
+     * other parser uses it.
+     */
+    @Override
+    public void close() {
+        if(closed.compareAndSet(false, true)){
+            releasePool();
+        }
+    }
+
+    @Override
+    public Set<Requirement> requirementsSatisfied() {
+        return parser.requirementsSatisfied();
+    }
+
+    @Override
+    public Set<Requirement> requires() {
+        return parser.requires();
+    }
+
+    /**
+     * @return an annotation that only includes the parsed sentence
+     */
+    private static Annotation view(Annotation annotation, CoreMap sentence){
+        Annotation view = new Annotation(annotation);
+        view.set(SentencesAnnotation.class, Collections.singletonList(sentence));
+        return view;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static void copy(CoreMap from, CoreMap to){
+        for(Class key : from.keySet()){
+            if(from.get(key) != to.get(key)){
+                to.set(key, from.get(key));
+            }
+        }
+    }
+
+    /**
+     * The threads used to parse sentences and the number of runaway parses
+     * occupying them
+     */
+    private static final class ParsePool {
+
+        final ExecutorService executor;
+        final int threads;
+        final AtomicInteger runaways = new AtomicInteger();
+
+        ParsePool(int threads){
+            this.threads = threads;
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "parser-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+
+        /**
+         * @return if all threads are occupied by runaway parses
+         */
+        boolean isSaturated(){
+            return runaways.get() >= threads;
+        }
+    }
+
+    /**
+     * Parses a copy of a sentence
+     */
+    private final class Parse implements Callable<Void> {
+
+        final CoreMap sentence;
+        final CoreMap copy;
+        final Annotation view;
+        /**
+         * The start of the parsing (nanoseconds) or <code>0</code> if not yet
+         * started
+         */
+        volatile long started;
+        /**
+         * If the parse has completed. Guarded by <code>this</code>
+         */
+        private boolean done;
+        /**
+         * If the parse was abandoned. Guarded by <code>this</code>
+         */
+        private boolean abandoned;
+        Future<Void> task;
+
+        Parse(Annotation annotation, CoreMap sentence){
+            this.sentence = sentence;
+            this.copy = new ArrayCoreMap(sentence.size());
+            copy(sentence, copy);
+            this.view = view(annotation, copy);
+        }
+
+        @Override
+        public Void call() {
+            synchronized (this) {
+                if(abandoned){
+                    return null;
+                }
+                started = System.nanoTime();
+            }
+            try {
+                parser.annotate(view);
+            } finally {
+                synchronized (this) {
+                    done = true;
+                    if(abandoned){ //was a runaway
+                        pool.runaways.decrementAndGet();
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Cancels the parse. A running parse can not be interrupted and is
+         * counted as runaway until it completes.
+         */
+        void abandon(){
+            synchronized (this) {
+                if(abandoned){
+                    return;
+                }
+                abandoned = true;
+                if(started != 0 && !done){
+                    pool.runaways.incrementAndGet();
+                }
+            }
+            task.cancel(true);
+        }
+
+        /**
+         * Waits for the parse
+         * @return <code>true</code> if parsed within the time budget or
+         * <code>false</code> if the budget was exceeded or parsing failed
+         * @throws CancellationException if interrupted
+         */
+        boolean await(){
+            try {
+                while(true){
+                    long start = started;
+                    long wait = start == 0 || timeBudget <= 0 ? Math.max(timeBudget, 100) :
+                        timeBudget - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    if(wait <= 0){
+                        abandon();
+                        return false;
+                    }
+                    try {
+                        task.get(wait, TimeUnit.MILLISECONDS);
+                        return true;
+                    } catch (TimeoutException e) {
+                        //not yet started or budget consumed ... check again
+                    }
+                }
+            } catch (InterruptedException e) {
+                abandon();
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while parsing");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if(cause instanceof Error){
+                    throw (Error)cause;
+                }
+                log.warn("Unable to parse sentence (" + cause.getClass().getSimpleName()
+                    + ": " + cause.getMessage() + ")");
+                return false;
+            } catch (CancellationException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Copies the annotations of the parser to the sentence
+         */
+        void merge(){
+            copy(copy, sentence);
+        }
+    }
+}
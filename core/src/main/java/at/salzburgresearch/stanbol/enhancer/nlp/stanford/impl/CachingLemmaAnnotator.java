@@ -0,0 +1,199 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.stanford.nlp.ling.CoreAnnotations.LemmaAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.PartOfSpeechAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.SentencesAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.TextAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.TokensAnnotation;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.Annotator;
+import edu.stanford.nlp.pipeline.MorphaAnnotator;
+import edu.stanford.nlp.util.ArrayCoreMap;
+import edu.stanford.nlp.util.CoreMap;
+
+/**
+ * Wraps a lemmatizer (e.g. the {@link MorphaAnnotator}) with a
+ * <code>(word, POS tag) -> lemma</code> cache. The lemma of a token only
+ * depends on its text and POS tag and the number of combinations seen in
+ * real texts is small.
+ * <p>
+ * Tokens not in the cache are collected and lemmatized by the wrapped
+ * annotator in a single synthetic sentence. The cache consists of two
+ * generations of {@link ConcurrentHashMap}s so that lookups do not lock.
+ * New lemmas are added to the current generation. If it holds half of the
+ * configured size it becomes the old generation and the previous old
+ * generation is dropped. Lemmas found in the old generation are moved to
+ * the current one, so frequent combinations are kept while rare ones are
+ * evicted.
+ * <p>
+ * Configured by the '<code>lemma.cache.size</code>' property.
+ *
+ * @author Rupert Westenthaler
+ *
+ */
+public class CachingLemmaAnnotator implements Annotator {
+
+    /**
+     * The maximum number of cached lemmas. '<code>0</code>' to deactivate
+     */
+    public static final String CACHE_SIZE_PROPERTY = "lemma.cache.size";
+    public static final int DEFAULT_CACHE_SIZE = 100000;
+
+    private final Annotator lemmatizer;
+    private final int maxSize;
+    /**
+     * The maximum number of entries of a generation
+     */
+    private final int generationSize;
+    private volatile ConcurrentMap<String,String> current = new ConcurrentHashMap<String,String>();
+    private volatile ConcurrentMap<String,String> old = new ConcurrentHashMap<String,String>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param lemmatizer the lemmatizer
+     * @param maxSize the maximum number of cached lemmas
+     */
+    public CachingLemmaAnnotator(Annotator lemmatizer, int maxSize) {
+        if(lemmatizer == null){
+            throw new IllegalArgumentException("The parsed lemmatizer MUST NOT be NULL!");
+        }
+        if(maxSize < 1){
+            throw new IllegalArgumentException("The maximum size MUST BE > 0 (parsed: "
+                + maxSize + ")!");
+        }
+        this.lemmatizer = lemmatizer;
+        this.maxSize = maxSize;
+        this.generationSize = Math.max(1, maxSize / 2);
+    }
+
+    @Override
+    public void annotate(Annotation annotation) {
+        List<CoreMap> sentences = annotation.get(SentencesAnnotation.class);
+        if(sentences == null){
+            lemmatizer.annotate(annotation); //let the lemmatizer fail
+            return;
+        }
+        List<CoreLabel> missed = new ArrayList<CoreLabel>();
+        int cached = 0;
+        for(CoreMap sentence : sentences){
+            for(CoreLabel token : sentence.get(TokensAnnotation.class)){
+                String lemma = get(key(token));
+                if(lemma != null){
+                    token.set(LemmaAnnotation.class, lemma);
+                    cached++;
+                } else {
+                    missed.add(token);
+                }
+            }
+        }
+        hits.addAndGet(cached);
+        if(missed.isEmpty()){
+            return;
+        }
+        misses.addAndGet(missed.size());
+        //lemmatize copies so that the lemmatizer only sets the lemma
+        List<CoreLabel> copies = new ArrayList<CoreLabel>(missed.size());
+        for(CoreLabel token : missed){
+            CoreLabel copy = new CoreLabel();
+            copy.set(TextAnnotation.class, token.get(TextAnnotation.class));
+            copy.set(PartOfSpeechAnnotation.class, token.get(PartOfSpeechAnnotation.class));
+            copies.add(copy);
+        }
+        CoreMap sentence = new ArrayCoreMap();
+        sentence.set(TokensAnnotation.class, copies);
+        Annotation synthetic = new Annotation("");
+        synthetic.set(TokensAnnotation.class, copies);
+        synthetic.set(SentencesAnnotation.class, Collections.singletonList(sentence));
+        lemmatizer.annotate(synthetic);
+        for(int i = 0; i < missed.size(); i++){
+            CoreLabel token = missed.get(i);
+            String lemma = copies.get(i).get(LemmaAnnotation.class);
+            token.set(LemmaAnnotation.class, lemma);
+            if(lemma != null){
+                put(key(token), lemma);
+            }
+        }
+    }
+
+    /**
+     * @return the cached lemma or <code>null</code> if not cached. Lemmas of
+     * the old generation are moved to the current one.
+     */
+    private String get(String key){
+        String lemma = current.get(key);
+        if(lemma == null){
+            lemma = old.get(key);
+            if(lemma != null){
+                put(key, lemma);
+            }
+        }
+        return lemma;
+    }
+
+    private void put(String key, String lemma){
+        ConcurrentMap<String,String> generation = current;
+        generation.put(key, lemma);
+        if(generation.size() >= generationSize){
+            synchronized (this) {
+                if(current == generation){ //not yet rotated by an other thread
+                    old = generation;
+                    current = new ConcurrentHashMap<String,String>();
+                }
+            }
+        }
+    }
+
+    private static String key(CoreLabel token){
+        return token.get(TextAnnotation.class) + '\u0000' + token.get(PartOfSpeechAnnotation.class);
+    }
+
+    /**
+     * @return the number of tokens lemmatized by using the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of tokens lemmatized by the wrapped annotator
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of cached lemmas (lemmas moved from the old to the
+     * current generation may be counted twice)
+     */
+    public int getSize() {
+        return current.size() + old.size();
+    }
+
+    /**
+     * @return the maximum number of cached lemmas
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public Set<Requirement> requirementsSatisfied() {
+        return lemmatizer.requirementsSatisfied();
+    }
+
+    @Override
+    public Set<Requirement> requires() {
+        return lemmatizer.requires();
+    }
+}
@@ -0,0 +1,245 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+
+import edu.stanford.nlp.ie.NERClassifierCombiner;
+import edu.stanford.nlp.ling.CoreAnnotations.AnswerAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.SentencesAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.TokensAnnotation;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.Annotator;
+import edu.stanford.nlp.util.CoreMap;
+
+/**
+ * Runs the numeric classifiers and SUTime only for sentences that contain a
+ * cue token: a token with a digit or a token included in a lexicon of
+ * number and temporal words (e.g. '<code>twelve</code>',
+ * '<code>Monday</code>', '<code>yesterday</code>', '<code>percent</code>').
+ * <p>
+ * The regular expressions of the numeric classifiers and SUTime are
+ * evaluated for every sentence, even though most sentences do not include
+ * any number or temporal expression. Sentences without cues keep the labels
+ * of the NER models.
+ * <p>
+ * The numeric step is a {@link NERClassifierCombiner} without models (and
+ * therefore only applies the numeric classifiers and SUTime). It only
+ * labels tokens not labeled by the NER models.
+ * <p>
+ * Enabled by the '<code>ner.numeric.cues</code>' property (a file or
+ * classpath resource with one cue per line). Gates without cues run the
+ * numeric step for all sentences. They are used to separate the numeric
+ * step from the NER models for pipeline replicas (see
+ * {@link at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.LangPipeline#REPLICAS_PROPERTY}).
+ *
+ * @author Rupert Westenthaler
+ *
+ */
+public class NumericCueGate implements Annotator {
+
+    /**
+     * The file or classpath resource with the cues (one per line, case
+     * insensitive, lines starting with '<code>#</code>' are ignored). If not
+     * present the numeric classifiers run for all sentences.
+     */
+    public static final String CUES_PROPERTY = "ner.numeric.cues";
+
+    private static final String BACKGROUND = "O";
+
+    private final Annotator ner;
+    private final Annotator numeric;
+    private final Set<String> cues;
+
+    private final AtomicLong sentences = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    /**
+     * @param ner the annotator applying the NER models or <code>null</code>
+     * if the tokens are already labeled
+     * @param numeric the annotator applying the numeric classifiers and SUTime
+     * @param cues the lower case cues or <code>null</code> to run the numeric
+     * classifiers for all sentences
+     */
+    public NumericCueGate(Annotator ner, Annotator numeric, Set<String> cues) {
+        if(numeric == null){
+            throw new IllegalArgumentException("The parsed numeric annotator MUST NOT be NULL!");
+        }
+        this.ner = ner;
+        this.numeric = numeric;
+        this.cues = cues;
+    }
+
+    /**
+     * Loads the cues from a file or classpath resource
+     * @param resource the file or classpath resource
+     * @return the lower case cues
+     * @throws IllegalArgumentException if the resource is not found or can
+     * not be read
+     */
+    public static Set<String> loadCues(String resource){
+        InputStream in = null;
+        try {
+            File file = new File(resource);
+            if(file.isFile()){
+                in = new FileInputStream(file);
+            } else {
+                in = NumericCueGate.class.getClassLoader().getResourceAsStream(resource);
+            }
+            if(in == null){
+                throw new IllegalArgumentException("Cue lexicon '" + resource
+                    + "' not found (configured by " + CUES_PROPERTY + ")!");
+            }
+            Set<String> cues = new HashSet<String>();
+            for(String line : IOUtils.readLines(in, "UTF-8")){
+                line = line.trim();
+                if(!line.isEmpty() && line.charAt(0) != '#'){
+                    cues.add(line.toLowerCase(Locale.ROOT));
+                }
+            }
+            return Collections.unmodifiableSet(cues);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to read cue lexicon '"
+                    + resource + "'!", e);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    @Override
+    public void annotate(Annotation annotation) {
+        if(ner != null){
+            ner.annotate(annotation);
+        }
+        List<CoreMap> all = annotation.get(SentencesAnnotation.class);
+        if(all == null){
+            numeric.annotate(annotation);
+            return;
+        }
+        List<CoreMap> cued = new ArrayList<CoreMap>(all.size());
+        for(CoreMap sentence : all){
+            List<CoreLabel> tokens = sentence.get(TokensAnnotation.class);
+            if(tokens == null){
+                continue;
+            }
+            if(hasCue(tokens)){
+                for(CoreLabel token : tokens){
+                    //the numeric classifiers only label tokens without answer
+                    if(token.get(AnswerAnnotation.class) == null){
+                        token.set(AnswerAnnotation.class, token.ner() == null ?
+                                BACKGROUND : token.ner());
+                    }
+                }
+                cued.add(sentence);
+            } else {
+                for(CoreLabel token : tokens){
+                    if(token.ner() == null){
+                        token.setNER(BACKGROUND);
+                    }
+                }
+            }
+        }
+        sentences.addAndGet(all.size());
+        skipped.addAndGet(all.size() - cued.size());
+        if(cued.isEmpty()){
+            return;
+        }
+        if(cued.size() == all.size()){
+            numeric.annotate(annotation);
+        } else {
+            Annotation view = new Annotation(annotation);
+            view.set(SentencesAnnotation.class, cued);
+            numeric.annotate(view);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if one of the tokens includes a digit or is
+     * a cue
+     */
+    boolean hasCue(List<CoreLabel> tokens){
+        if(cues == null){ //not gated
+            return true;
+        }
+        for(CoreLabel token : tokens){
+            String word = token.word();
+            if(word == null){
+                continue;
+            }
+            for(int i = 0; i < word.length(); i++){
+                if(Character.isDigit(word.charAt(i))){
+                    return true;
+                }
+            }
+            if(cues.contains(word.toLowerCase(Locale.ROOT))){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the annotator applying the NER models or <code>null</code> if none
+     */
+    public Annotator getNer() {
+        return ner;
+    }
+
+    /**
+     * @return the annotator applying the numeric classifiers and SUTime
+     */
+    public Annotator getNumeric() {
+        return numeric;
+    }
+
+    /**
+     * @return the lower case cues or <code>null</code> if the numeric
+     * classifiers run for all sentences
+     */
+    public Set<String> getCues() {
+        return cues;
+    }
+
+    /**
+     * @return if the numeric classifiers are only run for sentences with cues
+     */
+    public boolean isGated() {
+        return cues != null;
+    }
+
+    /**
+     * @return the number of sentences processed
+     */
+    public long getSentences() {
+        return sentences.get();
+    }
+
+    /**
+     * @return the number of sentences the numeric classifiers were skipped
+     * for
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    @Override
+    public Set<Requirement> requirementsSatisfied() {
+        return ner != null ? ner.requirementsSatisfied() : numeric.requirementsSatisfied();
+    }
+
+    @Override
+    public Set<Requirement> requires() {
+        return ner != null ? ner.requires() : numeric.requires();
+    }
+}
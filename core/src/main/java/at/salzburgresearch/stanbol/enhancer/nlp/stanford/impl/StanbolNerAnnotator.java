@@ -0,0 +1,253 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.WorkerPool;
+import edu.stanford.nlp.ie.AbstractSequenceClassifier;
+import edu.stanford.nlp.ie.ClassifierCombiner;
+import edu.stanford.nlp.ie.NERClassifierCombiner;
+import edu.stanford.nlp.ling.CoreAnnotations.AnswerAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.SentencesAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.TokensAnnotation;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.Annotator;
+import edu.stanford.nlp.pipeline.NERCombinerAnnotator;
+import edu.stanford.nlp.util.CoreMap;
+
+/**
+ * NER annotator that runs the classifiers of a combined NER model
+ * concurrently.
+ * <p>
+ * The {@link NERClassifierCombiner} runs its classifiers one after the other
+ * for every sentence. This annotator runs every classifier on copies of the
+ * tokens of a sentence on the shared {@link WorkerPool} (the first classifier
+ * in the current thread) and merges the labels with the same rules as the
+ * {@link ClassifierCombiner}: labels of later classifiers are only used for
+ * entity types not known by earlier ones and only for token sequences not
+ * labeled by earlier classifiers.
+ * <p>
+ * Numeric entities (and SUTime) are recognised afterwards by a
+ * {@link NERCombinerAnnotator} without models. It keeps the labels of the
+ * classifiers and only adds numeric entities for tokens without a label.
+ * <p>
+ * Enabled by the '<code>ner.parallel</code>' property.
+ *
+ * @author Rupert Westenthaler
+ *
+ */
+public class StanbolNerAnnotator implements Annotator {
+
+    /**
+     * If the classifiers of the configured NER models are run in parallel
+     */
+    public static final String PARALLEL_PROPERTY = "ner.parallel";
+
+    private final List<AbstractSequenceClassifier<CoreLabel>> classifiers;
+    /**
+     * The labels of the classifiers not known by any classifier before
+     */
+    private final List<Set<String>> uniqueLabels;
+    private final Annotator numeric;
+
+    private static final Set<Requirement> REQUIRES = Collections.unmodifiableSet(
+        new HashSet<Requirement>(Arrays.asList(TOKENIZE_REQUIREMENT, SSPLIT_REQUIREMENT,
+            POS_REQUIREMENT, LEMMA_REQUIREMENT)));
+
+    /**
+     * @param classifiers the classifiers in the configured order
+     * @param numeric the annotator used to recognise numeric entities (a
+     * {@link NERCombinerAnnotator} without models, optionally wrapped by a
+     * {@link NumericCueGate}) or <code>null</code> to not recognise numeric
+     * entities
+     */
+    public StanbolNerAnnotator(List<AbstractSequenceClassifier<CoreLabel>> classifiers,
+            Annotator numeric) {
+        if(classifiers == null || classifiers.isEmpty()){
+            throw new IllegalArgumentException("The parsed classifiers MUST NOT be NULL nor empty!");
+        }
+        this.classifiers = Collections.unmodifiableList(
+            new ArrayList<AbstractSequenceClassifier<CoreLabel>>(classifiers));
+        this.uniqueLabels = new ArrayList<Set<String>>(classifiers.size());
+        Set<String> known = new HashSet<String>();
+        for(AbstractSequenceClassifier<CoreLabel> classifier : classifiers){
+            Set<String> labels = new HashSet<String>(classifier.labels());
+            labels.removeAll(known);
+            known.addAll(labels);
+            uniqueLabels.add(labels);
+        }
+        this.numeric = numeric;
+    }
+
+    @Override
+    public void annotate(Annotation annotation) {
+        List<CoreMap> sentences = annotation.get(SentencesAnnotation.class);
+        if(sentences == null){
+            throw new IllegalArgumentException("Unable to find sentences in: " + annotation);
+        }
+        //start all classifiers except the first for all sentences
+        List<List<WorkerPool.Task<List<CoreLabel>>>> tasks =
+                new ArrayList<List<WorkerPool.Task<List<CoreLabel>>>>(sentences.size());
+        for(CoreMap sentence : sentences){
+            List<CoreLabel> tokens = sentence.get(TokensAnnotation.class);
+            List<WorkerPool.Task<List<CoreLabel>>> sentenceTasks =
+                    new ArrayList<WorkerPool.Task<List<CoreLabel>>>(classifiers.size() - 1);
+            for(int i = 1; i < classifiers.size(); i++){
+                sentenceTasks.add(WorkerPool.getInstance().submit(
+                    new Classification(classifiers.get(i), tokens)));
+            }
+            tasks.add(sentenceTasks);
+        }
+        for(int s = 0; s < sentences.size(); s++){
+            List<CoreLabel> tokens = sentences.get(s).get(TokensAnnotation.class);
+            List<CoreLabel> main = new Classification(classifiers.get(0), tokens).call();
+            String background = classifiers.get(0).backgroundSymbol();
+            for(int i = 1; i < classifiers.size(); i++){
+                mergeTwoDocuments(main, join(tasks.get(s).get(i - 1)), uniqueLabels.get(i),
+                    background);
+            }
+            for(int i = 0; i < tokens.size(); i++){
+                String answer = main.get(i).get(AnswerAnnotation.class);
+                if(answer == null){
+                    answer = background;
+                }
+                tokens.get(i).set(AnswerAnnotation.class, answer);
+                tokens.get(i).setNER(answer);
+            }
+        }
+        if(numeric != null){ //keeps the answers and updates the NER tags
+            numeric.annotate(annotation);
+        }
+    }
+
+    private static <T> T join(WorkerPool.Task<T> task){
+        try {
+            return task.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for a NER classifier");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException){
+                throw (RuntimeException)cause;
+            } else if(cause instanceof Error){
+                throw (Error)cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Merges the labels of an auxiliary classifier into the main document.
+     * Same algorithm as <code>ClassifierCombiner.mergeTwoDocuments(..)</code>:
+     * a sequence of tokens with a label unique to the auxiliary classifier is
+     * only used if none of its tokens has a label in the main document.
+     */
+    static void mergeTwoDocuments(List<CoreLabel> mainDocument, List<CoreLabel> auxDocument,
+            Set<String> auxLabels, String background){
+        boolean insideAuxTag = false;
+        boolean auxTagValid = true;
+        String prevAnswer = background;
+        Collection<CoreLabel> constituents = new ArrayList<CoreLabel>();
+        Iterator<CoreLabel> auxIterator = auxDocument.iterator();
+        for(CoreLabel wMain : mainDocument){
+            String mainAnswer = wMain.get(AnswerAnnotation.class);
+            String auxAnswer = auxIterator.next().get(AnswerAnnotation.class);
+            boolean insideMainTag = mainAnswer != null && !mainAnswer.equals(background);
+            if(auxLabels.contains(auxAnswer)){
+                if(!prevAnswer.equals(auxAnswer) && !prevAnswer.equals(background)){
+                    if(auxTagValid){
+                        for(CoreLabel wi : constituents){
+                            wi.set(AnswerAnnotation.class, prevAnswer);
+                        }
+                    }
+                    auxTagValid = true;
+                    constituents = new ArrayList<CoreLabel>();
+                }
+                insideAuxTag = true;
+                if(insideMainTag){
+                    auxTagValid = false;
+                }
+                prevAnswer = auxAnswer;
+                constituents.add(wMain);
+            } else {
+                if(insideAuxTag){
+                    if(auxTagValid){
+                        for(CoreLabel wi : constituents){
+                            wi.set(AnswerAnnotation.class, prevAnswer);
+                        }
+                    }
+                    constituents = new ArrayList<CoreLabel>();
+                }
+                insideAuxTag = false;
+                auxTagValid = true;
+                prevAnswer = background;
+            }
+        }
+        //deal with a sequence final aux label
+        if(auxTagValid){
+            for(CoreLabel wi : constituents){
+                wi.set(AnswerAnnotation.class, prevAnswer);
+            }
+        }
+    }
+
+    /**
+     * @return the classifiers in the configured order
+     */
+    public List<AbstractSequenceClassifier<CoreLabel>> getClassifiers() {
+        return classifiers;
+    }
+
+    /**
+     * @return the annotator used to recognise numeric entities or
+     * <code>null</code> if none
+     */
+    public Annotator getNumeric() {
+        return numeric;
+    }
+
+    @Override
+    public Set<Requirement> requirementsSatisfied() {
+        return numeric != null ? numeric.requirementsSatisfied() :
+            Collections.singleton(NER_REQUIREMENT);
+    }
+
+    @Override
+    public Set<Requirement> requires() {
+        return numeric != null ? numeric.requires() : REQUIRES;
+    }
+
+    /**
+     * Classifies copies of the tokens of a sentence
+     */
+    private static final class Classification implements Callable<List<CoreLabel>> {
+
+        private final AbstractSequenceClassifier<CoreLabel> classifier;
+        private final List<CoreLabel> tokens;
+
+        Classification(AbstractSequenceClassifier<CoreLabel> classifier, List<CoreLabel> tokens){
+            this.classifier = classifier;
+            this.tokens = tokens;
+        }
+
+        @Override
+        public List<CoreLabel> call() {
+            List<CoreLabel> copies = new ArrayList<CoreLabel>(tokens.size());
+            for(CoreLabel token : tokens){
+                copies.add(new CoreLabel(token));
+            }
+            return classifier.classify(copies);
+        }
+    }
+}
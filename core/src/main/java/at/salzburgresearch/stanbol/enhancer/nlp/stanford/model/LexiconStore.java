@@ -0,0 +1,274 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.model;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.WeakHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.model.ModelFields.FieldVisitor;
+import edu.stanford.nlp.util.Index;
+
+/**
+ * Process wide store for the distributional similarity lexicons (word to
+ * cluster maps) and feature string tables of loaded models.
+ * <p>
+ * The POS tagger and every NER classifier that uses distsim features
+ * (<code>*.distsim.crf.ser.gz</code>) hold their own copy of the lexicon.
+ * When a model is {@link #resolve(Object) resolved} its lexicons are replaced
+ * by an identical lexicon already known by the store. The words, clusters
+ * and feature strings of new lexicons and feature {@link Index indexes} are
+ * interned so that equal strings are only held once.
+ * <p>
+ * The store only holds weak references to the lexicons and strings. So it
+ * is scoped to the loaded models: as soon as the last model using a lexicon
+ * or string is unloaded those can be garbage collected.
+ *
+ * @author Rupert Westenthaler
+ *
+ */
+public final class LexiconStore {
+
+    private static final Logger log = LoggerFactory.getLogger(LexiconStore.class);
+
+    /**
+     * The name of the fields holding the distsim lexicon (used by
+     * <code>NERFeatureFactory</code> and <code>ExtractorDistsim</code>)
+     */
+    private static final String LEXICON_FIELD = "lexicon";
+    /**
+     * The name of the fields holding the elements of an <code>HashIndex</code>
+     */
+    private static final String INDEX_OBJECTS_FIELD = "objects";
+    private static final String INDEX_INDEXES_FIELD = "indexes";
+
+    private static final int MAX_DEPTH = 8;
+    /**
+     * Estimated heap size of a String excluding its characters
+     */
+    private static final int STRING_SIZE = 40;
+    /**
+     * Estimated heap size of an entry of a HashMap
+     */
+    private static final int MAP_ENTRY_SIZE = 48;
+    /**
+     * Estimated heap size of an entry of the store (the entry of the
+     * {@link WeakHashMap} or the list plus the {@link WeakReference})
+     */
+    private static final int STORE_ENTRY_SIZE = 80;
+
+    private static final LexiconStore INSTANCE = new LexiconStore();
+
+    /**
+     * Known lexicons by their {@link Map#hashCode()}
+     */
+    private final Map<Integer,List<WeakReference<Map<?,?>>>> lexicons = 
+            new HashMap<Integer,List<WeakReference<Map<?,?>>>>();
+    /**
+     * The interned strings
+     */
+    private final Map<String,WeakReference<String>> strings = new WeakHashMap<String,WeakReference<String>>();
+
+    private long sharedLexicons;
+    private long savedBytes;
+    /**
+     * The heap used by the entries added to the store
+     */
+    private long overheadBytes;
+
+    private LexiconStore() {}
+
+    public static LexiconStore getInstance(){
+        return INSTANCE;
+    }
+
+    /**
+     * Resolves the lexicons and feature indexes of the parsed model with the
+     * store.
+     * @param model the model (e.g. an annotator)
+     * @return the estimated number of bytes saved for this model
+     */
+    public synchronized long resolve(Object model){
+        final long start = System.currentTimeMillis();
+        final long saved = savedBytes - overheadBytes;
+        purgeLexicons();
+        final Map<Object,Boolean> processed = new IdentityHashMap<Object,Boolean>();
+        ModelFields.walk(model, MAX_DEPTH, new FieldVisitor() {
+            @Override
+            public void visit(Object owner, Field field, Object value) throws IllegalAccessException {
+                if(processed.put(value, Boolean.TRUE) != null){
+                    return;
+                }
+                if(LEXICON_FIELD.equals(field.getName()) && value instanceof Map<?,?>){
+                    Map<?,?> lexicon = resolveLexicon((Map<?,?>)value);
+                    if(lexicon != value){
+                        field.set(owner, lexicon);
+                    }
+                } else if(owner instanceof Index<?>){
+                    if(INDEX_OBJECTS_FIELD.equals(field.getName()) && value instanceof List<?>){
+                        internList((List<?>)value);
+                    } else if(INDEX_INDEXES_FIELD.equals(field.getName()) && value instanceof Map<?,?>){
+                        internKeys((Map<?,?>)value);
+                    }
+                }
+            }
+        });
+        log.info(" ... resolved lexicons of {} in {}ms (saved ~{}kByte)", new Object[]{
+                model.getClass().getSimpleName(), System.currentTimeMillis() - start,
+                (savedBytes - overheadBytes - saved)/1024});
+        return savedBytes - overheadBytes - saved;
+    }
+
+    /**
+     * Removes lexicons no longer used by any loaded model
+     */
+    private void purgeLexicons(){
+        for(Iterator<List<WeakReference<Map<?,?>>>> it = lexicons.values().iterator(); it.hasNext();){
+            List<WeakReference<Map<?,?>>> candidates = it.next();
+            for(Iterator<WeakReference<Map<?,?>>> refs = candidates.iterator(); refs.hasNext();){
+                if(refs.next().get() == null){
+                    refs.remove();
+                }
+            }
+            if(candidates.isEmpty()){
+                it.remove();
+            }
+        }
+    }
+
+    private Map<?,?> resolveLexicon(Map<?,?> lexicon){
+        Integer hash = lexicon.hashCode();
+        List<WeakReference<Map<?,?>>> candidates = lexicons.get(hash);
+        if(candidates == null){
+            candidates = new ArrayList<WeakReference<Map<?,?>>>(2);
+            lexicons.put(hash, candidates);
+        }
+        for(WeakReference<Map<?,?>> ref : candidates){
+            Map<?,?> candidate = ref.get();
+            if(candidate == lexicon){ //already resolved (e.g. a model shared by annotators)
+                return lexicon;
+            }
+            if(candidate != null && candidate.size() == lexicon.size() && candidate.equals(lexicon)){
+                sharedLexicons++;
+                for(Entry<?,?> entry : lexicon.entrySet()){
+                    savedBytes += MAP_ENTRY_SIZE + sizeOf(entry.getKey()) + sizeOf(entry.getValue());
+                }
+                return candidate;
+            }
+        }
+        internKeys(lexicon);
+        internValues(lexicon);
+        candidates.add(new WeakReference<Map<?,?>>(lexicon));
+        overheadBytes += STORE_ENTRY_SIZE;
+        return lexicon;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void internValues(Map<?,?> map){
+        try {
+            for(Entry<Object,Object> entry : ((Map<Object,Object>)map).entrySet()){
+                Object value = entry.getValue();
+                Object interned = intern(value);
+                if(interned != value){
+                    entry.setValue(interned);
+                }
+            }
+        } catch (UnsupportedOperationException e) {
+            //read only map
+        }
+    }
+
+    /**
+     * Replaces the keys of the parsed map by interned strings. As the keys of
+     * a map can not be replaced directly the map is rebuilt.
+     */
+    @SuppressWarnings("unchecked")
+    private void internKeys(Map<?,?> map){
+        Map<Object,Object> m = (Map<Object,Object>)map;
+        Map<Object,Object> copy = new HashMap<Object,Object>(m.size());
+        boolean changed = false;
+        for(Entry<Object,Object> entry : m.entrySet()){
+            Object key = entry.getKey();
+            Object interned = intern(key);
+            changed = changed || interned != key;
+            copy.put(interned, entry.getValue());
+        }
+        if(changed){
+            try {
+                m.clear();
+                m.putAll(copy);
+            } catch (UnsupportedOperationException e) {
+                //read only map
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void internList(List<?> list){
+        try {
+            for(ListIterator<Object> it = ((List<Object>)list).listIterator(); it.hasNext();){
+                Object value = it.next();
+                Object interned = intern(value);
+                if(interned != value){
+                    it.set(interned);
+                }
+            }
+        } catch (UnsupportedOperationException e) {
+            //read only list
+        }
+    }
+
+    private Object intern(Object value){
+        if(!(value instanceof String)){
+            return value;
+        }
+        WeakReference<String> ref = strings.get(value);
+        String current = ref == null ? null : ref.get();
+        if(current == null){
+            //the value of the weak map MUST NOT strongly reference the key
+            strings.put((String)value, new WeakReference<String>((String)value));
+            overheadBytes += STORE_ENTRY_SIZE;
+            return value;
+        }
+        if(current != value){
+            savedBytes += sizeOf(value);
+        }
+        return current;
+    }
+
+    private static long sizeOf(Object value){
+        return value instanceof String ? STRING_SIZE + 2L * ((String)value).length() : 0;
+    }
+
+    /**
+     * @return the number of lexicons replaced by an identical lexicon of the
+     * store
+     */
+    public synchronized long getSharedLexicons() {
+        return sharedLexicons;
+    }
+
+    /**
+     * @return the estimated number of bytes saved by the store (the saved
+     * lexicon entries and strings minus the entries of the store itself)
+     */
+    public synchronized long getSavedBytes() {
+        return savedBytes - overheadBytes;
+    }
+
+    /**
+     * @return the number of interned strings still used by loaded models
+     */
+    public synchronized int getStringCount(){
+        return strings.size();
+    }
+}
@@ -0,0 +1,514 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.model;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local cache for the models used by the annotators. On the first use
+ * a model resource (typically a gzip compressed file within a jar) is written
+ * as uncompressed file to the cache directory. Later starts directly load the
+ * model from this file and therefore avoid the inflating of the jar entry and
+ * the gzip decompression.
+ * <p>
+ * For every cached model a '<code>.properties</code>' file with the source
+ * (URL and last modified/size of the jar or file), the size and last modified
+ * time and the SHA-1 checksum of the cached file is stored. Cached models are
+ * refreshed if the source changes or if the size or last modified time of the
+ * cached file do not match. The checksum is only validated by an explicit
+ * {@link #verify()} as this needs to read all cached models.
+ * <p>
+ * The cache is used by {@link #apply(Properties) applying} it to the
+ * configuration of an annotation pipeline.
+ * <p>
+ * The cache directory can be shared by several server processes on the same
+ * host (and by several caches within the same JVM). Writes are guarded by a
+ * '<code>.lock</code>' file per model so that only one process decompresses a
+ * model while the others wait for it. Cached models are published by an
+ * atomic move (<code>Files.move(..)</code> with <code>ATOMIC_MOVE</code> on
+ * Java 7+) so that readers never see partial files. Note that only the cached
+ * files are shared: every process still deserializes the models to its own
+ * heap. Memory mapped model weights are not supported as the Stanford
+ * classifiers read their weights into <code>double[]</code> arrays.
+ *
+ * @author Rupert Westenthaler
+ *
+ */
+public class ModelCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ModelCache.class);
+
+    /**
+     * Properties that refer to model resources. Values may contain a comma
+     * separated list of models (e.g. <code>ner.model</code>)
+     */
+    public static final String[] MODEL_PROPERTIES = new String[]{
+        "pos.model", "ner.model", "parse.model", "sentiment.model",
+        "segment.model", "segment.serDictionary", "regexner.mapping"
+    };
+
+    private static final String GZIP_EXTENSION = "gz";
+    private static final String META_SOURCE = "source";
+    private static final String META_STAMP = "stamp";
+    private static final String META_CHECKSUM = "sha1";
+    private static final String META_SIZE = "size";
+    private static final String META_MODIFIED = "modified";
+    private static final String META_EXTENSION = ".properties";
+
+    /**
+     * Used to serialize the callers within this JVM before the (inter process)
+     * file lock is acquired. File locks are held by the JVM, so a second
+     * thread would get an {@link OverlappingFileLockException} instead of
+     * waiting. Keyed by the canonical path of the lock file as several caches
+     * may use the same directory.
+     */
+    private static final ConcurrentMap<String,Object> locks = new ConcurrentHashMap<String,Object>();
+
+    /**
+     * <code>Files.move(Path, Path, CopyOption...)</code> if running on
+     * Java 7+. Otherwise <code>null</code>
+     */
+    private static final Method FILES_MOVE;
+    private static final Method TO_PATH;
+    private static final Object MOVE_OPTIONS;
+    static {
+        Method move = null;
+        Method toPath = null;
+        Object options = null;
+        try {
+            Class<?> files = Class.forName("java.nio.file.Files");
+            Class<?> path = Class.forName("java.nio.file.Path");
+            Class<?> copyOption = Class.forName("java.nio.file.CopyOption");
+            Class<?> standard = Class.forName("java.nio.file.StandardCopyOption");
+            options = Array.newInstance(copyOption, 2);
+            Array.set(options, 0, standard.getField("ATOMIC_MOVE").get(null));
+            Array.set(options, 1, standard.getField("REPLACE_EXISTING").get(null));
+            move = files.getMethod("move", path, path, options.getClass());
+            toPath = File.class.getMethod("toPath");
+        } catch (Exception e) {
+            log.debug("java.nio.file not available (Java 6): use File#renameTo(..)");
+            move = null;
+        }
+        FILES_MOVE = move;
+        TO_PATH = toPath;
+        MOVE_OPTIONS = options;
+    }
+
+    private final File directory;
+
+    public ModelCache(File directory) {
+        if(directory == null){
+            throw new IllegalArgumentException("The parsed cache directory MUST NOT be NULL!");
+        }
+        if(!directory.isDirectory() && !directory.mkdirs()){
+            throw new IllegalArgumentException("Unable to create the model cache directory "
+                + directory.getAbsolutePath()+"!");
+        }
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Applies the cache to the parsed configuration.
+     * @param properties the configuration
+     * @return Properties that use the parsed one as defaults and override all
+     * {@link #MODEL_PROPERTIES} with the paths of the cached models.
+     */
+    public Properties apply(Properties properties){
+        Properties cached = new Properties(properties);
+        for(String key : MODEL_PROPERTIES){
+            String value = properties.getProperty(key);
+            if(value == null || value.trim().isEmpty()){
+                continue;
+            }
+            StringBuilder resolved = new StringBuilder();
+            for(String model : value.split(",")){
+                if(resolved.length() > 0){
+                    resolved.append(',');
+                }
+                resolved.append(resolve(model.trim()));
+            }
+            cached.setProperty(key, resolved.toString());
+        }
+        return cached;
+    }
+
+    /**
+     * Resolves the parsed model with the cache. If the model is present in the
+     * cache the path to the cached file is returned. If not the model is copied
+     * (and decompressed) to the cache. Models that are neither located in a
+     * jar nor compressed are not cached.
+     * @param model the model (file or classpath resource)
+     * @return the path of the cached model or the parsed model if it can not
+     * be cached.
+     */
+    public String resolve(String model){
+        URL source;
+        String stamp;
+        try {
+            File file = new File(model);
+            if(file.isFile()){
+                if(!GZIP_EXTENSION.equalsIgnoreCase(FilenameUtils.getExtension(model))){
+                    return model; //uncompressed file ... nothing to do
+                }
+                source = file.toURI().toURL();
+                stamp = file.lastModified() + ":" + file.length();
+            } else {
+                source = ModelCache.class.getClassLoader().getResource(model);
+                if(source == null){
+                    log.warn("Unable to cache model {} (not found via Classpath)", model);
+                    return model;
+                }
+                stamp = getStamp(source);
+                if(stamp == null){ //not in a jar nor a file
+                    return model;
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Unable to cache model "+model+" (message: "+e.getMessage()+")",e);
+            return model;
+        }
+        String name = getCacheName(model);
+        synchronized (getMonitor(name)) {
+            File cached = new File(directory, name);
+            File meta = new File(directory, name + META_EXTENSION);
+            if(isValid(cached, meta, source, stamp)){
+                log.debug(" ... use cached model {} for {}", cached, model);
+                return cached.getAbsolutePath();
+            }
+            FileLock fileLock = null;
+            try {
+                //lock the model for other processes using the same directory
+                fileLock = lock(name);
+                //an other process might have written the model in the meantime
+                if(!isValid(cached, meta, source, stamp)){
+                    write(model, source, stamp, cached, meta);
+                } else {
+                    log.debug(" ... use model {} cached by an other process", model);
+                }
+                return cached.getAbsolutePath();
+            } catch (IOException e) {
+                log.warn("Unable to cache model "+model+" (message: "+e.getMessage()+")",e);
+                return model;
+            } finally {
+                release(fileLock);
+            }
+        }
+    }
+
+    /**
+     * The monitor used to serialize all callers of this JVM that access the
+     * cached model with the parsed name.
+     */
+    private Object getMonitor(String name){
+        File lockFile = new File(directory, name + ".lock");
+        String key;
+        try {
+            key = lockFile.getCanonicalPath();
+        } catch (IOException e) {
+            key = lockFile.getAbsolutePath();
+        }
+        Object lock = new Object();
+        Object current = locks.putIfAbsent(key, lock);
+        return current == null ? lock : current;
+    }
+
+    /**
+     * Acquires the (inter process) lock for the cached model with the parsed
+     * name. Blocks until the lock is available. Callers need to hold the
+     * {@link #getMonitor(String) monitor} of the model.
+     */
+    private FileLock lock(String name) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(directory, name + ".lock"), "rw");
+        FileChannel channel = file.getChannel();
+        try {
+            return channel.lock();
+        } catch (OverlappingFileLockException e) {
+            //only if the lock file is locked by other code within this JVM
+            IOUtils.closeQuietly(file);
+            throw new IOException("Lock file for cached model " + name 
+                + " is already locked by this JVM", e);
+        } catch (IOException e) {
+            IOUtils.closeQuietly(file);
+            throw e;
+        } catch (RuntimeException e) {
+            IOUtils.closeQuietly(file);
+            throw e;
+        }
+    }
+
+    private static void release(FileLock lock){
+        if(lock == null){
+            return;
+        }
+        try {
+            lock.release();
+        } catch (IOException e) {
+            //ignore
+        } finally {
+            IOUtils.closeQuietly(lock.channel());
+        }
+    }
+
+    /**
+     * Checks if the cached model is valid for the current source. Only
+     * compares the metadata (source stamp, size and last modified time of the
+     * cached file) so that no model needs to be read.
+     */
+    private boolean isValid(File cached, File meta, URL source, String stamp) {
+        if(!cached.isFile() || !meta.isFile()){
+            return false;
+        }
+        Properties metadata = readMetadata(meta);
+        if(metadata == null){
+            return false;
+        }
+        if(!source.toString().equals(metadata.getProperty(META_SOURCE)) ||
+                !stamp.equals(metadata.getProperty(META_STAMP))){
+            log.info(" ... refresh cached model {} (source {} changed)", cached.getName(), source);
+            return false;
+        }
+        if(!String.valueOf(cached.length()).equals(metadata.getProperty(META_SIZE)) ||
+                !String.valueOf(cached.lastModified()).equals(metadata.getProperty(META_MODIFIED))){
+            log.warn(" ... refresh cached model {} (modified in the cache)", cached.getName());
+            return false;
+        }
+        return true;
+    }
+
+    private static Properties readMetadata(File meta){
+        Properties metadata = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(meta);
+            metadata.load(in);
+            return metadata;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Validates the checksums of all cached models. Cached models with a
+     * checksum mismatch are removed so that they are written again by the
+     * next {@link #resolve(String)}. This reads all cached models and is
+     * therefore not done on startup.
+     * @return the number of removed models
+     */
+    public int verify(){
+        File[] metaFiles = directory.listFiles();
+        int removed = 0;
+        for(File meta : metaFiles == null ? new File[0] : metaFiles){
+            if(!meta.isFile() || !meta.getName().endsWith(META_EXTENSION)){
+                continue;
+            }
+            String name = meta.getName().substring(0, meta.getName().length() - META_EXTENSION.length());
+            synchronized (getMonitor(name)) {
+                File cached = new File(directory, name);
+                FileLock fileLock = null;
+                try {
+                    fileLock = lock(name);
+                    Properties metadata = readMetadata(meta);
+                    String checksum = metadata == null || !cached.isFile() ? null : checksum(cached);
+                    if(checksum == null || !checksum.equals(metadata.getProperty(META_CHECKSUM))){
+                        log.warn(" ... remove cached model {} (checksum mismatch)", name);
+                        cached.delete();
+                        meta.delete();
+                        removed++;
+                    }
+                } catch (IOException e) {
+                    log.warn("Unable to verify cached model "+name+" (message: "+e.getMessage()+")",e);
+                } finally {
+                    release(fileLock);
+                }
+            }
+        }
+        return removed;
+    }
+
+    private static String checksum(File file) throws IOException {
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            MessageDigest digest = createDigest();
+            byte[] buffer = new byte[64*1024];
+            for(int read = in.read(buffer); read != -1; read = in.read(buffer)){
+                digest.update(buffer, 0, read);
+            }
+            return toHex(digest.digest());
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private void write(String model, URL source, String stamp, File cached, File meta) throws IOException {
+        long start = System.currentTimeMillis();
+        log.info(" ... write model {} to cache {}", model, directory);
+        File tmp = File.createTempFile(cached.getName(), ".tmp", directory);
+        InputStream in = null;
+        OutputStream out = null;
+        MessageDigest digest = createDigest();
+        try {
+            in = source.openStream();
+            if(GZIP_EXTENSION.equalsIgnoreCase(FilenameUtils.getExtension(source.getPath()))){
+                in = new GZIPInputStream(in, 64*1024);
+            }
+            in = new DigestInputStream(in, digest);
+            out = new FileOutputStream(tmp);
+            IOUtils.copyLarge(in, out);
+            out.close();
+            out = null;
+            //move so that concurrent readers never see partial models
+            move(tmp, cached);
+            Properties metadata = new Properties();
+            metadata.setProperty(META_SOURCE, source.toString());
+            metadata.setProperty(META_STAMP, stamp);
+            metadata.setProperty(META_SIZE, String.valueOf(cached.length()));
+            metadata.setProperty(META_MODIFIED, String.valueOf(cached.lastModified()));
+            metadata.setProperty(META_CHECKSUM, toHex(digest.digest()));
+            File tmpMeta = File.createTempFile(meta.getName(), ".tmp", directory);
+            try {
+                out = new FileOutputStream(tmpMeta);
+                metadata.store(out, "Cached model "+model);
+                out.close();
+                out = null;
+                move(tmpMeta, meta);
+            } finally {
+                tmpMeta.delete();
+            }
+        } finally {
+            IOUtils.closeQuietly(in);
+            IOUtils.closeQuietly(out);
+            tmp.delete();
+        }
+        log.info("   ... cached {} ({} bytes) in {}ms", new Object[]{
+                model, cached.length(), System.currentTimeMillis() - start});
+    }
+
+    /**
+     * Replaces the target with the source file. Uses an atomic move on Java 7+.
+     * Falls back to delete and rename on Java 6 or if the file system does not
+     * support atomic moves.
+     */
+    private static void move(File source, File target) throws IOException {
+        if(FILES_MOVE != null){
+            try {
+                FILES_MOVE.invoke(null, TO_PATH.invoke(source), TO_PATH.invoke(target), MOVE_OPTIONS);
+                return;
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if(cause instanceof IOException && !"java.nio.file.AtomicMoveNotSupportedException"
+                        .equals(cause.getClass().getName())){
+                    throw (IOException)cause;
+                }
+                log.debug("Atomic move of {} not supported (message: {})", target, cause.getMessage());
+            } catch (IllegalAccessException e) {
+                log.debug("Unable to call Files#move(..) (message: {})", e.getMessage());
+            }
+        }
+        target.delete();
+        if(!source.renameTo(target)){
+            throw new IOException("Unable to rename "+source+" to "+target+"!");
+        }
+    }
+
+    /**
+     * The stamp (last modified and size) of the jar or file the parsed
+     * URL points to
+     * @return the stamp or <code>null</code> if the URL is neither a jar nor a
+     * file
+     */
+    private String getStamp(URL source) throws IOException {
+        File file;
+        if("jar".equals(source.getProtocol())){
+            URLConnection con = source.openConnection();
+            URL jarUrl = ((JarURLConnection)con).getJarFileURL();
+            file = toFile(jarUrl);
+        } else if("file".equals(source.getProtocol())){
+            file = toFile(source);
+            if(!GZIP_EXTENSION.equalsIgnoreCase(FilenameUtils.getExtension(file.getName()))){
+                return null; //uncompressed file in the classpath ... nothing to do
+            }
+        } else {
+            return null;
+        }
+        return file == null ? null : file.lastModified() + ":" + file.length();
+    }
+
+    private static File toFile(URL url){
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException e) {
+            return new File(url.getPath());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The name of the cache file. Uses the checksum of the model path to
+     * avoid collisions and removes the '.gz' extension so that the Stanford
+     * NLP loader does not try to decompress the cached file.
+     */
+    private static String getCacheName(String model){
+        String name = FilenameUtils.getName(model);
+        if(GZIP_EXTENSION.equalsIgnoreCase(FilenameUtils.getExtension(name))){
+            name = FilenameUtils.getBaseName(name);
+        }
+        MessageDigest digest = createDigest();
+        try {
+            digest.update(model.getBytes("UTF-8"));
+        } catch (IOException e) {
+            throw new IllegalStateException(e); //UTF-8 is always supported
+        }
+        return toHex(digest.digest()).substring(0, 12) + '-' + name;
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not supported by the JVM",e);
+        }
+    }
+
+    private static String toHex(byte[] bytes){
+        StringBuilder hex = new StringBuilder(bytes.length*2);
+        for(byte b : bytes){
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16))
+               .append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,146 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.model;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Utility that walks the fields of loaded Stanford NLP models (e.g. the
+ * classifiers referenced by an annotator). Used to post process models after
+ * deserialisation without the need to adapt the Stanford NLP classes.
+ * <p>
+ * The walk only descends into instances of Stanford NLP classes. Collections
+ * and arrays are only followed if they contain no more than
+ * {@link #MAX_CONTAINER_SIZE} elements (e.g. the list of classifiers of a
+ * combiner but not the entries of a lexicon). Static fields are ignored.
+ *
+ * @author Rupert Westenthaler
+ *
+ */
+public final class ModelFields {
+
+    private static final String STANFORD_NLP_PACKAGE = "edu.stanford.nlp.";
+
+    /**
+     * Collections and arrays with more elements are not walked
+     */
+    public static final int MAX_CONTAINER_SIZE = 64;
+
+    private ModelFields() {}
+
+    /**
+     * Callback for fields found while walking a model
+     */
+    public interface FieldVisitor {
+        /**
+         * Called for every non static field with a non <code>null</code> value
+         * @param owner the object with the field
+         * @param field the field (accessible)
+         * @param value the current value of the field
+         */
+        void visit(Object owner, Field field, Object value) throws IllegalAccessException;
+    }
+
+    /**
+     * Walks the fields of the parsed model
+     * @param model the model (root object)
+     * @param maxDepth the maximum depth
+     * @param visitor the visitor
+     */
+    public static void walk(Object model, int maxDepth, FieldVisitor visitor){
+        walk(model, 0, maxDepth, visitor, new IdentityHashMap<Object,Boolean>());
+    }
+
+    private static void walk(Object current, int depth, int maxDepth, FieldVisitor visitor,
+            Map<Object,Boolean> visited){
+        if(current == null || depth > maxDepth || visited.put(current, Boolean.TRUE) != null){
+            return;
+        }
+        if(current instanceof Collection<?>){
+            Collection<?> c = (Collection<?>)current;
+            if(c.size() <= MAX_CONTAINER_SIZE){
+                for(Object o : c){
+                    walk(o, depth + 1, maxDepth, visitor, visited);
+                }
+            }
+            return;
+        }
+        Class<?> type = current.getClass();
+        if(type.isArray()){
+            if(!type.getComponentType().isPrimitive() && Array.getLength(current) <= MAX_CONTAINER_SIZE){
+                for(int i = 0; i < Array.getLength(current); i++){
+                    walk(Array.get(current, i), depth + 1, maxDepth, visitor, visited);
+                }
+            }
+            return;
+        }
+        if(!type.getName().startsWith(STANFORD_NLP_PACKAGE)){
+            return;
+        }
+        for(Field field : getFields(type)){
+            Object value;
+            try {
+                value = field.get(current);
+                if(value != null){
+                    visitor.visit(current, field, value);
+                }
+            } catch (IllegalAccessException e) {
+                continue; //ignore inaccessible fields
+            }
+            if(value != null && !field.getType().isPrimitive()){
+                walk(value, depth + 1, maxDepth, visitor, visited);
+            }
+        }
+    }
+
+    /**
+     * Getter for the value of a (non public) field of the parsed object
+     * @param owner the object
+     * @param name the name of the field (declared by the class of the object
+     * or one of its super classes)
+     * @return the value
+     * @throws IllegalArgumentException if the field is not present or can not
+     * be accessed
+     */
+    public static Object get(Object owner, String name){
+        for(Field field : getFields(owner.getClass())){
+            if(field.getName().equals(name)){
+                try {
+                    return field.get(owner);
+                } catch (IllegalAccessException e) {
+                    break;
+                }
+            }
+        }
+        throw new IllegalArgumentException("Unable to access field '" + name
+            + "' of " + owner.getClass().getName());
+    }
+
+    /**
+     * All non static fields of the parsed class and its super classes. Fields
+     * are made accessible.
+     */
+    private static List<Field> getFields(Class<?> type){
+        List<Field> fields = new ArrayList<Field>();
+        for(Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()){
+            for(Field field : c.getDeclaredFields()){
+                if(!Modifier.isStatic(field.getModifiers())){
+                    try {
+                        field.setAccessible(true);
+                        fields.add(field);
+                    } catch (SecurityException e) {
+                        //ignore
+                    } catch (RuntimeException e) {
+                        //e.g. InaccessibleObjectException on newer JVMs
+                    }
+                }
+            }
+        }
+        return fields;
+    }
+}
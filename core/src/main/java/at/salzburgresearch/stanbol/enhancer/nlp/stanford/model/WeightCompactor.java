@@ -0,0 +1,203 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.model;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.model.ModelFields.FieldVisitor;
+
+/**
+ * Reduces the heap used by the weight matrices (<code>double[][]</code> and
+ * <code>float[][]</code> fields) of loaded Stanford NLP models (e.g. the
+ * weights of the CRF classifiers used for NER).
+ * <p>
+ * The Stanford NLP classifiers directly access their arrays so the type of
+ * the weights can not be changed. Instead identical rows (e.g. the rows of
+ * features without any weight) of all matrices of a model are replaced by a
+ * single shared instance. This is lossless: the classifiers see exactly the
+ * same weights. As only duplicated rows are removed the savings are limited
+ * to the share of such rows. This mode does NOT halve the heap used by a
+ * model; the saved percentage of the weights is logged.
+ * <p>
+ * Only models with weight matrices benefit. The POS tagger keeps its weights
+ * in a single <code>double[]</code> and the parser grammars in rule objects,
+ * so the low memory mode is only supported for NER.
+ * <p>
+ * Configuration is done by properties with the prefix of the annotator:<ul>
+ * <li><code>{annotator}.lowMemory</code>: activates the low memory mode
+ * (default: <code>false</code>)
+ * </ul>
+ *
+ * @author Rupert Westenthaler
+ *
+ */
+public class WeightCompactor {
+
+    private static final Logger log = LoggerFactory.getLogger(WeightCompactor.class);
+
+    public static final String PROPERTY_LOW_MEMORY = "lowMemory";
+    /**
+     * The maximum depth used to search for weight matrices
+     */
+    private static final int MAX_DEPTH = 8;
+    /**
+     * Estimated size of the header of an array on the heap
+     */
+    private static final int ARRAY_HEADER_SIZE = 16;
+
+    /**
+     * The canonical rows. Shared by all matrices compacted by this instance
+     */
+    private final Map<Row,Object> canonical = new HashMap<Row,Object>();
+
+    private long rows;
+    private long sharedRows;
+    private long rowBytes;
+    private long savedBytes;
+
+    /**
+     * Creates a compactor for the parsed annotator if the low memory mode is
+     * activated for it.
+     * @param annotator the name of the annotator (used as property prefix)
+     * @param properties the properties
+     * @return the compactor or <code>null</code> if the low memory mode is
+     * not active
+     */
+    public static WeightCompactor create(String annotator, Properties properties){
+        if(!isActive(annotator, properties)){
+            return null;
+        }
+        return new WeightCompactor();
+    }
+
+    /**
+     * @param annotator the name of the annotator (used as property prefix)
+     * @param properties the properties
+     * @return if the low memory mode is activated for the parsed annotator
+     */
+    public static boolean isActive(String annotator, Properties properties){
+        return Boolean.parseBoolean(properties.getProperty(
+            annotator + '.' + PROPERTY_LOW_MEMORY, "false").trim());
+    }
+
+    /**
+     * Compacts all weight matrices reachable from the parsed model
+     * @param model the model (e.g. an annotator)
+     * @return the estimated number of bytes saved
+     */
+    public long compact(Object model){
+        final long start = System.currentTimeMillis();
+        final long saved = savedBytes;
+        final long weights = rowBytes;
+        final Map<Object,Boolean> processed = new IdentityHashMap<Object,Boolean>();
+        ModelFields.walk(model, MAX_DEPTH, new FieldVisitor() {
+            @Override
+            public void visit(Object owner, Field field, Object value) {
+                if(field.getType() == double[][].class || field.getType() == float[][].class){
+                    if(processed.put(value, Boolean.TRUE) == null){
+                        compact((Object[])value);
+                    }
+                }
+            }
+        });
+        long compacted = rowBytes - weights;
+        log.info(" ... compacted {} weight matrices of {} in {}ms (saved ~{}kByte, {}% of ~{}kByte weights)", 
+            new Object[]{processed.size(), model.getClass().getSimpleName(),
+                System.currentTimeMillis() - start, (savedBytes - saved)/1024, 
+                compacted > 0 ? Math.round((savedBytes - saved) * 1000d / compacted)/10d : 0,
+                compacted/1024});
+        return savedBytes - saved;
+    }
+
+    /**
+     * Replaces identical rows with a shared instance
+     * @param matrix the weight matrix (a <code>double[][]</code> or
+     * <code>float[][]</code>)
+     */
+    public void compact(Object[] matrix){
+        for(int i = 0; i < matrix.length; i++){
+            Object row = matrix[i];
+            if(row == null){
+                continue;
+            }
+            rows++;
+            Row key = new Row(row);
+            rowBytes += key.getBytes();
+            Object shared = canonical.get(key);
+            if(shared == null){
+                canonical.put(key, row);
+            } else if(shared != row){
+                matrix[i] = shared;
+                sharedRows++;
+                savedBytes += key.getBytes();
+            }
+        }
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getSharedRows() {
+        return sharedRows;
+    }
+
+    public long getSavedBytes() {
+        return savedBytes;
+    }
+
+    /**
+     * @return the estimated bytes of all rows before compacting
+     */
+    public long getRowBytes() {
+        return rowBytes;
+    }
+
+    /**
+     * Key used to find identical rows
+     */
+    private static final class Row {
+
+        private final double[] doubles;
+        private final float[] floats;
+        private final int hash;
+
+        Row(Object values){
+            if(values instanceof double[]){
+                doubles = (double[])values;
+                floats = null;
+                hash = Arrays.hashCode(doubles);
+            } else {
+                doubles = null;
+                floats = (float[])values;
+                hash = 31 * Arrays.hashCode(floats) + 1;
+            }
+        }
+
+        long getBytes(){
+            return doubles != null ? ARRAY_HEADER_SIZE + 8L * doubles.length :
+                ARRAY_HEADER_SIZE + 4L * floats.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof Row) || ((Row)obj).hash != hash){
+                return false;
+            }
+            Row other = (Row)obj;
+            return doubles != null ? Arrays.equals(other.doubles, doubles) :
+                Arrays.equals(other.floats, floats);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.stanford.nlp.ling.CoreAnnotations.PartOfSpeechAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.SentencesAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.TextAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.TokensAnnotation;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.util.ArrayCoreMap;
+import edu.stanford.nlp.util.CoreMap;
+
+/**
+ * Creates annotated texts used by the tests of single annotators without
+ * running a tokenizer, sentence splitter or POS tagger.
+ *
+ * @author Rupert Westenthaler
+ *
+ */
+public final class AnnotationFixtures {
+
+    private AnnotationFixtures() {}
+
+    /**
+     * @param sentences the sentences
+     * @return a text with the parsed sentences and their tokens
+     */
+    public static Annotation text(CoreMap...sentences){
+        return text(Arrays.asList(sentences));
+    }
+
+    /**
+     * @param sentences the sentences
+     * @return a text with the parsed sentences and their tokens
+     */
+    public static Annotation text(List<CoreMap> sentences){
+        List<CoreLabel> tokens = new ArrayList<CoreLabel>();
+        for(CoreMap sentence : sentences){
+            tokens.addAll(sentence.get(TokensAnnotation.class));
+        }
+        Annotation annotation = new Annotation("test");
+        annotation.set(TokensAnnotation.class, tokens);
+        annotation.set(SentencesAnnotation.class, new ArrayList<CoreMap>(sentences));
+        return annotation;
+    }
+
+    /**
+     * @param tokens the tokens as '<code>{word}</code>' or
+     * '<code>{word}/{pos}</code>'
+     * @return a sentence with the parsed tokens
+     */
+    public static CoreMap sentence(String...tokens){
+        List<CoreLabel> labels = new ArrayList<CoreLabel>();
+        StringBuilder text = new StringBuilder();
+        for(String token : tokens){
+            int split = token.lastIndexOf('/');
+            String word = split > 0 ? token.substring(0, split) : token;
+            CoreLabel label = new CoreLabel();
+            label.setWord(word);
+            label.set(TextAnnotation.class, word);
+            label.setIndex(labels.size() + 1);
+            if(split > 0){
+                label.set(PartOfSpeechAnnotation.class, token.substring(split + 1));
+            }
+            labels.add(label);
+            if(text.length() > 0){
+                text.append(' ');
+            }
+            text.append(word);
+        }
+        CoreMap sentence = new ArrayCoreMap();
+        sentence.set(TextAnnotation.class, text.toString());
+        sentence.set(TokensAnnotation.class, labels);
+        return sentence;
+    }
+
+    /**
+     * @param text the text of the sentence
+     * @param tokens the number of (empty) tokens
+     * @return a sentence with the parsed text and number of tokens
+     */
+    public static CoreMap sentenceOfLength(String text, int tokens){
+        List<CoreLabel> labels = new ArrayList<CoreLabel>();
+        for(int i = 0; i < tokens; i++){
+            labels.add(new CoreLabel());
+        }
+        CoreMap sentence = new ArrayCoreMap();
+        sentence.set(TextAnnotation.class, text);
+        sentence.set(TokensAnnotation.class, labels);
+        return sentence;
+    }
+}
@@ -0,0 +1,55 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestAdmissionController {
+
+    @Test
+    public void testQueueLimit(){
+        AdmissionController controller = new AdmissionController(2, 0, 0);
+        controller.admit(100);
+        controller.admit(100);
+        try {
+            controller.admit(100);
+            Assert.fail("3rd text MUST BE rejected");
+        } catch (AnalysisRejectedException e) {
+            Assert.assertTrue(e.getRetryAfter() >= 1);
+        }
+        controller.dequeued(100, 2500);
+        controller.admit(100);
+        Assert.assertEquals(2, controller.getQueued());
+        Assert.assertEquals(1, controller.getRejected());
+        Assert.assertEquals(3, controller.getRetryAfter());
+    }
+
+    @Test
+    public void testCharLimit(){
+        AdmissionController controller = new AdmissionController(0, 1000, 0);
+        //a single text longer as the limit is admitted to an empty queue
+        controller.admit(1500);
+        try {
+            controller.admit(10);
+            Assert.fail("text MUST BE rejected");
+        } catch (AnalysisRejectedException e) {
+            //expected
+        }
+        controller.dequeued(1500, 10);
+        controller.admit(600);
+        controller.admit(400);
+        Assert.assertEquals(1000, controller.getQueuedChars());
+    }
+
+    @Test
+    public void testFreeHeap(){
+        //more free heap as possible
+        AdmissionController controller = new AdmissionController(0, 0, Long.MAX_VALUE);
+        try {
+            controller.admit(10);
+            Assert.fail("text MUST BE rejected");
+        } catch (AnalysisRejectedException e) {
+            //expected
+        }
+        Assert.assertEquals(0, controller.getQueued());
+    }
+}
@@ -0,0 +1,120 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.Annotator;
+import edu.stanford.nlp.pipeline.AnnotatorFactory;
+
+public class TestAnnotatorRegistry {
+
+    private static final AnnotatorRegistry registry = AnnotatorRegistry.getInstance();
+
+    @Test
+    public void testSharedBySignature(){
+        AtomicInteger created = new AtomicInteger();
+        Properties enUs = new Properties();
+        enUs.setProperty("pos.model", "test/english.tagger");
+        enUs.setProperty("ner.model", "test/english.crf.ser.gz");
+        Properties enGb = new Properties(enUs); //same config via defaults
+
+        Annotator a1 = registry.acquire(new DummyFactory("pos", enUs, created));
+        Annotator a2 = registry.acquire(new DummyFactory("pos", enGb, created));
+        Assert.assertSame(a1, a2);
+        Assert.assertEquals(1, created.get());
+
+        Properties other = new Properties(enUs);
+        other.setProperty("pos.model", "test/other.tagger");
+        Annotator a3 = registry.acquire(new DummyFactory("pos", other, created));
+        Assert.assertNotSame(a1, a3);
+        Assert.assertEquals(2, created.get());
+
+        String signature = new DummyFactory("pos", enUs, created).signature();
+        Assert.assertFalse(registry.release(signature));
+        Assert.assertTrue(registry.release(signature));
+        Assert.assertTrue(registry.release(new DummyFactory("pos", other, created).signature()));
+        //a new acquire needs to create a new instance
+        Annotator a4 = registry.acquire(new DummyFactory("pos", enUs, created));
+        Assert.assertNotSame(a1, a4);
+        Assert.assertEquals(3, created.get());
+        Assert.assertTrue(registry.release(signature));
+    }
+
+    @Test
+    public void testSignatureIgnoresOtherProperties(){
+        Properties p1 = new Properties();
+        p1.setProperty("pos.model", "test/english.tagger");
+        p1.setProperty("ner.model", "test/english.crf.ser.gz");
+        Properties p2 = new Properties();
+        p2.setProperty("pos.model", "test/english.tagger");
+        Assert.assertEquals(LangPipeline.createSignature("pos", p1, "pos."),
+            LangPipeline.createSignature("pos", p2, "pos."));
+        Assert.assertFalse(LangPipeline.createSignature("ner", p1, "ner.").equals(
+            LangPipeline.createSignature("ner", p2, "ner.")));
+    }
+
+    /**
+     * A replaced model file needs to result in a new signature
+     */
+    @Test
+    public void testSignatureIncludesModelStamp() throws IOException {
+        File model = File.createTempFile("english", ".tagger");
+        try {
+            FileUtils.writeStringToFile(model, "model", "UTF-8");
+            Properties properties = new Properties();
+            properties.setProperty("pos.model", model.getAbsolutePath());
+            String signature = LangPipeline.createSignature("pos", properties, "pos.");
+            Assert.assertEquals(signature, LangPipeline.createSignature("pos", properties, "pos."));
+            FileUtils.writeStringToFile(model, "replaced model", "UTF-8");
+            Assert.assertFalse(signature.equals(LangPipeline.createSignature("pos", properties, "pos.")));
+        } finally {
+            model.delete();
+        }
+    }
+
+    private static class DummyFactory extends AnnotatorFactory {
+
+        private static final long serialVersionUID = 1L;
+        private final String name;
+        private final Properties properties;
+        private final AtomicInteger created;
+
+        DummyFactory(String name, Properties properties, AtomicInteger created) {
+            super(new Properties());
+            this.name = name;
+            this.properties = properties;
+            this.created = created;
+        }
+
+        @Override
+        public Annotator create() {
+            created.incrementAndGet();
+            return new Annotator() {
+                @Override
+                public void annotate(Annotation annotation) {}
+                @Override
+                public Set<Requirement> requirementsSatisfied() {
+                    return Collections.emptySet();
+                }
+                @Override
+                public Set<Requirement> requires() {
+                    return Collections.emptySet();
+                }
+            };
+        }
+
+        @Override
+        public String signature() {
+            return LangPipeline.createSignature(name, properties, name + '.');
+        }
+    }
+}
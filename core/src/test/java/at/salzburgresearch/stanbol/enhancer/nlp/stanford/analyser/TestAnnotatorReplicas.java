@@ -0,0 +1,120 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.Annotator;
+
+public class TestAnnotatorReplicas {
+
+    /**
+     * Every call checks out an instance for its exclusive use
+     */
+    @Test
+    public void testExclusiveUse() throws InterruptedException, ExecutionException {
+        final AtomicInteger concurrent = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+        final AnnotatorReplicas replicas = new AnnotatorReplicas("test", Arrays.<Annotator>asList(
+            new StatefulAnnotator(concurrent, maxConcurrent), 
+            new StatefulAnnotator(concurrent, maxConcurrent)));
+        ExecutorService requests = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> tasks = new ArrayList<Future<?>>();
+            for(int i = 0; i < 4; i++){
+                tasks.add(requests.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for(int j = 0; j < 2; j++){
+                            replicas.annotate(new Annotation("test"));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for(Future<?> task : tasks){
+                task.get(); //fails if an instance was used concurrently
+            }
+        } finally {
+            requests.shutdown();
+        }
+        Assert.assertEquals(2, maxConcurrent.get());
+        Assert.assertEquals(8, replicas.getCalls());
+        Assert.assertEquals(2, replicas.getAvailable());
+        //4 requests compete for 2 instances
+        Assert.assertTrue(replicas.getWaitTime() > 0);
+        //sleeping does not use the CPU
+        Assert.assertTrue(replicas.getBlockedTime() > 0);
+    }
+
+    /**
+     * A single instance is shared by concurrent calls
+     */
+    @Test
+    public void testShared() {
+        Annotator annotator = new StatefulAnnotator(new AtomicInteger(), new AtomicInteger());
+        AnnotatorReplicas replicas = new AnnotatorReplicas("test", 
+            Collections.singletonList(annotator));
+        Assert.assertEquals(1, replicas.getSize());
+        Assert.assertSame(annotator, replicas.getReplicas().get(0));
+        replicas.annotate(new Annotation("test"));
+        replicas.annotate(new Annotation("test"));
+        Assert.assertEquals(2, replicas.getCalls());
+        Assert.assertEquals(1, replicas.getAvailable());
+        Assert.assertEquals(0, replicas.getWaitTime());
+    }
+
+    private static class StatefulAnnotator implements Annotator {
+
+        private final AtomicBoolean inUse = new AtomicBoolean();
+        private final AtomicInteger concurrent;
+        private final AtomicInteger maxConcurrent;
+
+        StatefulAnnotator(AtomicInteger concurrent, AtomicInteger maxConcurrent){
+            this.concurrent = concurrent;
+            this.maxConcurrent = maxConcurrent;
+        }
+
+        @Override
+        public void annotate(Annotation annotation) {
+            if(!inUse.compareAndSet(false, true)){
+                throw new IllegalStateException("used concurrently");
+            }
+            int current = concurrent.incrementAndGet();
+            synchronized (maxConcurrent) {
+                maxConcurrent.set(Math.max(current, maxConcurrent.get()));
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                concurrent.decrementAndGet();
+                inUse.set(false);
+            }
+        }
+
+        @Override
+        public Set<Requirement> requirementsSatisfied() {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public Set<Requirement> requires() {
+            return Collections.emptySet();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestConcurrencyLimiter {
+
+    @Test
+    public void testAdditiveIncrease() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 4);
+        //slow window -> multiplicative decrease from the initial (max) limit
+        window(limiter, 4, 1000);
+        window(limiter, 4, 2000);
+        Assert.assertEquals(3, limiter.getLimit());
+        //saturated windows with baseline latency -> additive increase
+        window(limiter, 3, 1000);
+        Assert.assertEquals(4, limiter.getLimit());
+        window(limiter, 4, 1000);
+        Assert.assertEquals(4, limiter.getLimit()); //max
+    }
+
+    @Test
+    public void testMinimum() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 3);
+        window(limiter, 3, 100);
+        for(int i = 0; i < 5; i++){
+            window(limiter, limiter.getLimit(), 1000);
+        }
+        Assert.assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void testUnusedLimitNotIncreased() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 4);
+        window(limiter, 4, 1000);
+        window(limiter, 4, 2000);
+        Assert.assertEquals(3, limiter.getLimit());
+        for(int i = 0; i < 3; i++){ //sequential requests
+            limiter.acquire();
+            limiter.release(1000, 1);
+        }
+        Assert.assertEquals(3, limiter.getLimit());
+    }
+
+    /**
+     * Processes a window of concurrent requests with the parsed latency
+     */
+    private void window(ConcurrencyLimiter limiter, int concurrency, long latency) 
+            throws InterruptedException {
+        for(int i = 0; i < concurrency; i++){
+            limiter.acquire();
+        }
+        for(int i = 0; i < concurrency; i++){
+            limiter.release(latency * 10, 10);
+        }
+    }
+}
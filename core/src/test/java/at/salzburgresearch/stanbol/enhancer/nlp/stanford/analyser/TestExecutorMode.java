@@ -0,0 +1,95 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestExecutorMode {
+
+    @Test
+    public void testParse() {
+        Assert.assertEquals(ExecutorMode.FORKJOIN, ExecutorMode.parse(" ForkJoin "));
+        ExecutorService executor = ExecutorMode.parse("fixed").create(2);
+        try {
+            Assert.assertTrue(executor instanceof PriorityExecutor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testUnknownMode() {
+        ExecutorMode.parse("green");
+    }
+
+    @Test
+    public void testLimitedExecutor() throws InterruptedException, ExecutionException {
+        final LimitedExecutor executor = new LimitedExecutor(Executors.newCachedThreadPool(), 2);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        try {
+            List<Future<Integer>> tasks = new ArrayList<Future<Integer>>();
+            for(int i = 0; i < 8; i++){
+                tasks.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        int current = running.incrementAndGet();
+                        synchronized (maxRunning) {
+                            maxRunning.set(Math.max(current, maxRunning.get()));
+                        }
+                        Thread.sleep(10);
+                        running.decrementAndGet();
+                        return current;
+                    }
+                }));
+            }
+            for(Future<Integer> task : tasks){
+                Assert.assertTrue(task.get() <= 2);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(2, maxRunning.get());
+        Assert.assertEquals(0, executor.getRunning());
+    }
+
+    /**
+     * shutdownNow() MUST return the parsed tasks that did not run
+     */
+    @Test
+    public void testShutdownNow() throws InterruptedException {
+        LimitedExecutor executor = new LimitedExecutor(Executors.newCachedThreadPool(), 1);
+        final CountDownLatch hold = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    hold.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        for(int i = 0; i < 50 && executor.getRunning() < 1; i++){
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, executor.getRunning());
+        Runnable waiting1 = new Runnable() { @Override public void run() {} };
+        Runnable waiting2 = new Runnable() { @Override public void run() {} };
+        executor.execute(waiting1);
+        executor.execute(waiting2);
+        List<Runnable> notStarted = executor.shutdownNow();
+        Assert.assertEquals(2, notStarted.size());
+        Assert.assertTrue(notStarted.contains(waiting1));
+        Assert.assertTrue(notStarted.contains(waiting2));
+    }
+}
@@ -0,0 +1,99 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.stanford.nlp.ling.CoreAnnotations.SentencesAnnotation;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.Annotator;
+
+public class TestLangPipeline {
+
+    /**
+     * dcoref without parse needs to fail before any model is loaded
+     */
+    @Test
+    public void testValidateBeforeLoading() {
+        Properties properties = new Properties();
+        properties.setProperty("annotators", "tokenize,ssplit,pos,dcoref");
+        //a model that would fail to load
+        properties.setProperty("pos.model", "not/existing.tagger");
+        try {
+            new LangPipeline("en", properties);
+            Assert.fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("dcoref"));
+        }
+    }
+
+    /**
+     * Annotators acquired before the initialisation fails need to be released
+     */
+    @Test
+    public void testReleaseOnInitFailure() {
+        int size = AnnotatorRegistry.getInstance().size();
+        Properties properties = new Properties();
+        properties.setProperty("annotators", "tokenize,ssplit");
+        properties.setProperty(PipelineStages.THREADS_PROPERTY, "not a number");
+        try {
+            new LangPipeline("en", properties);
+            Assert.fail("NumberFormatException expected");
+        } catch (NumberFormatException e) {
+            //expected
+        }
+        Assert.assertEquals(size, AnnotatorRegistry.getInstance().size());
+    }
+
+    /**
+     * Replicated annotators have own instances that are not shared by the
+     * registry. Other annotators are the registered instances.
+     */
+    @Test
+    public void testReplicas() throws InterruptedException {
+        int size = AnnotatorRegistry.getInstance().size();
+        Properties properties = new Properties();
+        properties.setProperty("annotators", "tokenize,ssplit");
+        properties.setProperty(LangPipeline.REPLICAS_PROPERTY, "2");
+        properties.setProperty(LangPipeline.REPLICATED_ANNOTATORS_PROPERTY, "tokenize");
+        LangPipeline pipeline = new LangPipeline("en", properties);
+        //shares the registered instances
+        Properties plain = new Properties();
+        plain.setProperty("annotators", "tokenize,ssplit");
+        LangPipeline shared = new LangPipeline("en", plain);
+        try {
+            AnnotatorReplicas tokenize = getReplicas(pipeline, "tokenize");
+            Assert.assertEquals(2, tokenize.getSize());
+            Assert.assertNotSame(tokenize.getReplicas().get(0), tokenize.getReplicas().get(1));
+            Annotator registered = getReplicas(shared, "tokenize").getReplicas().get(0);
+            Assert.assertFalse(tokenize.getReplicas().contains(registered));
+            AnnotatorReplicas ssplit = getReplicas(pipeline, "ssplit");
+            Assert.assertEquals(1, ssplit.getSize());
+            Assert.assertSame(getReplicas(shared, "ssplit").getReplicas().get(0), 
+                ssplit.getReplicas().get(0));
+            
+            Assert.assertEquals(2, pipeline.getReplicaCount());
+            
+            Annotation annotation = new Annotation("The first sentence. The second one.");
+            pipeline.annotate(annotation);
+            Assert.assertEquals(2, annotation.get(SentencesAnnotation.class).size());
+            Assert.assertEquals(1, tokenize.getCalls());
+            Assert.assertEquals(2, tokenize.getAvailable());
+        } finally {
+            pipeline.close();
+            shared.close();
+        }
+        Assert.assertEquals(size, AnnotatorRegistry.getInstance().size());
+    }
+
+    private static AnnotatorReplicas getReplicas(LangPipeline pipeline, String name){
+        for(AnnotatorReplicas replicas : pipeline.getReplicas()){
+            if(name.equals(replicas.getName())){
+                return replicas;
+            }
+        }
+        Assert.fail("no replicas of " + name);
+        return null;
+    }
+}
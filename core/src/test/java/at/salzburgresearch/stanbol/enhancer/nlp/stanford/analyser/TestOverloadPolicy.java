@@ -0,0 +1,101 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.CircuitBreaker.State;
+
+public class TestOverloadPolicy {
+
+    @Test
+    public void testShedAndRecover(){
+        OverloadPolicy policy = new OverloadPolicy(4, 0, null);
+        for(int i = 0; i < 4; i++){
+            Assert.assertFalse(policy.requestStarted());
+        }
+        Assert.assertTrue(policy.requestStarted()); //5th request
+        //stays overloaded until the recovery ratio (50%) is reached
+        policy.requestCompleted(10);
+        policy.requestCompleted(10);
+        Assert.assertTrue(policy.isOverloaded());
+        policy.requestCompleted(10);
+        Assert.assertFalse(policy.isOverloaded());
+        policy.requestCompleted(10);
+        policy.requestCompleted(10);
+        Assert.assertEquals(0, policy.getRequests());
+    }
+
+    @Test
+    public void testCircuitBreaker() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("en:parse", 3, 50);
+        Assert.assertTrue(breaker.allowRequest());
+        Assert.assertFalse(breaker.recordFailure());
+        Assert.assertFalse(breaker.recordFailure());
+        Assert.assertTrue(breaker.recordFailure());
+        Assert.assertEquals(State.OPEN, breaker.getState());
+        Assert.assertFalse(breaker.allowRequest());
+        Thread.sleep(60);
+        //a single trial call is allowed
+        Assert.assertTrue(breaker.allowRequest());
+        Assert.assertFalse(breaker.allowRequest());
+        Assert.assertTrue(breaker.recordFailure()); //trial failed
+        Assert.assertEquals(State.OPEN, breaker.getState());
+        Thread.sleep(60);
+        Assert.assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+        Assert.assertEquals(State.CLOSED, breaker.getState());
+        Assert.assertEquals(2, breaker.getTrips());
+    }
+
+    @Test
+    public void testTrialRelease() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("en:ner", 1, 50);
+        Assert.assertTrue(breaker.recordFailure());
+        Assert.assertTrue(breaker.getRemainingOpenTime() > 0);
+        Thread.sleep(60);
+        Assert.assertEquals(0, breaker.getRemainingOpenTime());
+        Assert.assertTrue(breaker.allowRequest());
+        Assert.assertFalse(breaker.allowRequest());
+        //the request with the trial was cancelled
+        breaker.releaseTrial();
+        Assert.assertTrue(breaker.allowRequest());
+        //trials without outcome expire after the open duration
+        Assert.assertFalse(breaker.allowRequest());
+        Thread.sleep(60);
+        Assert.assertTrue(breaker.allowRequest());
+        Assert.assertEquals(State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testRequiredAnnotators(){
+        OverloadPolicy policy = new OverloadPolicy(0, 0, null);
+        policy.setCircuitBreaker(2, 10000);
+        policy.setSlowAnnotatorThreshold(10);
+        //all annotators have a breaker
+        Assert.assertFalse(policy.isOptional("ner"));
+        Assert.assertTrue(policy.allowAnnotator("en", "ner"));
+        //slow required annotators are not recorded as failures
+        policy.annotatorSucceeded("en", "ner", 100);
+        policy.annotatorSucceeded("en", "ner", 100);
+        Assert.assertTrue(policy.allowAnnotator("en", "ner"));
+        policy.annotatorFailed("en", "ner", new IllegalStateException("test"));
+        policy.annotatorFailed("en", "ner", new IllegalStateException("test"));
+        Assert.assertFalse(policy.allowAnnotator("en", "ner"));
+        //slow optional annotators are
+        policy.annotatorSucceeded("en", "parse", 100);
+        policy.annotatorSucceeded("en", "parse", 100);
+        Assert.assertFalse(policy.allowAnnotator("en", "parse"));
+    }
+
+    @Test
+    public void testRequestAborted(){
+        OverloadPolicy policy = new OverloadPolicy(1, 0, null);
+        policy.requestStarted();
+        Assert.assertTrue(policy.requestStarted());
+        policy.requestAborted();
+        policy.requestAborted();
+        Assert.assertEquals(0, policy.getRequests());
+        Assert.assertFalse(policy.isOverloaded());
+        Assert.assertEquals(0d, policy.getLatency(), 0d);
+    }
+}
@@ -0,0 +1,142 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+import static edu.stanford.nlp.pipeline.Annotator.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.stanford.nlp.ling.CoreAnnotations.LemmaAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.NamedEntityTagAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.PartOfSpeechAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.SentencesAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.TokensAnnotation;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.Annotator;
+import edu.stanford.nlp.util.ArrayCoreMap;
+import edu.stanford.nlp.util.CoreMap;
+
+public class TestParallelBranches {
+
+    @Test
+    public void testComputeWaves() {
+        Map<String,Annotator> annotators = new LinkedHashMap<String,Annotator>();
+        annotators.put("tokenize", new DummyAnnotator(set(), set(TOKENIZE_REQUIREMENT)));
+        annotators.put("ssplit", new DummyAnnotator(set(TOKENIZE_REQUIREMENT), set(SSPLIT_REQUIREMENT)));
+        annotators.put("pos", new DummyAnnotator(set(TOKENIZE_REQUIREMENT, SSPLIT_REQUIREMENT),
+            set(POS_REQUIREMENT)));
+        annotators.put("lemma", new DummyAnnotator(set(POS_REQUIREMENT), set(LEMMA_REQUIREMENT)));
+        annotators.put("ner", new DummyAnnotator(set(POS_REQUIREMENT), set(NER_REQUIREMENT)));
+        annotators.put("regexner", new DummyAnnotator(set(TOKENIZE_REQUIREMENT),
+            set(new Requirement("regexner"))));
+        annotators.put("parse", new DummyAnnotator(set(POS_REQUIREMENT), set(PARSE_REQUIREMENT)));
+        annotators.put("dcoref", new DummyAnnotator(set(PARSE_REQUIREMENT, NER_REQUIREMENT),
+            set(DETERMINISTIC_COREF_REQUIREMENT)));
+        List<List<String>> waves = LangPipeline.computeWaves(annotators);
+        Assert.assertEquals(Arrays.asList(
+            Arrays.asList("tokenize"),
+            Arrays.asList("ssplit"),
+            Arrays.asList("pos"),
+            Arrays.asList("lemma", "ner", "parse"),
+            Arrays.asList("regexner", "dcoref")), waves);
+    }
+
+    @Test
+    public void testCopyAndMerge() {
+        Annotation annotation = new Annotation("Hello World");
+        List<CoreLabel> tokens = new ArrayList<CoreLabel>();
+        for(String word : new String[]{"Hello", "World"}){
+            CoreLabel token = new CoreLabel();
+            token.setWord(word);
+            token.set(PartOfSpeechAnnotation.class, "NNP");
+            tokens.add(token);
+        }
+        annotation.set(TokensAnnotation.class, tokens);
+        CoreMap sentence = new ArrayCoreMap();
+        sentence.set(TokensAnnotation.class, tokens);
+        annotation.set(SentencesAnnotation.class, Collections.singletonList(sentence));
+
+        AnnotationCopy lemmas = new AnnotationCopy(annotation);
+        AnnotationCopy entities = new AnnotationCopy(annotation);
+        //the tokens of the sentences are the copied document tokens
+        Assert.assertSame(lemmas.get().get(TokensAnnotation.class).get(0),
+            lemmas.get().get(SentencesAnnotation.class).get(0).get(TokensAnnotation.class).get(0));
+        for(CoreLabel token : lemmas.get().get(TokensAnnotation.class)){
+            token.setLemma(token.word().toLowerCase());
+            token.set(PartOfSpeechAnnotation.class, "XX"); //replaces the existing tag
+        }
+        for(CoreLabel token : entities.get().get(TokensAnnotation.class)){
+            token.setNER("O");
+        }
+        //nothing visible before the merge
+        Assert.assertNull(tokens.get(0).get(LemmaAnnotation.class));
+        Assert.assertTrue(lemmas.merge().isEmpty());
+        Assert.assertTrue(entities.merge().isEmpty());
+        Assert.assertEquals("hello", tokens.get(0).get(LemmaAnnotation.class));
+        Assert.assertEquals("O", tokens.get(1).get(NamedEntityTagAnnotation.class));
+        Assert.assertEquals("XX", tokens.get(1).get(PartOfSpeechAnnotation.class));
+        Assert.assertSame(tokens, annotation.get(TokensAnnotation.class));
+    }
+
+    /**
+     * Annotations written by two annotators of a wave are not merged
+     */
+    @Test
+    public void testMergeConflict() {
+        Annotation annotation = new Annotation("Hello");
+        CoreLabel token = new CoreLabel();
+        token.setWord("Hello");
+        token.set(PartOfSpeechAnnotation.class, "NNP");
+        annotation.set(TokensAnnotation.class, Collections.singletonList(token));
+
+        AnnotationCopy first = new AnnotationCopy(annotation);
+        AnnotationCopy second = new AnnotationCopy(annotation);
+        first.get().get(TokensAnnotation.class).get(0).set(PartOfSpeechAnnotation.class, "UH");
+        CoreLabel copy = second.get().get(TokensAnnotation.class).get(0);
+        copy.set(PartOfSpeechAnnotation.class, "NN");
+        copy.setNER("O");
+        Assert.assertTrue(first.merge().isEmpty());
+        Set<Class<?>> conflicts = second.merge();
+        Assert.assertEquals(Collections.singleton(PartOfSpeechAnnotation.class), conflicts);
+        //nothing of the conflicting copy is merged
+        Assert.assertEquals("UH", token.get(PartOfSpeechAnnotation.class));
+        Assert.assertNull(token.get(NamedEntityTagAnnotation.class));
+    }
+
+    private static Set<Requirement> set(Requirement...requirements){
+        return new HashSet<Requirement>(Arrays.asList(requirements));
+    }
+
+    private static class DummyAnnotator implements Annotator {
+
+        private final Set<Requirement> requires;
+        private final Set<Requirement> satisfied;
+
+        DummyAnnotator(Set<Requirement> requires, Set<Requirement> satisfied){
+            this.requires = requires;
+            this.satisfied = satisfied;
+        }
+
+        @Override
+        public void annotate(Annotation annotation) {}
+
+        @Override
+        public Set<Requirement> requirementsSatisfied() {
+            return satisfied;
+        }
+
+        @Override
+        public Set<Requirement> requires() {
+            return requires;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestPipelineStages {
+
+    @Test
+    public void testRebalance() throws InterruptedException {
+        List<String> names = Arrays.asList("fast", "slow");
+        PipelineStages stages = new PipelineStages("en", names, 4, 8);
+        Assert.assertEquals(Integer.valueOf(2), stages.getWorkers().get("slow"));
+        AtomicInteger processed = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(8);
+        long start = System.currentTimeMillis();
+        for(int i = 0; i < 8; i++){
+            stages.dispatch("fast", new SleepJob(stages, names, Arrays.asList(1L, 20L), processed, done));
+        }
+        //the calling thread does not wait for the documents
+        Assert.assertTrue(System.currentTimeMillis() - start < 100);
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(16, processed.get());
+        stages.rebalance();
+        //the slow stage gets most of the workers
+        Assert.assertEquals(Integer.valueOf(1), stages.getWorkers().get("fast"));
+        Assert.assertEquals(Integer.valueOf(3), stages.getWorkers().get("slow"));
+        Assert.assertEquals(Integer.valueOf(0), stages.getDocuments().get("slow"));
+        stages.close();
+    }
+
+    /**
+     * The total number of workers MUST NOT exceed the number of threads
+     */
+    @Test
+    public void testWorkerLimit() throws InterruptedException {
+        List<String> names = Arrays.asList("a", "b", "c", "d");
+        PipelineStages stages = new PipelineStages("en", names, 5, 8);
+        AtomicInteger processed = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(4);
+        for(int i = 0; i < 4; i++){
+            stages.dispatch("a", new SleepJob(stages, names, Arrays.asList(5L, 5L, 5L, 5L), processed, done));
+        }
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        stages.rebalance();
+        Assert.assertEquals(5, total(stages));
+        for(String name : names){
+            Assert.assertTrue(stages.getWorkers().get(name) >= 1);
+        }
+        stages.close();
+        //every stage needs a worker
+        stages = new PipelineStages("en", names, 2, 8);
+        Assert.assertEquals(4, total(stages));
+        stages.close();
+    }
+
+    private static int total(PipelineStages stages){
+        int total = 0;
+        for(Integer workers : stages.getWorkers().values()){
+            total += workers;
+        }
+        return total;
+    }
+
+    /**
+     * Passes the stages in the given order and sleeps for the given times
+     */
+    private static class SleepJob implements PipelineStages.Job {
+
+        private final PipelineStages stages;
+        private final List<String> names;
+        private final List<Long> sleeps;
+        private final AtomicInteger processed;
+        private final CountDownLatch done;
+        private int stage;
+
+        SleepJob(PipelineStages stages, List<String> names, List<Long> sleeps, 
+                AtomicInteger processed, CountDownLatch done){
+            this.stages = stages;
+            this.names = names;
+            this.sleeps = sleeps;
+            this.processed = processed;
+            this.done = done;
+        }
+
+        @Override
+        public void process() {
+            try {
+                Thread.sleep(sleeps.get(stage));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            processed.incrementAndGet();
+        }
+
+        @Override
+        public void next() {
+            stage++;
+            if(stage < sleeps.size()){
+                stages.dispatch(names.get(stage), this);
+            } else {
+                done.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestPriorityExecutor {
+
+    @Test
+    public void testCheapAndInteractiveFirst() throws InterruptedException, ExecutionException {
+        PriorityExecutor executor = new PriorityExecutor(1);
+        try {
+            final CountDownLatch blocked = new CountDownLatch(1);
+            executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    blocked.await();
+                    return null;
+                }
+            });
+            List<String> order = Collections.synchronizedList(new ArrayList<String>());
+            executor.submit(task("bulk", order), 1, true);
+            executor.submit(task("report", order), 5000, false);
+            executor.submit(task("fifo", order)); //cost of zero
+            Future<?> last = executor.submit(task("tweet", order), 10, false);
+            blocked.countDown();
+            last.get();
+            executor.submit(task("done", order)).get();
+            Assert.assertEquals(Arrays.asList("fifo", "tweet", "report", "bulk", "done"), order);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCostModel(){
+        CostModel model = new CostModel();
+        //default estimate before the first measurement
+        Assert.assertEquals(1, model.estimate("en", null, 100), 0.001);
+        model.record("en", null, 1000, 5000000L); //5000ns per char
+        Assert.assertEquals(0.5, model.estimate("en", null, 100), 0.001);
+        //unknown combinations use the overall average
+        double overall = model.estimate("de", Arrays.asList("pos"), 100);
+        Assert.assertTrue(overall < 1 && overall > 0.5);
+    }
+
+    private static Callable<Void> task(final String name, final List<String> order){
+        return new Callable<Void>() {
+            @Override
+            public Void call() {
+                order.add(name);
+                return null;
+            }
+        };
+    }
+}
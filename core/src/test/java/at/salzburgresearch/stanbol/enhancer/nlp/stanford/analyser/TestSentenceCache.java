@@ -0,0 +1,144 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.stanford.nlp.ling.CoreAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.SentencesAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.TokensAnnotation;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.ling.IndexedWord;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.Annotator;
+import edu.stanford.nlp.semgraph.SemanticGraph;
+import edu.stanford.nlp.semgraph.SemanticGraphCoreAnnotations.BasicDependenciesAnnotation;
+import edu.stanford.nlp.trees.GrammaticalRelation;
+import edu.stanford.nlp.util.CoreMap;
+
+import static at.salzburgresearch.stanbol.enhancer.nlp.stanford.AnnotationFixtures.sentence;
+import static at.salzburgresearch.stanbol.enhancer.nlp.stanford.AnnotationFixtures.text;
+
+public class TestSentenceCache {
+
+    @Test
+    public void testCache() {
+        SentenceCache cache = new SentenceCache(2);
+        CountingAnnotator counting = new CountingAnnotator();
+        Annotator annotator = cache.wrap("parse", counting);
+
+        annotator.annotate(text(sentence("Hello/NNP", "World/NNP"), sentence("Good/NNP", "bye/NNP")));
+        Assert.assertEquals(2, counting.processed.get());
+        Assert.assertEquals(2, cache.getSize());
+        Assert.assertTrue(cache.getEstimatedBytes() > 0);
+
+        //same words and tags: only the new sentence is processed
+        Annotation text = text(sentence("Good/NNP", "bye/NNP"), sentence("Hello/NNP", "Europe/NNP"));
+        annotator.annotate(text);
+        Assert.assertEquals(3, counting.processed.get());
+        for(CoreMap sentence : text.get(SentencesAnnotation.class)){
+            Assert.assertNotNull(sentence.get(CountAnnotation.class));
+        }
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(3, cache.getMisses());
+        //the least recently used sentence was evicted
+        Assert.assertEquals(2, cache.getSize());
+        annotator.annotate(text(sentence("Hello/NNP", "World/NNP")));
+        Assert.assertEquals(4, counting.processed.get());
+    }
+
+    /**
+     * Cached dependency graphs are rebuilt on the tokens of the sentence
+     */
+    @Test
+    public void testDependencies() {
+        SentenceCache cache = new SentenceCache(10);
+        Annotator annotator = cache.wrap("parse", new DependencyAnnotator());
+        annotator.annotate(text(sentence("Hello/NNP", "World/NNP")));
+        //the graph is included in the estimate
+        SentenceCache other = new SentenceCache(10);
+        other.wrap("parse", new CountingAnnotator()).annotate(text(sentence("Hello/NNP", "World/NNP")));
+        Assert.assertTrue(cache.getEstimatedBytes() > other.getEstimatedBytes());
+
+        CoreMap sentence = sentence("Hello/NNP", "World/NNP");
+        annotator.annotate(text(sentence));
+        Assert.assertEquals(1, cache.getHits());
+        SemanticGraph graph = sentence.get(BasicDependenciesAnnotation.class);
+        List<CoreLabel> tokens = sentence.get(TokensAnnotation.class);
+        Assert.assertEquals(2, graph.size());
+        Assert.assertEquals(1, graph.edgeCount());
+        IndexedWord root = graph.getFirstRoot();
+        Assert.assertEquals("Hello", root.word());
+        IndexedWord child = graph.getChildList(root).get(0);
+        Assert.assertEquals(2, child.index());
+        //the words are backed by the tokens of the current sentence
+        tokens.get(1).setNER("LOCATION");
+        Assert.assertEquals("LOCATION", child.ner());
+    }
+
+    private static class CountAnnotation implements CoreAnnotation<Integer> {
+        @Override
+        public Class<Integer> getType() {
+            return Integer.class;
+        }
+    }
+
+    /**
+     * Adds a dependency from the first to all other tokens
+     */
+    private static class DependencyAnnotator implements Annotator {
+
+        @Override
+        public void annotate(Annotation annotation) {
+            for(CoreMap sentence : annotation.get(SentencesAnnotation.class)){
+                List<CoreLabel> tokens = sentence.get(TokensAnnotation.class);
+                SemanticGraph graph = new SemanticGraph();
+                IndexedWord root = new IndexedWord(tokens.get(0));
+                graph.addVertex(root);
+                for(int i = 1; i < tokens.size(); i++){
+                    IndexedWord word = new IndexedWord(tokens.get(i));
+                    graph.addVertex(word);
+                    graph.addEdge(root, word, GrammaticalRelation.DEPENDENT, 1.0, false);
+                }
+                graph.setRoots(Collections.singleton(root));
+                sentence.set(BasicDependenciesAnnotation.class, graph);
+            }
+        }
+
+        @Override
+        public Set<Requirement> requirementsSatisfied() {
+            return Collections.singleton(PARSE_REQUIREMENT);
+        }
+
+        @Override
+        public Set<Requirement> requires() {
+            return Collections.emptySet();
+        }
+    }
+
+    private static class CountingAnnotator implements Annotator {
+
+        final AtomicInteger processed = new AtomicInteger();
+
+        @Override
+        public void annotate(Annotation annotation) {
+            for(CoreMap sentence : annotation.get(SentencesAnnotation.class)){
+                sentence.set(CountAnnotation.class, processed.incrementAndGet());
+            }
+        }
+
+        @Override
+        public Set<Requirement> requirementsSatisfied() {
+            return Collections.singleton(PARSE_REQUIREMENT);
+        }
+
+        @Override
+        public Set<Requirement> requires() {
+            return Collections.emptySet();
+        }
+    }
+}
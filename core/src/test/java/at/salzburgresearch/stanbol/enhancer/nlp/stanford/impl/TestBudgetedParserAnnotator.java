@@ -0,0 +1,152 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.stanford.nlp.ling.CoreAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.SentencesAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.TextAnnotation;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.Annotator;
+import edu.stanford.nlp.util.CoreMap;
+
+import static at.salzburgresearch.stanbol.enhancer.nlp.stanford.AnnotationFixtures.sentenceOfLength;
+import static at.salzburgresearch.stanbol.enhancer.nlp.stanford.AnnotationFixtures.text;
+
+public class TestBudgetedParserAnnotator {
+
+    @Test
+    public void testBudget() {
+        BudgetedParserAnnotator parser = new BudgetedParserAnnotator(
+            new DummyParser("full", 500), new DummyParser("flat", 0), 100, 5);
+        List<CoreMap> sentences = new ArrayList<CoreMap>();
+        sentences.add(sentenceOfLength("fast", 3));
+        sentences.add(sentenceOfLength("slow", 3)); //exceeds the time budget
+        sentences.add(sentenceOfLength("long", 10)); //exceeds the length budget
+        sentences.add(sentenceOfLength("fast", 5));
+        parser.annotate(text(sentences));
+        Assert.assertEquals("full", sentences.get(0).get(ParseAnnotation.class));
+        Assert.assertEquals("flat", sentences.get(1).get(ParseAnnotation.class));
+        Assert.assertEquals("flat", sentences.get(2).get(ParseAnnotation.class));
+        Assert.assertEquals("full", sentences.get(3).get(ParseAnnotation.class));
+        Assert.assertEquals(2, parser.getParsed());
+        Assert.assertEquals(2, parser.getFallbacks());
+        parser.close();
+    }
+
+    /**
+     * Runaway parses occupying all threads of the pool cause the fallback
+     * parse for all sentences until they complete
+     */
+    @Test
+    public void testRunaways() throws InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        CountDownLatch release = new CountDownLatch(1);
+        BudgetedParserAnnotator parser = new BudgetedParserAnnotator(
+            new StuckParser("full", release), new DummyParser("flat", 0), 50, 0);
+        try {
+            List<CoreMap> sentences = new ArrayList<CoreMap>();
+            for(int i = 0; i < threads; i++){
+                sentences.add(sentenceOfLength("stuck", 3));
+            }
+            parser.annotate(text(sentences));
+            Assert.assertEquals(threads, parser.getRunaways());
+            //saturated: not even submitted
+            CoreMap fast = sentenceOfLength("fast", 3);
+            parser.annotate(text(Collections.singletonList(fast)));
+            Assert.assertEquals("flat", fast.get(ParseAnnotation.class));
+            
+            release.countDown();
+            for(int i = 0; i < 100 && parser.getRunaways() > 0; i++){
+                Thread.sleep(50);
+            }
+            Assert.assertEquals(0, parser.getRunaways());
+            fast = sentenceOfLength("fast", 3);
+            parser.annotate(text(Collections.singletonList(fast)));
+            Assert.assertEquals("full", fast.get(ParseAnnotation.class));
+        } finally {
+            release.countDown();
+            parser.close();
+        }
+    }
+
+    private static class ParseAnnotation implements CoreAnnotation<String> {
+        @Override
+        public Class<String> getType() {
+            return String.class;
+        }
+    }
+
+    /**
+     * Sets the name of the parser. Sentences with the text 'stuck' block
+     * (ignoring interrupts) until released
+     */
+    private static class StuckParser extends DummyParser {
+
+        private final CountDownLatch release;
+
+        StuckParser(String name, CountDownLatch release){
+            super(name, 0);
+            this.release = release;
+        }
+
+        @Override
+        public void annotate(Annotation annotation) {
+            for(CoreMap sentence : annotation.get(SentencesAnnotation.class)){
+                while("stuck".equals(sentence.get(TextAnnotation.class))){
+                    try {
+                        release.await();
+                        break;
+                    } catch (InterruptedException e) {
+                        //like the Stanford parser
+                    }
+                }
+            }
+            super.annotate(annotation);
+        }
+    }
+
+    /**
+     * Sets the name of the parser. Sleeps for sentences with the text 'slow'
+     */
+    private static class DummyParser implements Annotator {
+
+        private final String name;
+        private final long sleep;
+
+        DummyParser(String name, long sleep){
+            this.name = name;
+            this.sleep = sleep;
+        }
+
+        @Override
+        public void annotate(Annotation annotation) {
+            for(CoreMap sentence : annotation.get(SentencesAnnotation.class)){
+                if("slow".equals(sentence.get(TextAnnotation.class))){
+                    try {
+                        Thread.sleep(sleep);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                sentence.set(ParseAnnotation.class, name);
+            }
+        }
+
+        @Override
+        public Set<Requirement> requirementsSatisfied() {
+            return Collections.singleton(PARSE_REQUIREMENT);
+        }
+
+        @Override
+        public Set<Requirement> requires() {
+            return Collections.emptySet();
+        }
+    }
+}
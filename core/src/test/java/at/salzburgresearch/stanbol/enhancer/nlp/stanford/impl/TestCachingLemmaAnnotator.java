@@ -0,0 +1,89 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.impl;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.stanford.nlp.ling.CoreAnnotations.LemmaAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.SentencesAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.TextAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.TokensAnnotation;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.Annotator;
+import edu.stanford.nlp.util.CoreMap;
+
+import static at.salzburgresearch.stanbol.enhancer.nlp.stanford.AnnotationFixtures.sentence;
+import static at.salzburgresearch.stanbol.enhancer.nlp.stanford.AnnotationFixtures.text;
+
+public class TestCachingLemmaAnnotator {
+
+    @Test
+    public void testCache() {
+        LowerCaseLemmatizer lemmatizer = new LowerCaseLemmatizer();
+        CachingLemmaAnnotator annotator = new CachingLemmaAnnotator(lemmatizer, 100);
+        Annotation text = text(sentence("Dogs/NNS", "Dogs/NNS", "Cats/NNS"));
+        annotator.annotate(text);
+        Assert.assertEquals(3, lemmatizer.lemmatized.get());
+        Assert.assertEquals(2, annotator.getSize());
+        text = text(sentence("Dogs/NNS", "Cats/NNS", "Cats/NNP"));
+        annotator.annotate(text);
+        //only the new (word, tag) combination is lemmatized
+        Assert.assertEquals(4, lemmatizer.lemmatized.get());
+        for(CoreLabel token : text.get(TokensAnnotation.class)){
+            Assert.assertEquals(token.get(TextAnnotation.class).toLowerCase(), 
+                token.get(LemmaAnnotation.class));
+        }
+        Assert.assertEquals(2, annotator.getHits());
+        Assert.assertEquals(4, annotator.getMisses());
+    }
+
+    /**
+     * Lemmas not used since the last but one generation are evicted
+     */
+    @Test
+    public void testEviction() {
+        LowerCaseLemmatizer lemmatizer = new LowerCaseLemmatizer();
+        CachingLemmaAnnotator annotator = new CachingLemmaAnnotator(lemmatizer, 4);
+        annotator.annotate(text(sentence("Dogs/NNS", "Cats/NNS")));
+        Assert.assertEquals(2, lemmatizer.lemmatized.get());
+        //used again: kept
+        annotator.annotate(text(sentence("Dogs/NNS")));
+        annotator.annotate(text(sentence("Mice/NNS")));
+        Assert.assertEquals(3, lemmatizer.lemmatized.get());
+        Assert.assertTrue(annotator.getSize() <= annotator.getMaxSize());
+        annotator.annotate(text(sentence("Dogs/NNS")));
+        Assert.assertEquals(3, lemmatizer.lemmatized.get());
+        //not used since: evicted
+        annotator.annotate(text(sentence("Cats/NNS")));
+        Assert.assertEquals(4, lemmatizer.lemmatized.get());
+    }
+
+    private static class LowerCaseLemmatizer implements Annotator {
+
+        final AtomicInteger lemmatized = new AtomicInteger();
+
+        @Override
+        public void annotate(Annotation annotation) {
+            for(CoreMap sentence : annotation.get(SentencesAnnotation.class)){
+                for(CoreLabel token : sentence.get(TokensAnnotation.class)){
+                    token.set(LemmaAnnotation.class, token.get(TextAnnotation.class).toLowerCase());
+                    lemmatized.incrementAndGet();
+                }
+            }
+        }
+
+        @Override
+        public Set<Requirement> requirementsSatisfied() {
+            return Collections.singleton(LEMMA_REQUIREMENT);
+        }
+
+        @Override
+        public Set<Requirement> requires() {
+            return Collections.singleton(POS_REQUIREMENT);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.AnnotatorReplicas;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.LangPipeline;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.LanguageDefaults;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.model.ModelFields;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.model.ModelFields.FieldVisitor;
+import edu.stanford.nlp.ling.CoreAnnotations.NamedEntityTagAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.PartOfSpeechAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.TokensAnnotation;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.pipeline.Annotation;
+
+/**
+ * Compares the heap retained by the model weights, the results and the
+ * latency of the low memory mode (shared weight rows) with the default mode
+ * on the text examples. The results of the default mode are used as
+ * reference.
+ */
+public class TestLowMemoryMode {
+
+    private static final Logger log = LoggerFactory.getLogger(TestLowMemoryMode.class);
+
+    static final String TEST_FILE_FOLDER = "text-examples";
+    static final List<String> TEST_FILE_NAMES = Arrays.asList("countrymention.txt",
+        "Egypt-protests_wikinews-org.txt", "jimi-hendrix.txt", "nuclear-fusion.txt",
+        "plasma.txt", "astronomers-discover-star.txt", "china-oil-spill.txt",
+        "obama-oil-drilling.txt", "robben-ford.txt", "australia-debate.txt",
+        "mitchell-bio.txt", "obama-signing.txt", "robbie-williams.txt",
+        "hillary-clinton.txt", "mitchell-joy-in-town.txt", "obama-tsa.txt",
+        "singapore-police.txt", "indian-train-crash.txt", "michael-jackson.txt",
+        "mitchell-safaris.txt", "obama.txt", "turkish-internet.txt",
+        "coalition-australia.txt");
+    /**
+     * parse is excluded as two copies of the parser model would exceed the
+     * heap used by the tests
+     */
+    private static final String ANNOTATORS = "tokenize, ssplit, pos, lemma, ner";
+
+    private static LangPipeline defaultPipeline;
+    private static LangPipeline lowMemoryPipeline;
+    private static final List<String> texts = new ArrayList<String>();
+
+    @BeforeClass
+    public static void init() throws IOException {
+        Properties config = new Properties(LanguageDefaults.getInstance().getDefaults("en"));
+        config.setProperty("annotators", ANNOTATORS);
+        defaultPipeline = new LangPipeline("en", config);
+        Properties lowMemConfig = new Properties(config);
+        lowMemConfig.setProperty("ner.lowMemory", "true");
+        lowMemoryPipeline = new LangPipeline("en", lowMemConfig);
+        texts.addAll(readTexts());
+    }
+
+    /**
+     * @return the text examples
+     */
+    static List<String> readTexts() throws IOException {
+        List<String> texts = new ArrayList<String>(TEST_FILE_NAMES.size());
+        ClassLoader cl = TestLowMemoryMode.class.getClassLoader();
+        for(String name : TEST_FILE_NAMES){
+            InputStream in = cl.getResourceAsStream(TEST_FILE_FOLDER+'/'+name);
+            try {
+                texts.add(IOUtils.toString(in, "UTF-8"));
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+        return texts;
+    }
+
+    @Test
+    public void compareWithDefaultMode(){
+        //warm up both pipelines
+        for(String text : texts){
+            defaultPipeline.annotate(new Annotation(text));
+            lowMemoryPipeline.annotate(new Annotation(text));
+        }
+        long defaultTime = 0;
+        long lowMemTime = 0;
+        int tokens = 0;
+        int posAgree = 0;
+        int nerAgree = 0;
+        for(String text : texts){
+            Annotation reference = new Annotation(text);
+            long start = System.nanoTime();
+            defaultPipeline.annotate(reference);
+            defaultTime += System.nanoTime() - start;
+            Annotation lowMem = new Annotation(text);
+            start = System.nanoTime();
+            lowMemoryPipeline.annotate(lowMem);
+            lowMemTime += System.nanoTime() - start;
+            List<CoreLabel> refTokens = reference.get(TokensAnnotation.class);
+            List<CoreLabel> lowMemTokens = lowMem.get(TokensAnnotation.class);
+            Assert.assertEquals(refTokens.size(), lowMemTokens.size());
+            for(int i = 0; i < refTokens.size(); i++){
+                tokens++;
+                if(equals(refTokens.get(i).get(PartOfSpeechAnnotation.class),
+                        lowMemTokens.get(i).get(PartOfSpeechAnnotation.class))){
+                    posAgree++;
+                }
+                if(equals(refTokens.get(i).get(NamedEntityTagAnnotation.class),
+                        lowMemTokens.get(i).get(NamedEntityTagAnnotation.class))){
+                    nerAgree++;
+                }
+            }
+        }
+        double posAgreement = posAgree/(double)tokens;
+        double nerAgreement = nerAgree/(double)tokens;
+        log.info("Low Memory mode compared to default mode ({} texts, {} tokens):", texts.size(), tokens);
+        log.info("  > POS agreement: {}%", Math.round(posAgreement*10000)/100d);
+        log.info("  > NER agreement: {}%", Math.round(nerAgreement*10000)/100d);
+        log.info("  > default    : {}ms", defaultTime/1000000);
+        log.info("  > low memory : {}ms", lowMemTime/1000000);
+        //sharing rows is lossless
+        Assert.assertEquals(tokens, posAgree);
+        Assert.assertEquals(tokens, nerAgree);
+    }
+
+    @Test
+    public void compareRetainedHeap(){
+        long defaultBytes = weightBytes(ner(defaultPipeline));
+        long lowMemBytes = weightBytes(ner(lowMemoryPipeline));
+        double ratio = lowMemBytes / (double)defaultBytes;
+        log.info("Heap retained by the NER weights:");
+        log.info("  > default    : {}kByte", defaultBytes/1024);
+        log.info("  > low memory : {}kByte", lowMemBytes/1024);
+        //only duplicated rows are shared, so this is far from halving the heap
+        log.info("  > ratio      : {}% of the default mode (halving would be 50%)",
+            Math.round(ratio*1000)/10d);
+        Assert.assertTrue(defaultBytes > 0);
+        Assert.assertTrue("low memory: "+lowMemBytes+" default: "+defaultBytes,
+            lowMemBytes < defaultBytes);
+    }
+
+    private static Object ner(LangPipeline pipeline){
+        for(AnnotatorReplicas replicas : pipeline.getReplicas()){
+            if("ner".equals(replicas.getName())){
+                return replicas.getReplicas().get(0);
+            }
+        }
+        throw new IllegalStateException("no ner annotator");
+    }
+
+    /**
+     * The heap retained by the weight matrices reachable from the parsed
+     * annotator. Rows referenced several times are only counted once.
+     */
+    private static long weightBytes(Object annotator){
+        final Map<Object,Boolean> arrays = new IdentityHashMap<Object,Boolean>();
+        final long[] bytes = new long[1];
+        ModelFields.walk(annotator, 8, new FieldVisitor() {
+            @Override
+            public void visit(Object owner, Field field, Object value) {
+                if(field.getType() != double[][].class || arrays.put(value, Boolean.TRUE) != null){
+                    return;
+                }
+                double[][] matrix = (double[][])value;
+                bytes[0] += 16 + 4L * matrix.length;
+                for(double[] row : matrix){
+                    if(row != null && arrays.put(row, Boolean.TRUE) == null){
+                        bytes[0] += 16 + 8L * row.length;
+                    }
+                }
+            }
+        });
+        return bytes[0];
+    }
+
+    private static boolean equals(String a, String b){
+        return a == null ? b == null : a.equals(b);
+    }
+
+    @AfterClass
+    public static void cleanUp(){
+        if(defaultPipeline != null){
+            defaultPipeline.close();
+        }
+        if(lowMemoryPipeline != null){
+            lowMemoryPipeline.close();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.stanford.nlp.ling.CoreAnnotations.AnswerAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.SentencesAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.TokensAnnotation;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.Annotator;
+import edu.stanford.nlp.util.CoreMap;
+
+import static at.salzburgresearch.stanbol.enhancer.nlp.stanford.AnnotationFixtures.sentence;
+import static at.salzburgresearch.stanbol.enhancer.nlp.stanford.AnnotationFixtures.text;
+
+public class TestNumericCueGate {
+
+    @Test
+    public void testGate() {
+        RecordingAnnotator numeric = new RecordingAnnotator();
+        NumericCueGate gate = new NumericCueGate(null, numeric,
+            new HashSet<String>(Arrays.asList("monday", "twelve")));
+        CoreMap noCue = sentence("Paul", "met", "Mary");
+        CoreMap digit = sentence("It", "costs", "12$");
+        CoreMap cue = sentence("See", "you", "on", "Monday");
+        noCue.get(TokensAnnotation.class).get(0).setNER("PERSON");
+        cue.get(TokensAnnotation.class).get(0).setNER("O");
+
+        gate.annotate(text(noCue, digit, cue));
+        Assert.assertEquals(Arrays.asList(digit, cue), numeric.sentences);
+        Assert.assertEquals(3, gate.getSentences());
+        Assert.assertEquals(1, gate.getSkipped());
+        //skipped sentences keep the labels of the models
+        Assert.assertEquals("PERSON", noCue.get(TokensAnnotation.class).get(0).ner());
+        Assert.assertEquals("O", noCue.get(TokensAnnotation.class).get(1).ner());
+        //the numeric classifiers see the labels of the models as answers
+        Assert.assertEquals("O", cue.get(TokensAnnotation.class).get(0).get(AnswerAnnotation.class));
+
+        numeric.sentences.clear();
+        gate.annotate(text(sentence("Nothing", "here")));
+        Assert.assertTrue(numeric.sentences.isEmpty());
+        Assert.assertEquals(2, gate.getSkipped());
+    }
+
+    @Test
+    public void testDefaultCues() {
+        Set<String> cues = NumericCueGate.loadCues("defaults/en.numeric-cues.txt");
+        Assert.assertTrue(cues.contains("yesterday"));
+        Assert.assertTrue(cues.contains("december"));
+        Assert.assertTrue(cues.contains("%"));
+        Assert.assertFalse(cues.contains("the"));
+    }
+
+    private static class RecordingAnnotator implements Annotator {
+
+        final List<CoreMap> sentences = new ArrayList<CoreMap>();
+
+        @Override
+        public void annotate(Annotation annotation) {
+            sentences.addAll(annotation.get(SentencesAnnotation.class));
+        }
+
+        @Override
+        public Set<Requirement> requirementsSatisfied() {
+            return Collections.singleton(NER_REQUIREMENT);
+        }
+
+        @Override
+        public Set<Requirement> requires() {
+            return Collections.emptySet();
+        }
+    }
+}
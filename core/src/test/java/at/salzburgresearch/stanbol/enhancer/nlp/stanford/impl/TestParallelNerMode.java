@@ -0,0 +1,100 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.LangPipeline;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.LanguageDefaults;
+import edu.stanford.nlp.ling.CoreAnnotations.NamedEntityTagAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.NormalizedNamedEntityTagAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations.TokensAnnotation;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.pipeline.Annotation;
+
+/**
+ * Compares the NER labels of the parallel NER mode (<code>ner.parallel</code>)
+ * with the sequential {@link edu.stanford.nlp.ie.NERClassifierCombiner} on
+ * the text examples. Both use the English defaults including the numeric
+ * classifiers and SUTime.
+ */
+public class TestParallelNerMode {
+
+    private static final Logger log = LoggerFactory.getLogger(TestParallelNerMode.class);
+
+    private static final String ANNOTATORS = "tokenize, ssplit, pos, lemma, ner";
+
+    private static LangPipeline sequentialPipeline;
+    private static LangPipeline parallelPipeline;
+    private static final List<String> texts = new ArrayList<String>();
+
+    @BeforeClass
+    public static void init() throws IOException {
+        Properties config = new Properties(LanguageDefaults.getInstance().getDefaults("en"));
+        config.setProperty("annotators", ANNOTATORS);
+        sequentialPipeline = new LangPipeline("en", config);
+        Properties parallelConfig = new Properties(config);
+        parallelConfig.setProperty(StanbolNerAnnotator.PARALLEL_PROPERTY, "true");
+        parallelPipeline = new LangPipeline("en", parallelConfig);
+        texts.addAll(TestLowMemoryMode.readTexts());
+    }
+
+    @Test
+    public void compareWithSequentialMode(){
+        int tokens = 0;
+        int numeric = 0;
+        long sequentialTime = 0;
+        long parallelTime = 0;
+        for(String text : texts){
+            Annotation reference = new Annotation(text);
+            long start = System.nanoTime();
+            sequentialPipeline.annotate(reference);
+            sequentialTime += System.nanoTime() - start;
+            Annotation parallel = new Annotation(text);
+            start = System.nanoTime();
+            parallelPipeline.annotate(parallel);
+            parallelTime += System.nanoTime() - start;
+            List<CoreLabel> refTokens = reference.get(TokensAnnotation.class);
+            List<CoreLabel> parallelTokens = parallel.get(TokensAnnotation.class);
+            Assert.assertEquals(refTokens.size(), parallelTokens.size());
+            for(int i = 0; i < refTokens.size(); i++){
+                tokens++;
+                CoreLabel ref = refTokens.get(i);
+                CoreLabel token = parallelTokens.get(i);
+                String context = ref.word() + " (token " + i + " of " + text.substring(0,
+                    Math.min(40, text.length())) + "...)";
+                Assert.assertEquals(context, ref.get(NamedEntityTagAnnotation.class),
+                    token.get(NamedEntityTagAnnotation.class));
+                Assert.assertEquals(context, ref.get(NormalizedNamedEntityTagAnnotation.class),
+                    token.get(NormalizedNamedEntityTagAnnotation.class));
+                if(ref.get(NormalizedNamedEntityTagAnnotation.class) != null){
+                    numeric++;
+                }
+            }
+        }
+        log.info("Parallel NER mode compared to sequential mode ({} texts, {} tokens, "
+            + "{} numeric):", new Object[]{texts.size(), tokens, numeric});
+        log.info("  > sequential : {}ms", sequentialTime/1000000);
+        log.info("  > parallel   : {}ms", parallelTime/1000000);
+        //the numeric classifiers were applied
+        Assert.assertTrue(numeric > 0);
+    }
+
+    @AfterClass
+    public static void cleanUp(){
+        if(sequentialPipeline != null){
+            sequentialPipeline.close();
+        }
+        if(parallelPipeline != null){
+            parallelPipeline.close();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.stanford.nlp.ling.CoreAnnotations.AnswerAnnotation;
+import edu.stanford.nlp.ling.CoreLabel;
+
+public class TestStanbolNerAnnotator {
+
+    @Test
+    public void testMerge() {
+        List<CoreLabel> main = labels("PERSON", "PERSON", "O", "O", "O", "O");
+        //MISC overlapping a PERSON is ignored, DATE on unlabeled tokens is used
+        List<CoreLabel> aux = labels("O", "MISC", "MISC", "O", "DATE", "DATE");
+        StanbolNerAnnotator.mergeTwoDocuments(main, aux,
+            new HashSet<String>(Arrays.asList("MISC", "DATE")), "O");
+        Assert.assertEquals(Arrays.asList("PERSON", "PERSON", "O", "O", "DATE", "DATE"),
+            answers(main));
+
+        //labels known by the main classifier are ignored
+        main = labels("O", "O", "O");
+        aux = labels("PERSON", "MISC", "O");
+        StanbolNerAnnotator.mergeTwoDocuments(main, aux,
+            new HashSet<String>(Arrays.asList("MISC")), "O");
+        Assert.assertEquals(Arrays.asList("O", "MISC", "O"), answers(main));
+    }
+
+    private static List<CoreLabel> labels(String...answers){
+        List<CoreLabel> labels = new ArrayList<CoreLabel>();
+        for(String answer : answers){
+            CoreLabel label = new CoreLabel();
+            label.set(AnswerAnnotation.class, answer);
+            labels.add(label);
+        }
+        return labels;
+    }
+
+    private static List<String> answers(List<CoreLabel> labels){
+        List<String> answers = new ArrayList<String>();
+        for(CoreLabel label : labels){
+            answers.add(label.get(AnswerAnnotation.class));
+        }
+        return answers;
+    }
+}
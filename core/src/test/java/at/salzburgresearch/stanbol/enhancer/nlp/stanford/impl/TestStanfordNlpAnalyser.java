@@ -22,10 +22,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -53,6 +57,8 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.AnalysisContext;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.AnalysisTimeoutException;
 import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.LangPipeline;
 import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.StanfordNlpAnalyzer;
 import at.salzburgresearch.stanbol.enhancer.nlp.stanford.mappings.TagSetRegistry;
@@ -132,6 +138,113 @@ public class TestStanfordNlpAnalyser {
                 examples.size(),Math.round(sum/100d)/10f, Math.round(sum*10/(double)examples.size())/10f, min, max});
 	}
 
+    @Test
+    public void testLayerSelection() throws IOException {
+        LangPipeline pipeline = (LangPipeline)analyzer.getPipeline("en");
+        Assert.assertEquals(Arrays.asList("tokenize", "ssplit", "pos"), 
+            pipeline.resolveAnnotators(Arrays.asList("pos")));
+        Assert.assertEquals(Arrays.asList("tokenize", "ssplit", "pos", "lemma", "ner"), 
+            pipeline.resolveAnnotators(Arrays.asList("ner")));
+        Assert.assertTrue(pipeline.resolveAnnotators(Arrays.asList("sentiment")).contains("parse"));
+        try {
+            pipeline.resolveAnnotators(Arrays.asList("dcoref"));
+            Assert.fail("Unsupported layer MUST cause an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+        AnalysedText at = analyzer.analyse("en", examples.get("obama.txt"), Arrays.asList("pos"));
+        Iterator<Span> spans = at.getEnclosed(EnumSet.of(SpanTypeEnum.Token, SpanTypeEnum.Chunk));
+        Assert.assertTrue(spans.hasNext());
+        while(spans.hasNext()){
+            Span span = spans.next();
+            Assert.assertNull(span.getAnnotation(NER_ANNOTATION));
+            Assert.assertNull(span.getAnnotation(DEPENDENCY_ANNOTATION));
+            if(span.getType() == SpanTypeEnum.Token){
+                Assert.assertNotNull(span.getAnnotation(POS_ANNOTATION));
+            }
+        }
+    }
+
+    @Test
+    public void testDeadline() throws IOException {
+        AnalysisContext context = new AnalysisContext();
+        context.setDeadline(System.currentTimeMillis() - 1); //already expired
+        try {
+            analyzer.analyse("en", examples.get("obama.txt"), context);
+            Assert.fail("Expired deadline MUST cause an AnalysisTimeoutException");
+        } catch (AnalysisTimeoutException e) {
+            //expected
+        }
+        context = new AnalysisContext(Arrays.asList("pos"));
+        context.setDeadline(System.currentTimeMillis() - 1);
+        context.setPartialResults(true);
+        AnalysedText at = analyzer.analyse("en", examples.get("obama.txt"), context);
+        Assert.assertNotNull(at);
+        Assert.assertTrue(context.isPartial());
+        Assert.assertTrue(context.getSkipped().contains("pos"));
+    }
+
+    @Test
+    public void testCoalescing() throws InterruptedException, ExecutionException {
+        final Blob blob = examples.get("michael-jackson.txt");
+        //the single analysis thread is held so that the first request is still
+        //processed when the identical requests arrive
+        ExecutorService analysisExecutor = Executors.newSingleThreadExecutor();
+        final CountDownLatch hold = new CountDownLatch(1);
+        analysisExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws InterruptedException {
+                hold.await();
+                return null;
+            }
+        });
+        final StanfordNlpAnalyzer coalescing = new StanfordNlpAnalyzer(analysisExecutor, null);
+        coalescing.setPipeline("en", analyzer.getPipeline("en"));
+        coalescing.setCoalescing(true);
+        ExecutorService executor = Executors.newFixedThreadPool(ANALYZER_THREADS);
+        try {
+            Callable<AnalysedText> request = new Callable<AnalysedText>() {
+                @Override
+                public AnalysedText call() throws IOException {
+                    return coalescing.analyse("en", blob);
+                }
+            };
+            List<Future<AnalysedText>> tasks = new ArrayList<Future<AnalysedText>>();
+            tasks.add(executor.submit(request));
+            awaitWaitingRequests(coalescing, 1);
+            for(int i = 1; i < ANALYZER_THREADS; i++){
+                tasks.add(executor.submit(request));
+            }
+            awaitWaitingRequests(coalescing, ANALYZER_THREADS);
+            hold.countDown();
+            //identical requests MUST get equivalent (but not the same) results
+            Set<AnalysedText> results = new HashSet<AnalysedText>();
+            for(Future<AnalysedText> task : tasks){
+                AnalysedText at = task.get();
+                validateAnalysedText(at.getSpan(), at);
+                results.add(at);
+            }
+            Assert.assertEquals(ANALYZER_THREADS, results.size());
+            Assert.assertEquals(ANALYZER_THREADS - 1, coalescing.getCoalesced());
+        } finally {
+            hold.countDown();
+            executor.shutdown();
+            analysisExecutor.shutdown();
+        }
+    }
+
+    private static void awaitWaitingRequests(StanfordNlpAnalyzer analyzer, int expected) 
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30000;
+        while(analyzer.getWaitingRequests() < expected){
+            if(System.currentTimeMillis() > deadline){
+                Assert.fail("Only " + analyzer.getWaitingRequests() + " of " + expected 
+                    + " requests wait for the shared analysis!");
+            }
+            Thread.sleep(10);
+        }
+    }
+
     @Test
     public void testConcurrentAnalyses() throws IOException, InterruptedException, ExecutionException{
         //warm up
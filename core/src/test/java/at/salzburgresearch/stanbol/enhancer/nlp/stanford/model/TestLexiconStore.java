@@ -0,0 +1,103 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.model;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.stanford.nlp.ie.NERFeatureFactory;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.util.HashIndex;
+
+public class TestLexiconStore {
+
+    private static final LexiconStore store = LexiconStore.getInstance();
+
+    @Test
+    public void testSharedLexicon() throws Exception {
+        long shared = store.getSharedLexicons();
+        NERFeatureFactory<CoreLabel> f1 = factory(lexicon("testSharedLexicon"));
+        NERFeatureFactory<CoreLabel> f2 = factory(lexicon("testSharedLexicon"));
+        Assert.assertNotSame(getLexicon(f1), getLexicon(f2));
+        store.resolve(f1);
+        long saved = store.resolve(f2);
+        Assert.assertSame(getLexicon(f1), getLexicon(f2));
+        Assert.assertEquals(shared + 1, store.getSharedLexicons());
+        Assert.assertTrue(saved > 0);
+    }
+
+    /**
+     * Resolving a model twice (e.g. a model used by several annotators) MUST
+     * NOT count its lexicon as shared
+     */
+    @Test
+    public void testAlreadyResolved() throws Exception {
+        NERFeatureFactory<CoreLabel> factory = factory(lexicon("testAlreadyResolved"));
+        Object lexicon = getLexicon(factory);
+        store.resolve(factory);
+        long shared = store.getSharedLexicons();
+        long saved = store.getSavedBytes();
+        store.resolve(factory);
+        Assert.assertSame(lexicon, getLexicon(factory));
+        Assert.assertEquals(shared, store.getSharedLexicons());
+        Assert.assertEquals(saved, store.getSavedBytes());
+    }
+
+    @Test
+    public void testInternedIndex() {
+        HashIndex<String> i1 = new HashIndex<String>();
+        HashIndex<String> i2 = new HashIndex<String>();
+        for(String feature : new String[]{"testInternedIndex-a", "testInternedIndex-b"}){
+            i1.add(new String(feature));
+            i2.add(new String(feature));
+        }
+        Assert.assertNotSame(i1.get(0), i2.get(0));
+        store.resolve(i1);
+        store.resolve(i2);
+        Assert.assertSame(i1.get(0), i2.get(0));
+        Assert.assertSame(i1.get(1), i2.get(1));
+        Assert.assertEquals(0, i2.indexOf("testInternedIndex-a"));
+    }
+
+    /**
+     * The store MUST NOT keep lexicons and strings of unloaded models
+     */
+    @Test
+    public void testNotRetained() throws Exception {
+        Map<String,String> lexicon = lexicon("testNotRetained");
+        store.resolve(factory(lexicon));
+        WeakReference<Map<String,String>> lexiconRef = new WeakReference<Map<String,String>>(lexicon);
+        WeakReference<String> wordRef = new WeakReference<String>(
+            lexicon.keySet().iterator().next());
+        lexicon = null;
+        for(int i = 0; i < 50 && (lexiconRef.get() != null || wordRef.get() != null); i++){
+            System.gc();
+            Thread.sleep(20);
+        }
+        Assert.assertNull(lexiconRef.get());
+        Assert.assertNull(wordRef.get());
+    }
+
+    private static Map<String,String> lexicon(String prefix){
+        Map<String,String> lexicon = new HashMap<String,String>();
+        for(int i = 0; i < 100; i++){
+            lexicon.put(prefix + "-word" + i, new String("cluster" + (i % 10)));
+        }
+        return lexicon;
+    }
+
+    private static NERFeatureFactory<CoreLabel> factory(Map<String,String> lexicon) throws Exception {
+        NERFeatureFactory<CoreLabel> factory = new NERFeatureFactory<CoreLabel>();
+        Field field = NERFeatureFactory.class.getDeclaredField("lexicon");
+        field.setAccessible(true);
+        field.set(factory, lexicon);
+        return factory;
+    }
+
+    private static Object getLexicon(NERFeatureFactory<CoreLabel> factory){
+        return ModelFields.get(factory, "lexicon");
+    }
+}
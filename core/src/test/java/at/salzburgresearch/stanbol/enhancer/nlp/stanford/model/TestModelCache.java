@@ -0,0 +1,138 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.model;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestModelCache {
+
+    private File root;
+    private File models;
+    private ModelCache cache;
+
+    @Before
+    public void init() throws IOException {
+        root = File.createTempFile("modelcache", "");
+        root.delete();
+        models = new File(root, "models");
+        models.mkdirs();
+        cache = new ModelCache(new File(root, "cache"));
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        FileUtils.deleteDirectory(root);
+    }
+
+    @Test
+    public void testResolve() throws IOException {
+        File model = writeModel("test.tagger.gz", "model data");
+        String cached = cache.resolve(model.getPath());
+        Assert.assertFalse(model.getPath().equals(cached));
+        Assert.assertEquals("model data", FileUtils.readFileToString(new File(cached), "UTF-8"));
+        //uncompressed files are not cached
+        File plain = new File(models, "test.tagger");
+        FileUtils.writeStringToFile(plain, "model data", "UTF-8");
+        Assert.assertEquals(plain.getPath(), cache.resolve(plain.getPath()));
+    }
+
+    @Test
+    public void testRefreshChangedSource() throws IOException {
+        File model = writeModel("test.tagger.gz", "model data");
+        String cached = cache.resolve(model.getPath());
+        writeModel("test.tagger.gz", "changed model data");
+        model.setLastModified(model.lastModified() - 10000);
+        Assert.assertEquals(cached, cache.resolve(model.getPath()));
+        Assert.assertEquals("changed model data", FileUtils.readFileToString(new File(cached), "UTF-8"));
+    }
+
+    @Test
+    public void testRefreshModifiedCache() throws IOException {
+        File model = writeModel("test.tagger.gz", "model data");
+        File cached = new File(cache.resolve(model.getPath()));
+        FileUtils.writeStringToFile(cached, "other data", "UTF-8");
+        cached.setLastModified(cached.lastModified() - 10000);
+        cache.resolve(model.getPath());
+        Assert.assertEquals("model data", FileUtils.readFileToString(cached, "UTF-8"));
+    }
+
+    /**
+     * Corruptions that keep size and last modified time are only detected by
+     * {@link ModelCache#verify()}
+     */
+    @Test
+    public void testVerify() throws IOException {
+        File model = writeModel("test.tagger.gz", "model data");
+        File cached = new File(cache.resolve(model.getPath()));
+        Assert.assertEquals(0, cache.verify());
+
+        long modified = cached.lastModified();
+        FileUtils.writeStringToFile(cached, "MODEL DATA", "UTF-8");
+        cached.setLastModified(modified);
+        //the hot path does not read the cached model
+        Assert.assertEquals(cached.getAbsolutePath(), cache.resolve(model.getPath()));
+        Assert.assertEquals("MODEL DATA", FileUtils.readFileToString(cached, "UTF-8"));
+
+        Assert.assertEquals(1, cache.verify());
+        Assert.assertFalse(cached.exists());
+        cache.resolve(model.getPath());
+        Assert.assertEquals("model data", FileUtils.readFileToString(cached, "UTF-8"));
+        Assert.assertEquals(0, cache.verify());
+    }
+
+    /**
+     * Several caches on the same directory within one JVM need to wait for
+     * each other instead of failing with an OverlappingFileLockException
+     */
+    @Test
+    public void testConcurrentCaches() throws Exception {
+        final File model = writeModel("test.tagger.gz", "model data");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for(int i = 0; i < 16; i++){
+                final ModelCache other = new ModelCache(cache.getDirectory());
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return other.resolve(model.getPath());
+                    }
+                }));
+            }
+            String expected = cache.resolve(model.getPath());
+            Assert.assertFalse(model.getPath().equals(expected));
+            for(Future<String> result : results){
+                Assert.assertEquals(expected, result.get());
+            }
+            Assert.assertEquals("model data", FileUtils.readFileToString(new File(expected), "UTF-8"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private File writeModel(String name, String data) throws IOException {
+        File file = new File(models, name);
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(file));
+        try {
+            IOUtils.write(data, out, "UTF-8");
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+        return file;
+    }
+}
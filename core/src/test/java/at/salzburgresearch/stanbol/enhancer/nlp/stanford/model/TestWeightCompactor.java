@@ -0,0 +1,94 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.model;
+
+import java.lang.reflect.Field;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.stanford.nlp.ie.crf.CRFClassifier;
+import edu.stanford.nlp.ling.CoreLabel;
+
+public class TestWeightCompactor {
+
+    @Test
+    public void testSharedRows() throws Exception {
+        double[][] weights = new double[1000][];
+        Random random = new Random(42);
+        for(int i = 0; i < weights.length; i++){
+            weights[i] = new double[8];
+            if(i % 4 == 0){ //distinct rows
+                for(int j = 0; j < 8; j++){
+                    weights[i][j] = random.nextGaussian();
+                }
+            } else if(i % 4 == 1){ //a repeated row
+                weights[i][3] = 0.5;
+            } //else all zero
+        }
+        double[][] copy = new double[weights.length][];
+        for(int i = 0; i < weights.length; i++){
+            copy[i] = weights[i].clone();
+        }
+        CRFClassifier<CoreLabel> crf = new CRFClassifier<CoreLabel>(new Properties());
+        Field field = CRFClassifier.class.getDeclaredField("weights");
+        field.setAccessible(true);
+        field.set(crf, weights);
+
+        long before = retainedBytes(weights);
+        WeightCompactor compactor = new WeightCompactor();
+        long saved = compactor.compact(crf);
+        long after = retainedBytes(weights);
+        //250 distinct rows + the repeated and the zero row
+        Assert.assertEquals(1000, compactor.getRows());
+        Assert.assertEquals(748, compactor.getSharedRows());
+        Assert.assertEquals(before - after, saved);
+        Assert.assertEquals(748 * (16 + 8 * 8), saved);
+        //lossless
+        for(int i = 0; i < weights.length; i++){
+            Assert.assertArrayEquals(copy[i], weights[i], 0d);
+        }
+    }
+
+    @Test
+    public void testFloatRows(){
+        float[][] weights = new float[][]{{1f, 2f}, {1f, 2f}, {2f, 1f}, {1f, 2f}};
+        WeightCompactor compactor = new WeightCompactor();
+        compactor.compact(weights);
+        Assert.assertEquals(2, compactor.getSharedRows());
+        Assert.assertSame(weights[0], weights[1]);
+        Assert.assertSame(weights[0], weights[3]);
+        Assert.assertNotSame(weights[0], weights[2]);
+        //rows with the same bits but different types are not shared
+        double[][] doubles = new double[][]{{1d, 2d}};
+        compactor.compact(doubles);
+        Assert.assertEquals(2, compactor.getSharedRows());
+    }
+
+    @Test
+    public void testLowMemoryProperty(){
+        Properties properties = new Properties();
+        Assert.assertNull(WeightCompactor.create("ner", properties));
+        properties.setProperty("ner.lowMemory", "true");
+        Assert.assertNotNull(WeightCompactor.create("ner", properties));
+        Assert.assertNull(WeightCompactor.create("pos", properties));
+    }
+
+    /**
+     * The heap retained by the rows of the parsed matrix (rows referenced
+     * several times are only counted once)
+     */
+    static long retainedBytes(Object[] matrix){
+        Map<Object,Boolean> rows = new IdentityHashMap<Object,Boolean>();
+        long bytes = 16 + 4L * matrix.length;
+        for(Object row : matrix){
+            if(row != null && rows.put(row, Boolean.TRUE) == null){
+                bytes += row instanceof double[] ? 16 + 8L * ((double[])row).length :
+                    16 + 4L * ((float[])row).length;
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,68 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.server;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.server.Request;
+
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.AnalysisContext.ClientProbe;
+
+/**
+ * Adds a {@link ClientProbe} based on the Jetty {@link EndPoint} of the
+ * connection as request attribute (name: {@link ClientProbe} class name).
+ * This allows the analysis resource to cancel the analysis of requests where
+ * Jetty has detected that the client has disconnected.
+ * <p>
+ * A client is only considered disconnected if Jetty has closed the end point
+ * of the connection (e.g. after a failed write or the idle timeout) or the
+ * connection has moved on to an other request. The input being shut down is
+ * not used as clients may half-close the connection after sending the request
+ * while still waiting for the response.
+ *
+ * @author Rupert Westenthaler
+ *
+ */
+public class ClientProbeFilter implements Filter {
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        Request baseRequest;
+        if(request instanceof Request){
+            baseRequest = (Request)request;
+        } else {
+            HttpChannel<?> channel = HttpChannel.getCurrentHttpChannel();
+            baseRequest = channel == null ? null : channel.getRequest();
+        }
+        if(baseRequest != null && baseRequest.getHttpChannel() != null){
+            //Jetty recycles requests so the time stamp is used to detect
+            //that the connection has moved on to an other request
+            final Request probed = baseRequest;
+            final long timeStamp = baseRequest.getTimeStamp();
+            final EndPoint endPoint = baseRequest.getHttpChannel().getEndPoint();
+            request.setAttribute(ClientProbe.class.getName(), new ClientProbe() {
+                @Override
+                public boolean isConnected() {
+                    return endPoint.isOpen() && probed.getTimeStamp() == timeStamp;
+                }
+            });
+        }
+        chain.doFilter(request, response);
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
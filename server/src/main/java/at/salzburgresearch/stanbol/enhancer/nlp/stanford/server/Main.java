@@ -4,15 +4,26 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.EnumSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.ServiceLoader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
+import javax.servlet.DispatcherType;
+
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.HelpFormatter;
@@ -24,13 +35,22 @@ import org.apache.commons.io.IOUtils;
 import org.apache.stanbol.enhancer.servicesapi.ContentItemFactory;
 import org.apache.wink.server.internal.servlet.RestServlet;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.AdmissionController;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.ConcurrencyLimiter;
 import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.LangPipeline;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.OverloadPolicy;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.PipelineReloader;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.ExecutorMode;
 import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.StanfordNlpAnalyzer;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.WarmUp;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.model.LexiconStore;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.model.ModelCache;
 import at.salzburgresearch.stanbol.enhancer.nlp.stanford.web.Constants;
 import at.salzburgresearch.stanbol.enhancer.nlp.stanford.web.StanfordNlpApplication;
 
@@ -41,7 +61,10 @@ public class Main {
     
     private static final int DEFAULT_PORT = 8080;
     private static final int DEFAULT_ANALYSER_THREADS = 10;
+    private static final int DEFAULT_INIT_THREADS = Runtime.getRuntime().availableProcessors();
     private static final File DEFAULT_CONFIG_DIR = new File("config");
+    private static final int DEFAULT_WARMUP_ITERATIONS = WarmUp.DEFAULT_MAX_ITERATIONS;
+    private static final int DEFAULT_RELOAD_INTERVAL = 10;
     
     private static final Options options;
 
@@ -57,6 +80,58 @@ public class Main {
         options.addOption("c","config-dir", true,
             "Path to the directory with the '{lang}.pipeline' configuration files "
             + "(default: "+DEFAULT_CONFIG_DIR.getAbsolutePath()+")");
+        options.addOption("i","init-threads",true,
+            "The size of the thread pool used to load the models of the configured "
+            + "annotation pipelines on startup (default: "+DEFAULT_INIT_THREADS+")");
+        options.addOption("m","model-cache",true,
+            "Path to a directory used to cache uncompressed copies of the models. "
+            + "Speeds up later starts (default: none)");
+        options.addOption("V","verify-model-cache",false,
+            "Validates the checksums of all models in the model cache on startup "
+            + "and removes corrupted ones. Reads all cached models (default: false)");
+        options.addOption("w","warmup-iterations",true,
+            "The maximum number of iterations over the warm up corpus before the "
+            + "server reports ready. Stops earlier if the latency is stable. "
+            + "'0' to deactivate (default: "+DEFAULT_WARMUP_ITERATIONS+")");
+        options.addOption("W","warmup-corpus",true,
+            "Path to a directory with '{lang}.txt' files used to warm up "
+            + "the pipelines (default: bundled corpora)");
+        options.addOption("r","reload-interval",true,
+            "Interval in seconds used to check the config directory for changed "
+            + "'{lang}.pipeline' files. Changed pipelines are reloaded without "
+            + "a restart. '0' to deactivate (default: "+DEFAULT_RELOAD_INTERVAL+")");
+        options.addOption("o","overload-requests",true,
+            "The number of queued and processed requests above that the server is "
+            + "considered overloaded. Overloaded servers skip the optional "
+            + OverloadPolicy.DEFAULT_OPTIONAL_ANNOTATORS + " annotators. '0' to "
+            + "deactivate (default: 0)");
+        options.addOption("l","overload-latency",true,
+            "The average latency in milliseconds above that the server is "
+            + "considered overloaded. '0' to deactivate (default: 0)");
+        options.addOption("q","max-queued",true,
+            "The maximum number of texts waiting for an analyser thread. Further "
+            + "requests are rejected with '503 Service Unavailable'. '0' for no "
+            + "limit (default: 0)");
+        options.addOption("Q","max-queued-chars",true,
+            "The maximum number of characters of all texts waiting for an "
+            + "analyser thread. '0' for no limit (default: 0)");
+        options.addOption("a","adaptive-concurrency",true,
+            "Enables the adaptive limit for concurrently analysed texts. The "
+            + "parsed value is the minimum limit. The maximum is the number of "
+            + "analyser threads. '0' to deactivate (default: 0)");
+        options.addOption("f","min-free-heap",true,
+            "The free heap in MB below that requests are rejected. '0' to "
+            + "deactivate (default: 0)");
+        options.addOption("C","coalesce",false,
+            "Identical requests (same language, text and layers) processed "
+            + "concurrently share a single analysis (default: false)");
+        options.addOption("e","executor",true,
+            "The executor used to analyse texts: 'fixed' (thread pool serving "
+            + "cheap and interactive texts first), 'forkjoin' (work stealing, "
+            + "Java 7+) or 'virtual' (virtual threads, Java 21+). For all modes "
+            + "the number of concurrently analysed texts is limited by the number "
+            + "of analyser threads. Only 'fixed' schedules texts by their costs "
+            + "and priority (default: fixed)");
     }
     /**
      * @param args
@@ -73,8 +148,12 @@ public class Main {
         log.info("Starting Stanbol Talismane Server ...");
         //create the Threadpool
         log.info(" > Initialise Talismane");
-        ExecutorService executor = Executors.newFixedThreadPool(
+        //the fixed mode serves cheap and interactive texts first
+        ExecutorMode executorMode = line.hasOption('e') ? 
+                ExecutorMode.parse(line.getOptionValue('e')) : ExecutorMode.FIXED;
+        ExecutorService executor = executorMode.create(
             getInt(line, 't', DEFAULT_ANALYSER_THREADS));
+        log.info("   ... using {} executor", executorMode.name().toLowerCase(Locale.ROOT));
         
         File configDir = line.hasOption('c') ? new File(line.getOptionValue('c')) : DEFAULT_CONFIG_DIR;
         if(!configDir.isDirectory()){
@@ -93,8 +172,28 @@ public class Main {
         }
         log.info(" - initialise {} configured language(s)", configFiles.size());
         StanfordNlpAnalyzer analyzer = new StanfordNlpAnalyzer(executor, null);
-        for(File configFile : configFiles){
-            LangPipeline pipeline = new LangPipeline(configFile.getAbsolutePath());
+        //NOTE: circuit breakers for optional annotators are active even if
+        //      overload thresholds are deactivated
+        analyzer.setOverloadPolicy(new OverloadPolicy(getInt(line, 'o', 0), 
+            getInt(line, 'l', 0), null));
+        analyzer.setCoalescing(line.hasOption('C'));
+        int minConcurrency = getInt(line, 'a', 0);
+        if(minConcurrency > 0){
+            int maxConcurrency = getInt(line, 't', DEFAULT_ANALYSER_THREADS);
+            analyzer.setConcurrencyLimiter(new ConcurrencyLimiter(
+                Math.min(minConcurrency, maxConcurrency), maxConcurrency));
+        }
+        analyzer.setAdmissionController(new AdmissionController(
+            getInt(line, 'q', 0), getInt(line, 'Q', 0), 
+            getInt(line, 'f', 0) * 1024L * 1024L));
+        ModelCache modelCache = line.hasOption('m') ? 
+                new ModelCache(new File(line.getOptionValue('m'))) : null;
+        if(modelCache != null && line.hasOption('V')){
+            log.info(" > verify model cache {}", modelCache.getDirectory());
+            log.info("   ... removed {} corrupted models", modelCache.verify());
+        }
+        for(LangPipeline pipeline : initPipelines(configFiles, 
+                getInt(line, 'i', DEFAULT_INIT_THREADS), modelCache)){
             analyzer.setPipeline(pipeline.getLanguage(), pipeline);
         }
         
@@ -113,26 +212,115 @@ public class Main {
         //ServletHolder holder = new ServletHolder(new ServletContainer());
         holder.setInitParameter("javax.ws.rs.Application", StanfordNlpApplication.class.getName());
         handler.addServlet(holder, "/*");
+        //allows to cancel the analysis if the client disconnects
+        handler.addFilter(new FilterHolder(new ClientProbeFilter()), "/analysis/*", 
+            EnumSet.of(DispatcherType.REQUEST));
         handler.setContextPath("/");
         server.setHandler(handler);
         //now initialise the servlet context
-        handler.setAttribute(Constants.SERVLET_ATTRIBUTE_CONTENT_ITEM_FACTORY, 
-            lookupService(ContentItemFactory.class));
+        ContentItemFactory cif = lookupService(ContentItemFactory.class);
+        handler.setAttribute(Constants.SERVLET_ATTRIBUTE_CONTENT_ITEM_FACTORY, cif);
         handler.setAttribute(Constants.SERVLET_ATTRIBUTE_STANFORD_NLP, analyzer);
+        int warmupIterations = getInt(line, 'w', DEFAULT_WARMUP_ITERATIONS);
+        WarmUp warmUp = null;
+        if(warmupIterations > 0){
+            warmUp = new WarmUp(cif, line.hasOption('W') ? 
+                    new File(line.getOptionValue('W')) : null);
+            warmUp.setMaxIterations(warmupIterations);
+        }
+        //reloaded pipelines load their models concurrently. Idle threads time out
+        int initThreads = getInt(line, 'i', DEFAULT_INIT_THREADS);
+        ThreadPoolExecutor reloadExecutor = new ThreadPoolExecutor(initThreads, initThreads,
+            60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        reloadExecutor.allowCoreThreadTimeOut(true);
+        PipelineReloader reloader = new PipelineReloader(analyzer, configDir, reloadExecutor, 
+            modelCache, warmUp);
+        handler.setAttribute(Constants.SERVLET_ATTRIBUTE_PIPELINE_RELOADER, reloader);
         
         log.info(" ... starting server");
         server.start();
         log.info(" ... server started");
         System.out.println(" ... server started");
+        //warm up before reporting ready
+        if(warmUp != null){
+            log.info(" > warm up pipelines");
+            List<String> notWarmed = warmUp.warmUp(analyzer);
+            if(!notWarmed.isEmpty()){
+                System.out.println("WARNING: no warm up corpus for languages " + notWarmed
+                    + " (use -W to provide '{lang}.txt' files)");
+            }
+        }
+        analyzer.setReady(true);
+        log.info(" ... server ready");
+        System.out.println(" ... server ready");
+        int reloadInterval = getInt(line, 'r', DEFAULT_RELOAD_INTERVAL);
+        if(reloadInterval > 0){
+            reloader.start(reloadInterval * 1000L);
+        }
         try {
             server.join();
         }catch (InterruptedException e) {
         }
         log.info(" ... shutting down");
       System.out.println(" ... shutting down");
+        reloader.stop();
+        reloadExecutor.shutdown();
         executor.shutdown();
     }
 
+    /**
+     * Initialises the {@link LangPipeline}s for the parsed configurations.
+     * Pipelines are created concurrently and the annotators of all pipelines
+     * are loaded by using a thread pool with the parsed size.
+     * @param configFiles the '{lang}.pipeline' configuration files
+     * @param initThreads the number of threads used to load models
+     * @param modelCache the model cache or <code>null</code> if none
+     * @return the initialised pipelines
+     */
+    private static List<LangPipeline> initPipelines(Collection<File> configFiles, int initThreads,
+            final ModelCache modelCache) {
+        long start = System.currentTimeMillis();
+        //NOTE: use two pools as pipeline tasks wait for the annotator tasks
+        ExecutorService pipelineExecutor = Executors.newFixedThreadPool(configFiles.size());
+        final ExecutorService annotatorExecutor = Executors.newFixedThreadPool(initThreads);
+        try {
+            List<Future<LangPipeline>> tasks = new ArrayList<Future<LangPipeline>>(configFiles.size());
+            for(final File configFile : configFiles){
+                tasks.add(pipelineExecutor.submit(new Callable<LangPipeline>() {
+                    @Override
+                    public LangPipeline call() throws Exception {
+                        return new LangPipeline(configFile.getAbsolutePath(), annotatorExecutor, modelCache);
+                    }
+                }));
+            }
+            List<LangPipeline> pipelines = new ArrayList<LangPipeline>(tasks.size());
+            for(Future<LangPipeline> task : tasks){
+                pipelines.add(task.get());
+            }
+            log.info(" ... initialised {} pipeline(s) in {}ms", pipelines.size(),
+                System.currentTimeMillis() - start);
+            LexiconStore lexicons = LexiconStore.getInstance();
+            log.info(" ... shared {} lexicon(s) and {} strings (saved ~{}kByte)", new Object[]{
+                    lexicons.getSharedLexicons(), lexicons.getStringCount(),
+                    lexicons.getSavedBytes()/1024});
+            return pipelines;
+        } catch (InterruptedException e) {
+            throw new IllegalStateException("Interrupted while initialising the "
+                + "annotation pipelines", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException){
+                throw (RuntimeException)cause;
+            } else {
+                throw new IllegalStateException("Unable to initialise annotation "
+                    + "pipelines", cause);
+            }
+        } finally {
+            pipelineExecutor.shutdownNow();
+            annotatorExecutor.shutdownNow();
+        }
+    }
+
     /**
      * @param configDir
      * @throws IOException
@@ -2,6 +2,7 @@ package at.salzburgresearch.stanbol.enhancer.nlp.stanford.web;
 
 import org.apache.stanbol.enhancer.servicesapi.ContentItemFactory;
 
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.PipelineReloader;
 import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.StanfordNlpAnalyzer;
 
 public interface Constants {
@@ -10,5 +11,6 @@ public interface Constants {
     public static final String SERVLET_ATTRIBUTE_ANALYSERS_TREADS = 
             Constants.class.getPackage().getName()+".analysersThreads";
     public static final String SERVLET_ATTRIBUTE_CONTENT_ITEM_FACTORY = ContentItemFactory.class.getName();
+    public static final String SERVLET_ATTRIBUTE_PIPELINE_RELOADER = PipelineReloader.class.getName();
         
 }
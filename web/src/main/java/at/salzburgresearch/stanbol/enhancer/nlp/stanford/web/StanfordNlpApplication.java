@@ -10,8 +10,11 @@ import javax.ws.rs.core.Application;
 import org.apache.stanbol.enhancer.nlp.json.writer.AnalyzedTextWriter;
 
 import at.salzburgresearch.stanbol.enhancer.nlp.stanford.web.reader.BlobReader;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.web.resource.AdminResource;
 import at.salzburgresearch.stanbol.enhancer.nlp.stanford.web.resource.AnalysisResource;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.web.resource.HealthResource;
 import at.salzburgresearch.stanbol.enhancer.nlp.stanford.web.resource.MainResource;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.web.resource.MetricsResource;
 
 public class StanfordNlpApplication extends Application {
     
@@ -20,7 +23,8 @@ public class StanfordNlpApplication extends Application {
     public Set<Class<?>> getClasses() {
         return new HashSet<Class<?>>(Arrays.asList(
             AnalyzedTextWriter.class, BlobReader.class, MainResource.class,
-            AnalysisResource.class));
+            AnalysisResource.class, HealthResource.class, AdminResource.class,
+            MetricsResource.class));
     }
 
 }
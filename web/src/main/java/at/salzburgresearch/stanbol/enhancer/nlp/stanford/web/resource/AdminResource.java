@@ -0,0 +1,78 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.web.resource;
+
+import static at.salzburgresearch.stanbol.enhancer.nlp.stanford.web.Constants.SERVLET_ATTRIBUTE_PIPELINE_RELOADER;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.PipelineReloader;
+
+/**
+ * Administrative operations.<ul>
+ * <li> <code>POST /admin/reload[?lang={lang}]</code>: reloads the pipeline
+ * configuration of the parsed language (or of all languages) in the
+ * background. Returns <code>202</code>. Requests are processed by the current
+ * pipelines until the reloaded ones are ready.
+ * </ul>
+ * Administrative operations are only accepted from the local host (loopback
+ * address). Other clients get <code>403</code>. NOTE: if the server is run
+ * behind a reverse proxy on the same host the proxy needs to block
+ * <code>/admin</code>.
+ */
+@Path("/admin")
+public class AdminResource {
+
+    @Context
+    ServletContext servletContext;
+
+    @POST
+    @Path("reload")
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response reload(@QueryParam("lang") String language, @Context HttpServletRequest request){
+        if(!isLocal(request)){
+            return Response.status(Status.FORBIDDEN)
+                    .entity("Administrative operations are only allowed from the local host").build();
+        }
+        Object reloader = servletContext.getAttribute(SERVLET_ATTRIBUTE_PIPELINE_RELOADER);
+        if(!(reloader instanceof PipelineReloader)){
+            return Response.status(Status.SERVICE_UNAVAILABLE)
+                    .entity("Reloading of pipelines is not supported").build();
+        }
+        if(language != null && language.trim().isEmpty()){
+            language = null;
+        }
+        try {
+            ((PipelineReloader)reloader).reload(language);
+        } catch (IllegalArgumentException e) {
+            return Response.status(Status.NOT_FOUND).entity(e.getMessage()).build();
+        }
+        return Response.status(Status.ACCEPTED).entity("reloading "
+                + (language == null ? "all languages" : language)).build();
+    }
+
+    /**
+     * @return if the request was sent from a loopback address
+     */
+    static boolean isLocal(HttpServletRequest request){
+        String address = request == null ? null : request.getRemoteAddr();
+        if(address == null){
+            return false;
+        }
+        try { //remote addresses are IP literals so no lookup is done
+            return InetAddress.getByName(address).isLoopbackAddress();
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+}
@@ -6,29 +6,41 @@ import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CancellationException;
 
 import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.stanbol.enhancer.nlp.model.AnalysedText;
 import org.apache.stanbol.enhancer.servicesapi.Blob;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.AnalysisContext;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.AnalysisContext.ClientProbe;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.AnalysisContext.Priority;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.AnalysisRejectedException;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.AnalysisTimeoutException;
 import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.StanfordNlpAnalyzer;
 import at.salzburgresearch.stanbol.enhancer.nlp.stanford.web.util.Utils;
 
@@ -37,6 +49,47 @@ public class AnalysisResource {
 
     private final Logger log = LoggerFactory.getLogger(AnalysisResource.class);
     
+    /**
+     * Header used to request a subset of the layers (annotators) of the
+     * pipeline (e.g. '<code>pos</code>' or '<code>ner</code>'). Multiple
+     * layers are separated by comma. The '<code>layers</code>' query parameter
+     * can be used as an alternative.
+     */
+    public static final String LAYERS_HEADER = "X-Stanbol-NLP-Layers";
+    /**
+     * Response header set if some of the requested layers were skipped (e.g.
+     * because the server is overloaded). The value lists the skipped layers.
+     */
+    public static final String DEGRADED_HEADER = "X-Stanbol-NLP-Degraded";
+    /**
+     * Request header with the timeout in milliseconds. The '<code>timeout</code>'
+     * query parameter can be used as an alternative.
+     */
+    public static final String TIMEOUT_HEADER = "X-Stanbol-NLP-Timeout";
+    /**
+     * Request header to enable partial results (<code>true</code>). If set,
+     * the layers completed before the timeout are returned. In the response
+     * this header indicates that a partial result is returned. The
+     * '<code>partial</code>' query parameter can be used as an alternative.
+     */
+    public static final String PARTIAL_HEADER = "X-Stanbol-NLP-Partial";
+    /**
+     * Request header with the lane used to schedule the request: 
+     * '<code>interactive</code>' (default) or '<code>bulk</code>'. Bulk
+     * requests are processed after waiting interactive ones. The 
+     * '<code>priority</code>' query parameter can be used as an alternative.
+     */
+    public static final String PRIORITY_HEADER = "X-Stanbol-NLP-Priority";
+    /**
+     * HTTP status used if the analysis does not complete before the timeout
+     */
+    private static final int GATEWAY_TIMEOUT = 504;
+    /**
+     * Response header with the seconds after that a rejected request should
+     * be retried
+     */
+    private static final String RETRY_AFTER = "Retry-After";
+    
     @Context
     ServletContext servletContext;
 
@@ -63,8 +116,32 @@ public class AnalysisResource {
     @POST
     @Consumes(MediaType.TEXT_PLAIN)
     @Produces(MediaType.APPLICATION_JSON)
-    public Response analyse(Blob blob, @Context HttpHeaders headers){
+    public Response analyse(Blob blob, @QueryParam("layers") List<String> layersParam,
+            @QueryParam("timeout") String timeoutParam, @QueryParam("partial") String partialParam,
+            @QueryParam("priority") String priorityParam,
+            @Context HttpHeaders headers, @Context HttpServletRequest request){
         StanfordNlpAnalyzer analyser = getStanfordAnalyzer();
+        Collection<String> layers = parseLayers(layersParam, headers.getRequestHeader(LAYERS_HEADER));
+        long timeout;
+        String timeoutValue = timeoutParam != null ? timeoutParam : getFirst(headers, TIMEOUT_HEADER);
+        try {
+            timeout = timeoutValue == null ? 0 : Long.parseLong(timeoutValue.trim());
+        } catch (NumberFormatException e) {
+            return Response.status(BAD_REQUEST).entity("The timeout MUST BE a number "
+                + "of milliseconds (parsed: "+timeoutValue+")!").build();
+        }
+        String priorityValue = priorityParam != null ? priorityParam : getFirst(headers, PRIORITY_HEADER);
+        Priority priority;
+        try {
+            priority = priorityValue == null ? null : 
+                Priority.valueOf(priorityValue.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return Response.status(BAD_REQUEST).entity("Unknown priority '" + priorityValue
+                + "' (supported: " + Arrays.toString(Priority.values()).toLowerCase(Locale.ROOT)
+                + ")!").build();
+        }
+        boolean partialResults = Boolean.parseBoolean(partialParam != null ? partialParam : 
+            getFirst(headers, PARTIAL_HEADER));
         List<String> contentLanguages = headers.getRequestHeader(HttpHeaders.CONTENT_LANGUAGE);
         final String language;
         //Now retrieve/detect the language of the text
@@ -96,18 +173,75 @@ public class AnalysisResource {
             }
         }
         AnalysedText at; 
+        AnalysisContext context = new AnalysisContext(layers);
+        context.setTimeout(timeout);
+        context.setPartialResults(partialResults);
+        context.setPriority(priority);
+        Object probe = request == null ? null : request.getAttribute(ClientProbe.class.getName());
+        if(probe instanceof ClientProbe){
+            context.setClientProbe((ClientProbe)probe);
+        }
         try {
-            at = analyser.analyse(language,blob);
+            at = analyser.analyse(language,blob,context);
+        } catch (AnalysisRejectedException e) { //queue full or low memory
+            return Response.status(Status.SERVICE_UNAVAILABLE).entity(e.getMessage())
+                    .header(RETRY_AFTER, e.getRetryAfter())
+                    .header(HttpHeaders.CONTENT_LANGUAGE, language)
+                    .build();
+        } catch (AnalysisTimeoutException e) {
+            return Response.status(GATEWAY_TIMEOUT).entity(e.getMessage())
+                    .header(HttpHeaders.CONTENT_LANGUAGE, language)
+                    .build();
+        } catch (CancellationException e) {
+            log.info("Analysis cancelled ({})", e.getMessage());
+            return Response.status(Status.SERVICE_UNAVAILABLE).entity(e.getMessage())
+                    .header(HttpHeaders.CONTENT_LANGUAGE, language)
+                    .build();
         } catch (IOException e) {
             log.error("Unable to read data from Blob",e);
             throw new WebApplicationException(e);
+        } catch (IllegalArgumentException e) { //unsupported layer
+            return Response.status(BAD_REQUEST).entity(e.getMessage())
+                    .header(HttpHeaders.CONTENT_LANGUAGE, language)
+                    .build();
         } catch (RuntimeException e) {
             log.error("Exception while analysing Blob",e);
             throw new WebApplicationException(e);
         }
-        return Response.ok(at)
-                .header(HttpHeaders.CONTENT_LANGUAGE, language)
-                .build();
+        ResponseBuilder rb = Response.ok(at)
+                .header(HttpHeaders.CONTENT_LANGUAGE, language);
+        if(context.isDegraded()){
+            rb.header(DEGRADED_HEADER, StringUtils.join(context.getSkipped(), ", "));
+        }
+        if(context.isPartial()){
+            rb.header(PARTIAL_HEADER, Boolean.TRUE.toString());
+        }
+        return rb.build();
+    }
+    
+    private static String getFirst(HttpHeaders headers, String header){
+        List<String> values = headers.getRequestHeader(header);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+    
+    /**
+     * Parses the requested layers from the query parameter and the header
+     * @return the layers or <code>null</code> if none are requested
+     */
+    private Collection<String> parseLayers(List<String> params, List<String> headerValues){
+        List<String> layers = new ArrayList<String>();
+        for(List<String> values : Arrays.asList(params, headerValues)){
+            if(values != null){
+                for(String value : values){
+                    for(String layer : value.split(",")){
+                        if(!layer.trim().isEmpty()){
+                            layers.add(layer.trim());
+                        }
+                    }
+                }
+            }
+        }
+        return layers.isEmpty() ? null : layers;
     }
     
     private StanfordNlpAnalyzer getStanfordAnalyzer(){
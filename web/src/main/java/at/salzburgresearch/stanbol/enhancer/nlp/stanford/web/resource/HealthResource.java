@@ -0,0 +1,52 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.web.resource;
+
+import static at.salzburgresearch.stanbol.enhancer.nlp.stanford.web.Constants.SERVLET_ATTRIBUTE_STANFORD_NLP;
+
+import javax.servlet.ServletContext;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.StanfordNlpAnalyzer;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.web.util.Utils;
+
+/**
+ * Health checks intended to be used by load balancers and orchestration
+ * tools.<ul>
+ * <li> <code>/health/live</code>: <code>200</code> as long as the server is
+ * running
+ * <li> <code>/health/ready</code>: <code>200</code> if the analyser is ready
+ * to process requests (pipelines are initialised and warmed up). Otherwise
+ * <code>503</code>
+ * </ul>
+ */
+@Path("/health")
+public class HealthResource {
+
+    @Context
+    ServletContext servletContext;
+
+    @GET
+    @Path("live")
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response live(){
+        return Response.ok("live").build();
+    }
+
+    @GET
+    @Path("ready")
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response ready(){
+        StanfordNlpAnalyzer analyser = Utils.getResource(StanfordNlpAnalyzer.class, 
+            servletContext, SERVLET_ATTRIBUTE_STANFORD_NLP);
+        if(analyser.isReady()){
+            return Response.ok("ready").build();
+        } else {
+            return Response.status(Status.SERVICE_UNAVAILABLE).entity("not ready").build();
+        }
+    }
+}
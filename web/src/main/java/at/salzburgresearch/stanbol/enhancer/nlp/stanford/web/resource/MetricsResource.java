@@ -0,0 +1,172 @@
+package at.salzburgresearch.stanbol.enhancer.nlp.stanford.web.resource;
+
+import static at.salzburgresearch.stanbol.enhancer.nlp.stanford.web.Constants.SERVLET_ATTRIBUTE_STANFORD_NLP;
+
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.servlet.ServletContext;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.AdmissionController;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.AnnotatorReplicas;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.CircuitBreaker;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.ConcurrencyLimiter;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.LangPipeline;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.OverloadPolicy;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.PipelineStages;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.SentenceCache;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.analyser.StanfordNlpAnalyzer;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.impl.NumericCueGate;
+import at.salzburgresearch.stanbol.enhancer.nlp.stanford.web.util.Utils;
+import edu.stanford.nlp.pipeline.AnnotationPipeline;
+
+/**
+ * Metrics of the analyser as plain text. Each line contains the name and the
+ * current value of a metric separated by a space (compatible with the
+ * Prometheus text format). Metrics of deactivated features are omitted.
+ */
+@Path("/metrics")
+public class MetricsResource {
+
+    private static final String PREFIX = "stanbol_nlp_";
+
+    @Context
+    ServletContext servletContext;
+
+    @GET
+    @Produces(MediaType.TEXT_PLAIN)
+    public String metrics(){
+        StanfordNlpAnalyzer analyser = Utils.getResource(StanfordNlpAnalyzer.class,
+            servletContext, SERVLET_ATTRIBUTE_STANFORD_NLP);
+        StringBuilder sb = new StringBuilder();
+        append(sb, "ready", analyser.isReady() ? 1 : 0);
+        ConcurrencyLimiter limiter = analyser.getConcurrencyLimiter();
+        if(limiter != null){
+            append(sb, "concurrency_limit", limiter.getLimit());
+            append(sb, "concurrency_limit_min", limiter.getMinLimit());
+            append(sb, "concurrency_limit_max", limiter.getMaxLimit());
+            append(sb, "concurrency_inflight", limiter.getInflight());
+            append(sb, "concurrency_baseline_ns_per_char", limiter.getBaseline());
+        }
+        append(sb, "coalesced_total", analyser.getCoalesced());
+        for(Entry<String,Double> rate : analyser.getCostModel().getRates().entrySet()){
+            append(sb, "cost_ns_per_char{pipeline=\"" + rate.getKey() + "\"}", rate.getValue());
+        }
+        //ner annotators (and their gates) are shared by pipelines with the same configuration
+        //and pipelines with replicas have several gates
+        Map<NumericCueGate,Set<String>> numericGates = new IdentityHashMap<NumericCueGate,Set<String>>();
+        for(String lang : analyser.getSupported()){
+            AnnotationPipeline pipeline = analyser.getPipeline(lang);
+            if(!(pipeline instanceof LangPipeline)){
+                continue;
+            }
+            for(AnnotatorReplicas replicas : ((LangPipeline)pipeline).getReplicas()){
+                String labels = "{pipeline=\"" + lang + "\",annotator=\"" + replicas.getName() + "\"}";
+                append(sb, "annotator_replicas" + labels, replicas.getSize());
+                append(sb, "annotator_replicas_available" + labels, replicas.getAvailable());
+                append(sb, "annotator_calls_total" + labels, replicas.getCalls());
+                append(sb, "annotator_wait_ms_total" + labels, replicas.getWaitTime());
+                append(sb, "annotator_cpu_ms_total" + labels, replicas.getCpuTime());
+                append(sb, "annotator_blocked_ms_total" + labels, replicas.getBlockedTime());
+            }
+            SentenceCache cache = ((LangPipeline)pipeline).getSentenceCache();
+            if(cache != null){
+                String labels = "{pipeline=\"" + lang + "\"}";
+                append(sb, "sentence_cache_hits_total" + labels, cache.getHits());
+                append(sb, "sentence_cache_misses_total" + labels, cache.getMisses());
+                append(sb, "sentence_cache_hit_ratio" + labels, cache.getHitRate());
+                append(sb, "sentence_cache_entries" + labels, cache.getSize());
+                append(sb, "sentence_cache_bytes" + labels, cache.getEstimatedBytes());
+            }
+            for(NumericCueGate gate : ((LangPipeline)pipeline).getNumericCueGates()){
+                Set<String> langs = numericGates.get(gate);
+                if(langs == null){
+                    langs = new TreeSet<String>();
+                    numericGates.put(gate, langs);
+                }
+                langs.add(lang);
+            }
+            PipelineStages stages = ((LangPipeline)pipeline).getStages();
+            if(stages != null){
+                for(Entry<String,Integer> workers : stages.getWorkers().entrySet()){
+                    append(sb, "stage_workers{pipeline=\"" + lang + "\",stage=\""
+                        + workers.getKey() + "\"}", workers.getValue());
+                }
+                for(Entry<String,Integer> documents : stages.getDocuments().entrySet()){
+                    append(sb, "stage_documents{pipeline=\"" + lang + "\",stage=\""
+                        + documents.getKey() + "\"}", documents.getValue());
+                }
+            }
+        }
+        appendNumericGates(sb, numericGates);
+        AdmissionController admission = analyser.getAdmissionController();
+        if(admission != null){
+            append(sb, "queued", admission.getQueued());
+            append(sb, "queued_chars", admission.getQueuedChars());
+            append(sb, "rejected_total", admission.getRejected());
+            append(sb, "retry_after_seconds", admission.getRetryAfter());
+        }
+        OverloadPolicy policy = analyser.getOverloadPolicy();
+        if(policy != null){
+            append(sb, "requests", policy.getRequests());
+            append(sb, "latency_ms", policy.getLatency());
+            append(sb, "overloaded", policy.isOverloaded() ? 1 : 0);
+            for(CircuitBreaker breaker : policy.getBreakers()){
+                append(sb, "breaker_open{breaker=\"" + breaker.getName() + "\"}",
+                    breaker.getState() == CircuitBreaker.State.CLOSED ? 0 : 1);
+                append(sb, "breaker_trips_total{breaker=\"" + breaker.getName() + "\"}",
+                    breaker.getTrips());
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends the counters of the numeric cue gates. Gates shared by several
+     * pipelines are reported once with all of them as pipeline label
+     * (e.g. <code>pipeline="de,en"</code>).
+     */
+    private static void appendNumericGates(StringBuilder sb, Map<NumericCueGate,Set<String>> gates){
+        Map<String,long[]> counts = new TreeMap<String,long[]>();
+        for(Entry<NumericCueGate,Set<String>> entry : gates.entrySet()){
+            StringBuilder langs = new StringBuilder();
+            for(String lang : entry.getValue()){
+                if(langs.length() > 0){
+                    langs.append(',');
+                }
+                langs.append(lang);
+            }
+            long[] count = counts.get(langs.toString());
+            if(count == null){
+                count = new long[2];
+                counts.put(langs.toString(), count);
+            }
+            count[0] += entry.getKey().getSentences();
+            count[1] += entry.getKey().getSkipped();
+        }
+        for(Entry<String,long[]> entry : counts.entrySet()){
+            String labels = "{pipeline=\"" + entry.getKey() + "\"}";
+            append(sb, "ner_numeric_sentences_total" + labels, entry.getValue()[0]);
+            append(sb, "ner_numeric_skipped_total" + labels, entry.getValue()[1]);
+        }
+    }
+
+    private static void append(StringBuilder sb, String name, long value){
+        sb.append(PREFIX).append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void append(StringBuilder sb, String name, double value){
+        sb.append(PREFIX).append(name).append(' ')
+            .append(String.format(Locale.ROOT, "%.1f", value)).append('\n');
+    }
+}